@@ -0,0 +1,294 @@
+// Copyright (c) 2011-present, Facebook, Inc.  All rights reserved.
+//  This source code is licensed under both the GPLv2 (found in the
+//  COPYING file in the root directory) and Apache 2.0 License
+//  (found in the LICENSE.Apache file in the root directory).
+
+#include <jni.h>
+
+#include <atomic>
+#include <chrono>
+#include <string>
+#include <vector>
+
+#include "include/org_rocksdb_ChainedCompactionFilter.h"
+#include "include/org_rocksdb_CollectionTtlCompactionFilter.h"
+#include "rocksdb/compaction_filter.h"
+#include "rocksdb/db.h"
+#include "rocksjni/cplusplus_to_java_convert.h"
+
+namespace {
+
+int32_t ReadInt32(const char* p) {
+  const auto* u = reinterpret_cast<const unsigned char*>(p);
+  return static_cast<int32_t>(
+      (static_cast<uint32_t>(u[0]) << 24) | (static_cast<uint32_t>(u[1]) << 16) |
+      (static_cast<uint32_t>(u[2]) << 8) | static_cast<uint32_t>(u[3]));
+}
+
+int64_t NowSeconds() {
+  return std::chrono::duration_cast<std::chrono::seconds>(
+             std::chrono::system_clock::now().time_since_epoch())
+      .count();
+}
+
+// The last meta looked up by a compaction thread. Versions come from a
+// global increasing sequence, so a member older than its meta, or one whose
+// meta was missing when a newer-or-equal member was checked, stays dead; only
+// a member newer than the cached lookup needs a fresh Get. Members of one
+// collection are adjacent in key order, so most rows hit this cache.
+struct MetaLookup {
+  uint64_t owner = 0;
+  std::string meta_key;
+  bool found = false;
+  // meta version when found, otherwise the highest member version seen dead
+  int32_t version = 0;
+  int32_t timestamp = 0;
+};
+
+std::atomic<uint64_t> next_filter_id{1};
+
+struct MetaLayout {
+  char head;
+  size_t size;
+  size_t timestamp_offset;
+  size_t version_offset;
+};
+
+class CollectionTtlCompactionFilter
+    : public ROCKSDB_NAMESPACE::CompactionFilter {
+ public:
+  CollectionTtlCompactionFilter(bool members, std::vector<MetaLayout> layouts,
+                                std::string member_heads)
+      : members_(members),
+        layouts_(std::move(layouts)),
+        member_heads_(std::move(member_heads)),
+        id_(next_filter_id.fetch_add(1)),
+        db_(nullptr),
+        meta_cf_(nullptr) {}
+
+  bool Filter(int /*level*/, const ROCKSDB_NAMESPACE::Slice& key,
+              const ROCKSDB_NAMESPACE::Slice& existing_value,
+              std::string* /*new_value*/,
+              bool* /*value_changed*/) const override {
+    if (key.empty()) {
+      return false;
+    }
+    return members_ ? DeadMember(key) : ExpiredMeta(key, existing_value);
+  }
+
+  const char* Name() const override { return "CollectionTtlCompactionFilter"; }
+
+  void SetMetaSource(ROCKSDB_NAMESPACE::DB* db,
+                     ROCKSDB_NAMESPACE::ColumnFamilyHandle* meta_cf) {
+    meta_cf_.store(meta_cf);
+    db_.store(db);
+  }
+
+ private:
+  const MetaLayout* FindLayout(char head) const {
+    for (const auto& layout : layouts_) {
+      if (layout.head == head) {
+        return &layout;
+      }
+    }
+    return nullptr;
+  }
+
+  static bool Expired(int32_t timestamp) {
+    return timestamp > 0 && timestamp <= NowSeconds();
+  }
+
+  bool Dead(const MetaLayout& layout, const char* meta) const {
+    return Expired(ReadInt32(meta + layout.timestamp_offset));
+  }
+
+  bool ExpiredMeta(const ROCKSDB_NAMESPACE::Slice& key,
+                   const ROCKSDB_NAMESPACE::Slice& value) const {
+    const MetaLayout* layout = FindLayout(key[0]);
+    if (layout == nullptr || value.size() != layout->size ||
+        value[0] != layout->head) {
+      return false;
+    }
+    return Dead(*layout, value.data());
+  }
+
+  bool DeadMember(const ROCKSDB_NAMESPACE::Slice& key) const {
+    if (member_heads_.find(key[0]) == std::string::npos || key.size() < 5) {
+      return false;
+    }
+    ROCKSDB_NAMESPACE::DB* db = db_.load();
+    ROCKSDB_NAMESPACE::ColumnFamilyHandle* meta_cf = meta_cf_.load();
+    if (db == nullptr || meta_cf == nullptr) {
+      return false;
+    }
+    const int32_t meta_key_size = ReadInt32(key.data() + 1);
+    if (meta_key_size <= 0 ||
+        key.size() < 5 + static_cast<size_t>(meta_key_size) + 4) {
+      return false;
+    }
+    const ROCKSDB_NAMESPACE::Slice meta_key(key.data() + 5, meta_key_size);
+    const MetaLayout* layout = FindLayout(meta_key[0]);
+    if (layout == nullptr) {
+      return false;
+    }
+    const int32_t version = ReadInt32(key.data() + 5 + meta_key_size);
+
+    thread_local MetaLookup last;
+    const bool cached = last.owner == id_ &&
+                        ROCKSDB_NAMESPACE::Slice(last.meta_key) == meta_key;
+    if (cached) {
+      if (last.found) {
+        if (version < last.version) {
+          return true;
+        }
+        if (version == last.version) {
+          return Expired(last.timestamp);
+        }
+      } else if (version <= last.version) {
+        return true;
+      }
+    }
+
+    std::string meta;
+    const ROCKSDB_NAMESPACE::Status s =
+        db->Get(ROCKSDB_NAMESPACE::ReadOptions(), meta_cf, meta_key, &meta);
+    if (s.IsNotFound()) {
+      if (!cached || last.found || last.version < version) {
+        last.owner = id_;
+        last.meta_key.assign(meta_key.data(), meta_key.size());
+        last.found = false;
+        last.version = version;
+      }
+      return true;
+    }
+    if (!s.ok() || meta.size() != layout->size) {
+      return false;
+    }
+    last.owner = id_;
+    last.meta_key.assign(meta_key.data(), meta_key.size());
+    last.found = true;
+    last.version = ReadInt32(meta.data() + layout->version_offset);
+    last.timestamp = ReadInt32(meta.data() + layout->timestamp_offset);
+    if (last.version != version) {
+      return true;
+    }
+    return Expired(last.timestamp);
+  }
+
+  const bool members_;
+  const std::vector<MetaLayout> layouts_;
+  const std::string member_heads_;
+  // distinguishes filters in the thread-local lookup cache across reopens
+  const uint64_t id_;
+  std::atomic<ROCKSDB_NAMESPACE::DB*> db_;
+  std::atomic<ROCKSDB_NAMESPACE::ColumnFamilyHandle*> meta_cf_;
+};
+
+class ChainedCompactionFilter : public ROCKSDB_NAMESPACE::CompactionFilter {
+ public:
+  explicit ChainedCompactionFilter(
+      std::vector<const ROCKSDB_NAMESPACE::CompactionFilter*> filters)
+      : filters_(std::move(filters)) {}
+
+  bool Filter(int level, const ROCKSDB_NAMESPACE::Slice& key,
+              const ROCKSDB_NAMESPACE::Slice& existing_value,
+              std::string* new_value, bool* value_changed) const override {
+    for (const auto* filter : filters_) {
+      if (filter->Filter(level, key, existing_value, new_value,
+                         value_changed)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  const char* Name() const override { return "ChainedCompactionFilter"; }
+
+ private:
+  const std::vector<const ROCKSDB_NAMESPACE::CompactionFilter*> filters_;
+};
+
+}  // namespace
+
+/*
+ * Class:     org_rocksdb_CollectionTtlCompactionFilter
+ * Method:    createNewCollectionTtlCompactionFilter0
+ * Signature: (Z[B[I[I[I[B)J
+ */
+jlong Java_org_rocksdb_CollectionTtlCompactionFilter_createNewCollectionTtlCompactionFilter0(
+    JNIEnv* env, jclass /*jcls*/, jboolean jmembers, jbyteArray jmeta_heads,
+    jintArray jmeta_sizes, jintArray jtimestamp_offsets,
+    jintArray jversion_offsets, jbyteArray jmember_heads) {
+  const jsize count = env->GetArrayLength(jmeta_heads);
+  std::vector<jbyte> heads(count);
+  std::vector<jint> sizes(count);
+  std::vector<jint> timestamp_offsets(count);
+  std::vector<jint> version_offsets(count);
+  env->GetByteArrayRegion(jmeta_heads, 0, count, heads.data());
+  env->GetIntArrayRegion(jmeta_sizes, 0, count, sizes.data());
+  env->GetIntArrayRegion(jtimestamp_offsets, 0, count,
+                         timestamp_offsets.data());
+  env->GetIntArrayRegion(jversion_offsets, 0, count, version_offsets.data());
+  const jsize member_count = env->GetArrayLength(jmember_heads);
+  std::string member_heads(static_cast<size_t>(member_count), '\0');
+  env->GetByteArrayRegion(jmember_heads, 0, member_count,
+                          reinterpret_cast<jbyte*>(&member_heads[0]));
+  if (env->ExceptionCheck()) {
+    // exception thrown: ArrayIndexOutOfBoundsException
+    return 0;
+  }
+
+  std::vector<MetaLayout> layouts;
+  for (jsize i = 0; i < count; i++) {
+    layouts.push_back({static_cast<char>(heads[i]),
+                       static_cast<size_t>(sizes[i]),
+                       static_cast<size_t>(timestamp_offsets[i]),
+                       static_cast<size_t>(version_offsets[i])});
+  }
+  auto* compaction_filter = new CollectionTtlCompactionFilter(
+      static_cast<bool>(jmembers), std::move(layouts), member_heads);
+
+  // set the native handle to our native compaction filter
+  return GET_CPLUSPLUS_POINTER(compaction_filter);
+}
+
+/*
+ * Class:     org_rocksdb_CollectionTtlCompactionFilter
+ * Method:    setMetaSource
+ * Signature: (JJJ)V
+ */
+void Java_org_rocksdb_CollectionTtlCompactionFilter_setMetaSource(
+    JNIEnv* /*env*/, jobject /*jobj*/, jlong jhandle, jlong jdb_handle,
+    jlong jcf_handle) {
+  auto* compaction_filter =
+      reinterpret_cast<CollectionTtlCompactionFilter*>(jhandle);
+  compaction_filter->SetMetaSource(
+      reinterpret_cast<ROCKSDB_NAMESPACE::DB*>(jdb_handle),
+      reinterpret_cast<ROCKSDB_NAMESPACE::ColumnFamilyHandle*>(jcf_handle));
+}
+
+/*
+ * Class:     org_rocksdb_ChainedCompactionFilter
+ * Method:    createNewChainedCompactionFilter0
+ * Signature: ([J)J
+ */
+jlong Java_org_rocksdb_ChainedCompactionFilter_createNewChainedCompactionFilter0(
+    JNIEnv* env, jclass /*jcls*/, jlongArray jfilter_handles) {
+  const jsize count = env->GetArrayLength(jfilter_handles);
+  std::vector<jlong> handles(count);
+  env->GetLongArrayRegion(jfilter_handles, 0, count, handles.data());
+  if (env->ExceptionCheck()) {
+    // exception thrown: ArrayIndexOutOfBoundsException
+    return 0;
+  }
+
+  std::vector<const ROCKSDB_NAMESPACE::CompactionFilter*> filters;
+  for (const jlong handle : handles) {
+    filters.push_back(
+        reinterpret_cast<ROCKSDB_NAMESPACE::CompactionFilter*>(handle));
+  }
+  auto* compaction_filter = new ChainedCompactionFilter(std::move(filters));
+
+  // set the native handle to our native compaction filter
+  return GET_CPLUSPLUS_POINTER(compaction_filter);
+}
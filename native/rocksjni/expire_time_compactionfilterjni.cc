@@ -0,0 +1,95 @@
+// Copyright (c) 2011-present, Facebook, Inc.  All rights reserved.
+//  This source code is licensed under both the GPLv2 (found in the
+//  COPYING file in the root directory) and Apache 2.0 License
+//  (found in the LICENSE.Apache file in the root directory).
+
+#include <jni.h>
+
+#include <atomic>
+#include <chrono>
+#include <string>
+
+#include "include/org_rocksdb_ExpireTimeCompactionFilter.h"
+#include "rocksdb/compaction_filter.h"
+#include "rocksjni/cplusplus_to_java_convert.h"
+
+namespace {
+
+// Removes entries under prefix_ whose value starts with a 4-byte big-endian
+// expire time (seconds) that is not 0 and is not in the future.
+class ExpireTimeCompactionFilter : public ROCKSDB_NAMESPACE::CompactionFilter {
+ public:
+  explicit ExpireTimeCompactionFilter(std::string prefix)
+      : prefix_(std::move(prefix)), enabled_(false) {}
+
+  bool Filter(int /*level*/, const ROCKSDB_NAMESPACE::Slice& key,
+              const ROCKSDB_NAMESPACE::Slice& existing_value,
+              std::string* /*new_value*/,
+              bool* /*value_changed*/) const override {
+    if (!enabled_.load(std::memory_order_relaxed)) {
+      return false;
+    }
+    if (!key.starts_with(prefix_) || existing_value.size() < 4) {
+      return false;
+    }
+    const auto* p =
+        reinterpret_cast<const unsigned char*>(existing_value.data());
+    const int32_t expire = static_cast<int32_t>(
+        (static_cast<uint32_t>(p[0]) << 24) |
+        (static_cast<uint32_t>(p[1]) << 16) |
+        (static_cast<uint32_t>(p[2]) << 8) | static_cast<uint32_t>(p[3]));
+    if (expire == 0) {
+      return false;
+    }
+    const int64_t now = std::chrono::duration_cast<std::chrono::seconds>(
+                            std::chrono::system_clock::now().time_since_epoch())
+                            .count();
+    return static_cast<int64_t>(expire) <= now;
+  }
+
+  const char* Name() const override { return "ExpireTimeCompactionFilter"; }
+
+  void SetEnabled(bool enabled) {
+    enabled_.store(enabled, std::memory_order_relaxed);
+  }
+
+ private:
+  const std::string prefix_;
+  std::atomic<bool> enabled_;
+};
+
+}  // namespace
+
+/*
+ * Class:     org_rocksdb_ExpireTimeCompactionFilter
+ * Method:    createNewExpireTimeCompactionFilter0
+ * Signature: ([B)J
+ */
+jlong Java_org_rocksdb_ExpireTimeCompactionFilter_createNewExpireTimeCompactionFilter0(
+    JNIEnv* env, jclass /*jcls*/, jbyteArray jprefix) {
+  const jsize len = env->GetArrayLength(jprefix);
+  std::string prefix(static_cast<size_t>(len), '\0');
+  env->GetByteArrayRegion(jprefix, 0, len,
+                          reinterpret_cast<jbyte*>(&prefix[0]));
+  if (env->ExceptionCheck()) {
+    // exception thrown: ArrayIndexOutOfBoundsException
+    return 0;
+  }
+
+  auto* compaction_filter = new ExpireTimeCompactionFilter(prefix);
+
+  // set the native handle to our native compaction filter
+  return GET_CPLUSPLUS_POINTER(compaction_filter);
+}
+
+/*
+ * Class:     org_rocksdb_ExpireTimeCompactionFilter
+ * Method:    setEnabled
+ * Signature: (JZ)V
+ */
+void Java_org_rocksdb_ExpireTimeCompactionFilter_setEnabled(
+    JNIEnv* /*env*/, jobject /*jobj*/, jlong jhandle, jboolean jenabled) {
+  auto* compaction_filter =
+      reinterpret_cast<ExpireTimeCompactionFilter*>(jhandle);
+  compaction_filter->SetEnabled(static_cast<bool>(jenabled));
+}
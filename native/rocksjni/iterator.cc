@@ -13,6 +13,8 @@
 #include <stdlib.h>
 
 #include <algorithm>
+#include <cstdint>
+#include <cstring>
 
 #include "include/org_rocksdb_RocksIterator.h"
 #include "rocksjni/portal.h"
@@ -338,3 +340,72 @@ jint Java_org_rocksdb_RocksIterator_valueByteArray0(
 
   return static_cast<jsize>(value_slice.size());
 }
+
+namespace {
+inline void PutBigEndian32(char* dst, uint32_t v) {
+  dst[0] = static_cast<char>(v >> 24);
+  dst[1] = static_cast<char>(v >> 16);
+  dst[2] = static_cast<char>(v >> 8);
+  dst[3] = static_cast<char>(v);
+}
+}  // namespace
+
+/*
+ * Copies up to jmax_entries entries, starting at the current position, into
+ * the direct buffer as [int keyLen][key][int valueLen][value] (big-endian
+ * lengths), advancing the iterator past every entry written. Throws a
+ * RocksDBException if the iterator stopped on an error.
+ *
+ * Class:     org_rocksdb_RocksIterator
+ * Method:    nextBatch0
+ * Signature: (JLjava/nio/ByteBuffer;IIIZ)I
+ */
+jint Java_org_rocksdb_RocksIterator_nextBatch0(
+    JNIEnv* env, jobject /*jobj*/, jlong handle, jobject jtarget,
+    jint jtarget_off, jint jtarget_len, jint jmax_entries, jboolean jreverse) {
+  auto* it = reinterpret_cast<ROCKSDB_NAMESPACE::Iterator*>(handle);
+  char* target = reinterpret_cast<char*>(env->GetDirectBufferAddress(jtarget));
+  if (target == nullptr ||
+      env->GetDirectBufferCapacity(jtarget) < (jtarget_off + jtarget_len)) {
+    ROCKSDB_NAMESPACE::RocksDBExceptionJni::ThrowNew(env,
+                                                     "Invalid target argument");
+    return 0;
+  }
+
+  char* pos = target + jtarget_off;
+  const char* end = pos + jtarget_len;
+  jint count = 0;
+  while (count < jmax_entries && it->Valid()) {
+    const ROCKSDB_NAMESPACE::Slice key = it->key();
+    const ROCKSDB_NAMESPACE::Slice value = it->value();
+    const size_t need = 8 + key.size() + value.size();
+    if (static_cast<size_t>(end - pos) < need) {
+      if (count == 0) {
+        // the first entry does not fit; report the size it needs
+        return -static_cast<jint>(
+            std::min(need, static_cast<size_t>(INT32_MAX)));
+      }
+      break;
+    }
+    PutBigEndian32(pos, static_cast<uint32_t>(key.size()));
+    memcpy(pos + 4, key.data(), key.size());
+    pos += 4 + key.size();
+    PutBigEndian32(pos, static_cast<uint32_t>(value.size()));
+    memcpy(pos + 4, value.data(), value.size());
+    pos += 4 + value.size();
+    count++;
+    if (jreverse) {
+      it->Prev();
+    } else {
+      it->Next();
+    }
+  }
+  // an iterator that stopped on an error is no longer valid; report it
+  // instead of letting the caller treat it as the end of the range
+  ROCKSDB_NAMESPACE::Status s = it->status();
+  if (!s.ok()) {
+    ROCKSDB_NAMESPACE::RocksDBExceptionJni::ThrowNew(env, s);
+    return 0;
+  }
+  return count;
+}
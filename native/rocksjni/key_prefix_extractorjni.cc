@@ -0,0 +1,88 @@
+// Copyright (c) 2011-present, Facebook, Inc.  All rights reserved.
+//  This source code is licensed under both the GPLv2 (found in the
+//  COPYING file in the root directory) and Apache 2.0 License
+//  (found in the LICENSE.Apache file in the root directory).
+
+#include <jni.h>
+
+#include <memory>
+#include <string>
+
+#include "include/org_rocksdb_KeyPrefixExtractor.h"
+#include "rocksdb/slice_transform.h"
+#include "rocksjni/cplusplus_to_java_convert.h"
+
+namespace {
+
+// Prefix is [head][int32 big-endian n][n bytes][suffix_length bytes], for
+// keys whose first byte is one of heads_.
+class KeyPrefixExtractor : public ROCKSDB_NAMESPACE::SliceTransform {
+ public:
+  KeyPrefixExtractor(std::string heads, size_t suffix_length)
+      : heads_(std::move(heads)), suffix_length_(suffix_length) {}
+
+  const char* Name() const override { return "kitdb.KeyPrefixExtractor"; }
+
+  ROCKSDB_NAMESPACE::Slice Transform(
+      const ROCKSDB_NAMESPACE::Slice& key) const override {
+    return ROCKSDB_NAMESPACE::Slice(key.data(), PrefixLength(key));
+  }
+
+  bool InDomain(const ROCKSDB_NAMESPACE::Slice& key) const override {
+    return PrefixLength(key) > 0;
+  }
+
+ private:
+  size_t PrefixLength(const ROCKSDB_NAMESPACE::Slice& key) const {
+    if (key.size() < 5 || heads_.find(key[0]) == std::string::npos) {
+      return 0;
+    }
+    const auto* p = reinterpret_cast<const unsigned char*>(key.data()) + 1;
+    const size_t n = (static_cast<size_t>(p[0]) << 24) |
+                     (static_cast<size_t>(p[1]) << 16) |
+                     (static_cast<size_t>(p[2]) << 8) |
+                     static_cast<size_t>(p[3]);
+    const size_t length = 5 + n + suffix_length_;
+    return length <= key.size() ? length : 0;
+  }
+
+  const std::string heads_;
+  const size_t suffix_length_;
+};
+
+}  // namespace
+
+/*
+ * Class:     org_rocksdb_KeyPrefixExtractor
+ * Method:    newKeyPrefixExtractor
+ * Signature: ([BI)J
+ */
+jlong Java_org_rocksdb_KeyPrefixExtractor_newKeyPrefixExtractor(
+    JNIEnv* env, jclass /*jcls*/, jbyteArray jheads, jint jsuffix_length) {
+  const jsize len = env->GetArrayLength(jheads);
+  std::string heads(static_cast<size_t>(len), '\0');
+  env->GetByteArrayRegion(jheads, 0, len, reinterpret_cast<jbyte*>(&heads[0]));
+  if (env->ExceptionCheck()) {
+    // exception thrown: ArrayIndexOutOfBoundsException
+    return 0;
+  }
+  auto* sptr_prefix_extractor =
+      new std::shared_ptr<ROCKSDB_NAMESPACE::SliceTransform>(
+          std::make_shared<KeyPrefixExtractor>(
+              heads, static_cast<size_t>(jsuffix_length)));
+  return GET_CPLUSPLUS_POINTER(sptr_prefix_extractor);
+}
+
+/*
+ * Class:     org_rocksdb_KeyPrefixExtractor
+ * Method:    disposeInternal
+ * Signature: (J)V
+ */
+void Java_org_rocksdb_KeyPrefixExtractor_disposeInternal(JNIEnv* /*env*/,
+                                                         jobject /*jobj*/,
+                                                         jlong jhandle) {
+  auto* sptr_prefix_extractor =
+      reinterpret_cast<std::shared_ptr<ROCKSDB_NAMESPACE::SliceTransform>*>(
+          jhandle);
+  delete sptr_prefix_extractor;  // delete std::shared_ptr
+}
@@ -0,0 +1,121 @@
+// Copyright (c) 2011-present, Facebook, Inc.  All rights reserved.
+//  This source code is licensed under both the GPLv2 (found in the
+//  COPYING file in the root directory) and Apache 2.0 License
+//  (found in the LICENSE.Apache file in the root directory).
+
+#include <jni.h>
+
+#include <chrono>
+#include <deque>
+#include <memory>
+#include <string>
+
+#include "include/org_rocksdb_KvIncrMergeOperator.h"
+#include "rocksdb/merge_operator.h"
+#include "rocksjni/cplusplus_to_java_convert.h"
+
+namespace {
+
+const size_t kExpireSize = 4;
+const size_t kCounterSize = 8;
+
+uint64_t DecodeBigEndian(const char* data, size_t n) {
+  const auto* p = reinterpret_cast<const unsigned char*>(data);
+  uint64_t v = 0;
+  for (size_t i = 0; i < n; i++) {
+    v = (v << 8) | static_cast<uint64_t>(p[i]);
+  }
+  return v;
+}
+
+void EncodeBigEndian(std::string* out, uint64_t v, size_t n) {
+  for (size_t i = n; i > 0; i--) {
+    out->push_back(static_cast<char>((v >> ((i - 1) * 8)) & 0xff));
+  }
+}
+
+// Counter values are [int32 expire][int64 counter], both big-endian, the
+// layout RKv uses. Operands are big-endian int64 deltas. Sums wrap like Java
+// long arithmetic.
+class KvIncrMergeOperator : public ROCKSDB_NAMESPACE::MergeOperator {
+ public:
+  bool FullMergeV2(const MergeOperationInput& merge_in,
+                   MergeOperationOutput* merge_out) const override {
+    uint32_t expire = 0;
+    uint64_t sum = 0;
+    const ROCKSDB_NAMESPACE::Slice* existing = merge_in.existing_value;
+    if (existing != nullptr &&
+        existing->size() == kExpireSize + kCounterSize) {
+      expire = static_cast<uint32_t>(
+          DecodeBigEndian(existing->data(), kExpireSize));
+      sum = DecodeBigEndian(existing->data() + kExpireSize, kCounterSize);
+      if (expire != 0 && static_cast<int64_t>(static_cast<int32_t>(expire)) <=
+                             NowSeconds()) {
+        expire = 0;
+        sum = 0;
+      }
+    }
+    for (const auto& operand : merge_in.operand_list) {
+      if (operand.size() == kCounterSize) {
+        sum += DecodeBigEndian(operand.data(), kCounterSize);
+      }
+    }
+    merge_out->new_value.clear();
+    EncodeBigEndian(&merge_out->new_value, expire, kExpireSize);
+    EncodeBigEndian(&merge_out->new_value, sum, kCounterSize);
+    return true;
+  }
+
+  bool PartialMergeMulti(const ROCKSDB_NAMESPACE::Slice& /*key*/,
+                         const std::deque<ROCKSDB_NAMESPACE::Slice>& operand_list,
+                         std::string* new_value,
+                         ROCKSDB_NAMESPACE::Logger* /*logger*/) const override {
+    uint64_t sum = 0;
+    for (const auto& operand : operand_list) {
+      if (operand.size() == kCounterSize) {
+        sum += DecodeBigEndian(operand.data(), kCounterSize);
+      }
+    }
+    new_value->clear();
+    EncodeBigEndian(new_value, sum, kCounterSize);
+    return true;
+  }
+
+  const char* Name() const override { return "KvIncrMergeOperator"; }
+
+ private:
+  static int64_t NowSeconds() {
+    return std::chrono::duration_cast<std::chrono::seconds>(
+               std::chrono::system_clock::now().time_since_epoch())
+        .count();
+  }
+};
+
+}  // namespace
+
+/*
+ * Class:     org_rocksdb_KvIncrMergeOperator
+ * Method:    newSharedKvIncrMergeOperator
+ * Signature: ()J
+ */
+jlong Java_org_rocksdb_KvIncrMergeOperator_newSharedKvIncrMergeOperator(
+    JNIEnv* /*env*/, jclass /*jclazz*/) {
+  auto* sptr_kv_incr_op =
+      new std::shared_ptr<ROCKSDB_NAMESPACE::MergeOperator>(
+          std::make_shared<KvIncrMergeOperator>());
+  return GET_CPLUSPLUS_POINTER(sptr_kv_incr_op);
+}
+
+/*
+ * Class:     org_rocksdb_KvIncrMergeOperator
+ * Method:    disposeInternal
+ * Signature: (J)V
+ */
+void Java_org_rocksdb_KvIncrMergeOperator_disposeInternal(JNIEnv* /*env*/,
+                                                          jobject /*jobj*/,
+                                                          jlong jhandle) {
+  auto* sptr_kv_incr_op =
+      reinterpret_cast<std::shared_ptr<ROCKSDB_NAMESPACE::MergeOperator>*>(
+          jhandle);
+  delete sptr_kv_incr_op;  // delete std::shared_ptr
+}
@@ -4287,6 +4287,20 @@ void Java_org_rocksdb_ColumnFamilyOptions_useCappedPrefixExtractor(
           static_cast<int>(jprefix_length)));
 }
 
+/*
+ * Class:     org_rocksdb_ColumnFamilyOptions
+ * Method:    setPrefixExtractor
+ * Signature: (JJ)V
+ */
+void Java_org_rocksdb_ColumnFamilyOptions_setPrefixExtractor(
+    JNIEnv*, jobject, jlong jhandle, jlong jprefix_extractor_handle) {
+  auto* sptr_prefix_extractor =
+      reinterpret_cast<std::shared_ptr<ROCKSDB_NAMESPACE::SliceTransform>*>(
+          jprefix_extractor_handle);
+  reinterpret_cast<ROCKSDB_NAMESPACE::ColumnFamilyOptions*>(jhandle)
+      ->prefix_extractor = *sptr_prefix_extractor;
+}
+
 /*
  * Method:    setTableFactory
  * Signature: (JJ)V
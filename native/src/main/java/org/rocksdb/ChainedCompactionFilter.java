@@ -0,0 +1,35 @@
+// Copyright (c) 2011-present, Facebook, Inc.  All rights reserved.
+//  This source code is licensed under both the GPLv2 (found in the
+//  COPYING file in the root directory) and Apache 2.0 License
+//  (found in the LICENSE.Apache file in the root directory).
+
+package org.rocksdb;
+
+/**
+ * Runs several native compaction filters on one column family. An entry is
+ * removed when any of them removes it. The filters must not change values.
+ *
+ * The chained filters are not owned: they must stay open for as long as
+ * this filter is in use.
+ */
+public class ChainedCompactionFilter
+    extends AbstractCompactionFilter<Slice> {
+  private final AbstractCompactionFilter<?>[] filters;
+
+  public ChainedCompactionFilter(
+      final AbstractCompactionFilter<?>... filters) {
+    super(createNewChainedCompactionFilter0(handles(filters)));
+    this.filters = filters;
+  }
+
+  private static long[] handles(final AbstractCompactionFilter<?>[] filters) {
+    final long[] handles = new long[filters.length];
+    for (int i = 0; i < filters.length; i++) {
+      handles[i] = filters[i].nativeHandle_;
+    }
+    return handles;
+  }
+
+  private native static long createNewChainedCompactionFilter0(
+      final long[] filterHandles);
+}
@@ -0,0 +1,67 @@
+// Copyright (c) 2011-present, Facebook, Inc.  All rights reserved.
+//  This source code is licensed under both the GPLv2 (found in the
+//  COPYING file in the root directory) and Apache 2.0 License
+//  (found in the LICENSE.Apache file in the root directory).
+
+package org.rocksdb;
+
+/**
+ * Expires versioned collections during compaction.
+ *
+ * A collection is a meta entry in a meta column family plus member rows in
+ * another column family. The meta key starts with a one-byte head, and the
+ * meta value starts with the same head and holds a 4-byte expire time
+ * (seconds, &lt;= 0 for none) and a 4-byte version at fixed offsets. A
+ * member key is laid out as
+ * {@code [member head][int meta key length][meta key][int version]...}.
+ *
+ * In meta mode the filter drops metas whose expire time has passed. In
+ * member mode it looks up the meta of each member row and drops the row
+ * when the meta is gone, expired, or has a different version. Member mode
+ * does nothing until {@link #setMetaSource(RocksDB, ColumnFamilyHandle)}
+ * has been called.
+ */
+public class CollectionTtlCompactionFilter
+    extends AbstractCompactionFilter<Slice> {
+
+  /**
+   * @param members true for member mode, false for meta mode
+   * @param metaHeads the first byte of each meta key and value
+   * @param metaSizes the exact meta value size for each head
+   * @param timestampOffsets the offset of the expire time for each head
+   * @param versionOffsets the offset of the version for each head
+   * @param memberHeads the first byte of the member keys, member mode only
+   */
+  public CollectionTtlCompactionFilter(final boolean members,
+      final byte[] metaHeads, final int[] metaSizes,
+      final int[] timestampOffsets, final int[] versionOffsets,
+      final byte[] memberHeads) {
+    super(createNewCollectionTtlCompactionFilter0(members, metaHeads,
+        metaSizes, timestampOffsets, versionOffsets, memberHeads));
+  }
+
+  /**
+   * Set the database and column family that member mode reads metas from.
+   * Call {@link #clearMetaSource()} before closing the database.
+   *
+   * @param db the database the filter is installed on
+   * @param metaHandle the meta column family
+   */
+  public void setMetaSource(final RocksDB db,
+      final ColumnFamilyHandle metaHandle) {
+    assert (isOwningHandle());
+    setMetaSource(nativeHandle_, db.nativeHandle_, metaHandle.nativeHandle_);
+  }
+
+  public void clearMetaSource() {
+    assert (isOwningHandle());
+    setMetaSource(nativeHandle_, 0, 0);
+  }
+
+  private native static long createNewCollectionTtlCompactionFilter0(
+      final boolean members, final byte[] metaHeads, final int[] metaSizes,
+      final int[] timestampOffsets, final int[] versionOffsets,
+      final byte[] memberHeads);
+  private native void setMetaSource(final long handle, final long dbHandle,
+      final long cfHandle);
+}
@@ -311,6 +311,21 @@ public class ColumnFamilyOptions extends RocksObject
     return this;
   }
 
+  /**
+   * Use the given {@link KeyPrefixExtractor} as the prefix extractor.
+   * The options hold their own reference to the native extractor, so
+   * the Java object may be closed afterwards.
+   *
+   * @param prefixExtractor the prefix extractor
+   * @return the reference to the current options.
+   */
+  public ColumnFamilyOptions setPrefixExtractor(
+      final KeyPrefixExtractor prefixExtractor) {
+    assert(isOwningHandle());
+    setPrefixExtractor(nativeHandle_, prefixExtractor.nativeHandle_);
+    return this;
+  }
+
   @Override
   public ColumnFamilyOptions setCompressionType(
       final CompressionType compressionType) {
@@ -1338,6 +1353,8 @@ public class ColumnFamilyOptions extends RocksObject
       long handle, int prefixLength);
   private native void useCappedPrefixExtractor(
       long handle, int prefixLength);
+  private native void setPrefixExtractor(
+      long handle, long prefixExtractorHandle);
   private native void setNumLevels(
       long handle, int numLevels);
   private native int numLevels(long handle);
@@ -0,0 +1,36 @@
+// Copyright (c) 2011-present, Facebook, Inc.  All rights reserved.
+//  This source code is licensed under both the GPLv2 (found in the
+//  COPYING file in the root directory) and Apache 2.0 License
+//  (found in the LICENSE.Apache file in the root directory).
+
+package org.rocksdb;
+
+/**
+ * Drops entries whose key starts with the given prefix and whose value
+ * begins with a 4-byte big-endian expire time (seconds since the epoch)
+ * that has passed. An expire time of 0 means the entry never expires.
+ *
+ * The filter is created disabled, so that it can be installed before the
+ * values are known to carry the header.
+ */
+public class ExpireTimeCompactionFilter
+    extends AbstractCompactionFilter<Slice> {
+  public ExpireTimeCompactionFilter(final byte[] prefix) {
+    super(createNewExpireTimeCompactionFilter0(prefix));
+  }
+
+  /**
+   * Enable or disable the filter. Takes effect for compactions that
+   * process entries after the call.
+   *
+   * @param enabled true to drop expired entries
+   */
+  public void setEnabled(final boolean enabled) {
+    assert (isOwningHandle());
+    setEnabled(nativeHandle_, enabled);
+  }
+
+  private native static long createNewExpireTimeCompactionFilter0(
+      final byte[] prefix);
+  private native void setEnabled(final long handle, final boolean enabled);
+}
@@ -0,0 +1,29 @@
+// Copyright (c) 2011-present, Facebook, Inc.  All rights reserved.
+//  This source code is licensed under both the GPLv2 (found in the
+//  COPYING file in the root directory) and Apache 2.0 License
+//  (found in the LICENSE.Apache file in the root directory).
+
+package org.rocksdb;
+
+/**
+ * Prefix extractor for keys laid out as
+ * {@code [1-byte head][4-byte big-endian length n][n bytes][suffix]}.
+ *
+ * Keys whose first byte is one of the given heads and that are long enough
+ * are in the domain. Their prefix is the head, the length, the n bytes and
+ * the first {@code suffixLength} bytes after them. All other keys are out of
+ * the domain and are never filtered by prefix.
+ *
+ * The extractor name is fixed, so changing heads or suffix length on an
+ * existing database makes old prefix filters give wrong answers. Only
+ * ever add heads for new key types.
+ */
+public class KeyPrefixExtractor extends RocksObject {
+  public KeyPrefixExtractor(final byte[] heads, final int suffixLength) {
+    super(newKeyPrefixExtractor(heads, suffixLength));
+  }
+
+  private native static long newKeyPrefixExtractor(
+      final byte[] heads, final int suffixLength);
+  @Override protected final native void disposeInternal(final long handle);
+}
@@ -0,0 +1,24 @@
+// Copyright (c) 2011-present, Facebook, Inc.  All rights reserved.
+//  This source code is licensed under both the GPLv2 (found in the
+//  COPYING file in the root directory) and Apache 2.0 License
+//  (found in the LICENSE.Apache file in the root directory).
+
+package org.rocksdb;
+
+/**
+ * Merge operator for counters stored as a 4-byte big-endian expire time
+ * (seconds since the epoch, 0 for none) followed by an 8-byte big-endian
+ * signed long.
+ *
+ * Operands are 8-byte big-endian deltas. The merged value keeps the expire
+ * time of the existing value. A missing, expired or malformed existing value
+ * counts as 0 without an expire time.
+ */
+public class KvIncrMergeOperator extends MergeOperator {
+  public KvIncrMergeOperator() {
+    super(newSharedKvIncrMergeOperator());
+  }
+
+  private native static long newSharedKvIncrMergeOperator();
+  @Override protected final native void disposeInternal(final long handle);
+}
@@ -110,6 +110,35 @@ public class RocksIterator extends AbstractRocksIterator<RocksDB> {
     return result;
   }
 
+  /**
+   * <p>Copies up to {@code maxEntries} entries, starting at the current
+   * position, into {@code buffer} with a single native call, and advances
+   * the iterator past every entry copied.</p>
+   *
+   * <p>Each entry is written as {@code [int keyLength][key][int valueLength][value]}
+   * with big-endian lengths, starting at the buffer's position. The buffer's
+   * position and limit are not changed.</p>
+   *
+   * @param buffer direct buffer to receive the entries.
+   * @param maxEntries the maximum number of entries to copy.
+   * @param reverse move with {@link #prev()} instead of {@link #next()}.
+   * @return the number of entries copied; 0 if the iterator is not valid.
+   *     A negative value means the current entry alone needs {@code -result}
+   *     bytes, which is more than {@code buffer.remaining()}; the iterator is
+   *     not moved in that case.
+   * @throws RocksDBException if the iterator stopped on an error, such as an
+   *     I/O error or a corrupted block, while copying the batch.
+   */
+  public int nextBatch(final ByteBuffer buffer, final int maxEntries, final boolean reverse)
+      throws RocksDBException {
+    assert isOwningHandle();
+    if (!buffer.isDirect()) {
+      throw new IllegalArgumentException("buffer must be a direct ByteBuffer");
+    }
+    return nextBatch0(
+        nativeHandle_, buffer, buffer.position(), buffer.remaining(), maxEntries, reverse);
+  }
+
   @Override protected final native void disposeInternal(final long handle);
   @Override final native boolean isValid0(long handle);
   @Override final native void seekToFirst0(long handle);
@@ -137,4 +166,6 @@ public class RocksIterator extends AbstractRocksIterator<RocksDB> {
   private native int keyByteArray0(long handle, byte[] array, int arrayOffset, int arrayLen);
   private native int valueDirect0(long handle, ByteBuffer buffer, int bufferOffset, int bufferLen);
   private native int valueByteArray0(long handle, byte[] array, int arrayOffset, int arrayLen);
+  private native int nextBatch0(long handle, ByteBuffer buffer, int bufferOffset, int bufferLen,
+      int maxEntries, boolean reverse) throws RocksDBException;
 }
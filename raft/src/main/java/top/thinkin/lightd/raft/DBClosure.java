@@ -3,6 +3,10 @@ package top.thinkin.lightd.raft;
 import com.alipay.sofa.jraft.Closure;
 import com.alipay.sofa.jraft.Status;
 import top.thinkin.lightd.base.DBCommandChunk;
+import top.thinkin.lightd.exception.ErrorType;
+import top.thinkin.lightd.exception.KitDBException;
+
+import java.util.concurrent.CompletableFuture;
 
 public class DBClosure implements Closure {
 
@@ -11,6 +15,11 @@ public class DBClosure implements Closure {
     private String msg;
     private int code;
 
+    /**
+     * 日志应用完成或提交失败时结束
+     */
+    private final CompletableFuture<Void> future = new CompletableFuture<>();
+
     public DBClosure() {
 
     }
@@ -20,14 +29,17 @@ public class DBClosure implements Closure {
         if (!status.isOk()) {
             msg = status.getErrorMsg();
             code = status.getCode();
-            synchronized (this) {
-                this.notifyAll();
-            }
+            future.completeExceptionally(new KitDBException(ErrorType.STROE_ERROR, msg));
         } else {
             code = 0;
+            future.complete(null);
         }
     }
 
+    public CompletableFuture<Void> getFuture() {
+        return future;
+    }
+
     public DBCommandChunk getChunk() {
         return chunk;
     }
@@ -1,17 +1,18 @@
 package top.thinkin.lightd.raft;
 
-import com.alipay.remoting.exception.CodecException;
-import com.alipay.remoting.serialization.SerializerManager;
 import com.alipay.sofa.jraft.entity.Task;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import top.thinkin.lightd.base.DBCommandChunk;
 import top.thinkin.lightd.db.DB;
+import top.thinkin.lightd.db.LogCodec;
 import top.thinkin.lightd.exception.ErrorType;
 import top.thinkin.lightd.exception.KitDBException;
 
 import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 
 public class DBRequestProcessor implements DB.FunctionCommit {
     ConcurrentHashMap<Object, String> map = new ConcurrentHashMap<>();
@@ -26,19 +27,28 @@ public class DBRequestProcessor implements DB.FunctionCommit {
     }
 
 
-    public void handle(DBCommandChunk dbCommandChunk) throws CodecException, InterruptedException, KitDBException {
+    /**
+     * 提交到 Raft 后立即返回，日志在本节点应用完成或提交失败时结束返回的 future
+     */
+    public CompletableFuture<Void> apply(DBCommandChunk dbCommandChunk) {
         final DBClosure closure = new DBClosure();
         closure.setChunk(dbCommandChunk);
         final Task task = new Task();
         task.setDone(closure);
-        task.setData(ByteBuffer
-                .wrap(SerializerManager.getSerializer(SerializerManager.Hessian2).serialize(dbCommandChunk)));
+        task.setData(ByteBuffer.wrap(LogCodec.encode(dbCommandChunk)));
         kitRaft.getNode().apply(task);
-        synchronized (closure) {
-            closure.wait();
-        }
-        if (closure.getCode() != 0) {
-            throw new KitDBException(ErrorType.STROE_ERROR, closure.getMsg());
+        return closure.getFuture();
+    }
+
+
+    public void handle(DBCommandChunk dbCommandChunk) throws InterruptedException, KitDBException {
+        try {
+            apply(dbCommandChunk).get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof KitDBException) {
+                throw (KitDBException) e.getCause();
+            }
+            throw new KitDBException(ErrorType.STROE_ERROR, e);
         }
     }
 
@@ -47,8 +57,14 @@ public class DBRequestProcessor implements DB.FunctionCommit {
     public void call(DBCommandChunk dbCommandChunk) throws KitDBException {
         try {
             handle(dbCommandChunk);
-        } catch (CodecException | InterruptedException e) {
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             throw new KitDBException(ErrorType.STROE_ERROR, e);
         }
     }
+
+    @Override
+    public CompletableFuture<Void> callAsync(DBCommandChunk dbCommandChunk) {
+        return apply(dbCommandChunk);
+    }
 }
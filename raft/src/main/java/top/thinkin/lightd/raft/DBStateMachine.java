@@ -5,6 +5,7 @@ import com.alipay.sofa.jraft.Closure;
 import com.alipay.sofa.jraft.Iterator;
 import com.alipay.sofa.jraft.Status;
 import com.alipay.sofa.jraft.core.StateMachineAdapter;
+import com.alipay.sofa.jraft.entity.LocalFileMetaOutter;
 import com.alipay.sofa.jraft.error.RaftError;
 import com.alipay.sofa.jraft.error.RaftException;
 import com.alipay.sofa.jraft.storage.snapshot.SnapshotReader;
@@ -14,15 +15,25 @@ import org.slf4j.LoggerFactory;
 import top.thinkin.lightd.base.DBCommandChunk;
 import top.thinkin.lightd.base.DBCommandChunkType;
 import top.thinkin.lightd.db.DB;
+import top.thinkin.lightd.db.LogBatch;
+import top.thinkin.lightd.db.LogCodec;
 import top.thinkin.lightd.exception.ErrorType;
 import top.thinkin.lightd.exception.KitDBException;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
 
 
 public class DBStateMachine extends StateMachineAdapter {
@@ -41,12 +52,20 @@ public class DBStateMachine extends StateMachineAdapter {
     private String dbName;
 
 
-    private ConcurrentHashMap<String, List<DBCommandChunk>> logbatchs = new ConcurrentHashMap<>();
+    /**
+     * 跟随者上未提交事务的日志条目，按事务 uuid 缓存
+     */
+    private ConcurrentHashMap<String, List<byte[]>> logbatchs = new ConcurrentHashMap<>();
 
     // private List<DBCommandChunk> logbatch = new ArrayList<>();
 
     private final AtomicLong leaderTerm = new AtomicLong(-1L);
 
+    /**
+     * SST 内容校验值，按文件 inode 缓存
+     */
+    private final ConcurrentHashMap<Object, String> sstChecksums = new ConcurrentHashMap<>();
+
 
     public void setDbRequestProcessor(DBRequestProcessor dbRequestProcessor) {
         this.dbRequestProcessor = dbRequestProcessor;
@@ -58,7 +77,7 @@ public class DBStateMachine extends StateMachineAdapter {
 
     public void setDB(DB db) {
         this.db = db;
-        db.functionCommit = logs -> dbRequestProcessor.call(logs);
+        db.functionCommit = dbRequestProcessor;
     }
 
 
@@ -72,21 +91,69 @@ public class DBStateMachine extends StateMachineAdapter {
     }
 
 
+    /**
+     * 快照为库的 checkpoint 文件，不再打包压缩。SST 的校验值为内容的 CRC32 和大小，
+     * 跟随者安装快照时只下载本地上一个快照中内容不同或没有的 SST。
+     * 文件名只在本节点内唯一，不能作为校验值。
+     */
     @Override
     public void onSnapshotSave(final SnapshotWriter writer, final Closure done) {
         try {
-            String fileName = this.db.backupDB(writer.getPath(), spname);
-            if (writer.addFile(spname + DB.BACK_FILE_SUFFIX)) {
-                done.run(Status.OK());
-            } else {
-                done.run(new Status(RaftError.EIO, "Fail to add file to writer"));
+            List<String> files = this.db.checkpointDB(writer.getPath());
+            Set<Object> live = new HashSet<>();
+            for (String file : files) {
+                boolean added;
+                if (file.endsWith(".sst")) {
+                    String checksum = checksum(new File(writer.getPath(), file), live);
+                    added = writer.addFile(file, LocalFileMetaOutter.LocalFileMeta.newBuilder()
+                            .setChecksum(checksum).build());
+                } else {
+                    added = writer.addFile(file);
+                }
+                if (!added) {
+                    done.run(new Status(RaftError.EIO, "Fail to add file to writer"));
+                    return;
+                }
             }
+            sstChecksums.keySet().retainAll(live);
+            done.run(Status.OK());
         } catch (Exception e) {
+            LOG.error("onSnapshotSave error", e);
             done.run(new Status(RaftError.EIO, "Fail to save counter snapshot %s", writer.getPath()));
         }
 
     }
 
+    /**
+     * SST 不会修改，checkpoint 中的硬链接与库中文件是同一个 inode，按 inode 缓存，每个文件只算一次
+     */
+    private String checksum(File file, Set<Object> live) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        // inode 释放后可能被新文件复用，带上文件名、大小和修改时间
+        Object fileKey = attributes.fileKey() == null ? null : attributes.fileKey() + "/" + file.getName()
+                + "/" + attributes.size() + "/" + attributes.lastModifiedTime().toMillis();
+        if (fileKey != null) {
+            live.add(fileKey);
+            String checksum = sstChecksums.get(fileKey);
+            if (checksum != null) {
+                return checksum;
+            }
+        }
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = new FileInputStream(file)) {
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                crc.update(buffer, 0, n);
+            }
+        }
+        String checksum = Long.toHexString(crc.getValue()) + ":" + attributes.size();
+        if (fileKey != null) {
+            sstChecksums.put(fileKey, checksum);
+        }
+        return checksum;
+    }
+
     @Override
     public void onLeaderStart(final long term) {
         super.onLeaderStart(term);
@@ -119,10 +186,15 @@ public class DBStateMachine extends StateMachineAdapter {
             }
         }
 
-        Util.delZSPic(db.getDir());
-
         try {
-            DB.releaseBackup(path + File.separator + spname + DB.BACK_FILE_SUFFIX, db.getDir());
+            File backup = new File(path + File.separator + spname + DB.BACK_FILE_SUFFIX);
+            if (backup.exists()) {
+                // 旧版本的压缩快照
+                Util.delZSPic(db.getDir());
+                DB.releaseBackup(backup.getPath(), db.getDir());
+            } else {
+                DB.releaseCheckpoint(path, reader.listFiles(), db.getDir());
+            }
             db.open(false, false);
             return true;
         } catch (Exception e) {
@@ -133,113 +205,160 @@ public class DBStateMachine extends StateMachineAdapter {
     }
 
 
+    /**
+     * 连续的普通提交合并成一个 WriteBatch 写入，批次中同时记录最后一条日志的位置。
+     * 领导者上的事务操作不能合并，执行前先写入已合并的部分。
+     * 某条日志失败时先写入它之前已合并的日志，再回滚 jraft 的应用位置到最后写入的日志。
+     */
     @Override
     public void onApply(Iterator iter) {
-        while (iter.hasNext()) {
-            final ByteBuffer data = iter.getData();
-            DBClosure closure = null;
-            boolean isLeader = false;
-            try {
-                DBCommandChunk chunk = null;
-                if (iter.done() != null) {
-                    closure = (DBClosure) iter.done();
-                    chunk = closure.getChunk();
-                    isLeader = true;
-                } else {
-                    try {
-                        final DBCommandChunk request = SerializerManager.getSerializer(SerializerManager.Hessian2)
-                                .deserialize(data.array(), DBCommandChunk.class.getName());
-                        chunk = request;
-                    } catch (Exception e) {
-                        LOG.error("Get Serialize ERROR", e);
-                    }
-                }
-
+        List<DBClosure> pending = new ArrayList<>();
+        long last = iter.getIndex() - 1;
+        // 已写入库的最后一条日志
+        long flushed = last;
+        try (LogBatch batch = db.newLogBatch()) {
+            while (iter.hasNext()) {
+                final ByteBuffer data = iter.getData();
+                DBClosure closure = null;
                 try {
-                    DBCommandChunkType dbCommandChunkType = chunk.getType();
-                    if (chunk.getCommands() != null) {
-                        LOG.debug("onApply {} {}", dbCommandChunkType.name(), chunk.getCommands().size());
-                    } else {
-                        LOG.debug("onApply {} {}", dbCommandChunkType.name());
-                    }
-                    if (!isLeader) {
-                        switch (dbCommandChunkType) {
+                    if (iter.done() != null) {
+                        closure = (DBClosure) iter.done();
+                        DBCommandChunk chunk = closure.getChunk();
+                        LOG.debug("onApply {}", chunk.getType().name());
+                        switch (chunk.getType()) {
                             case NOM_COMMIT:
-                                //普通提交-直接写入
-                                db.simpleCommit(chunk.getCommands());
-                                break;
-                            case TX_LOGS:
-                                //事物写入-写入缓冲区
-
-                                List<DBCommandChunk> logbatch_logs = logbatchs.get(chunk.getEntity().getUuid());
-                                if (logbatch_logs == null) {
-                                    logbatch_logs = new ArrayList<>();
-                                    logbatchs.put(chunk.getEntity().getUuid(), logbatch_logs);
-                                }
-                                logbatch_logs.add(chunk);
-                                break;
-                            case TX_COMMIT:
-                                //事物提交-直接写入
-                                List<DBCommandChunk> logbatch_commit = logbatchs.get(chunk.getEntity().getUuid());
-                                if (logbatch_commit != null) {
-                                    for (DBCommandChunk dbCommandChunk : logbatch_commit) {
-                                        db.simpleCommit(dbCommandChunk.getCommands());
-                                    }
-                                }
-                                logbatchs.remove(chunk.getEntity().getUuid());
-                                break;
-                            case TX_ROLLBACK:
-                                //db.rollbackTX(chunk.getEntity());
-                                logbatchs.remove(chunk.getEntity().getUuid());
-                                break;
                             case SIMPLE_COMMIT:
-                                //普通提交-直接写入
-                                db.simpleCommit(chunk.getCommands());
-                                break;
-                        }
-                    } else {
-                        switch (dbCommandChunkType) {
-                            case NOM_COMMIT:
-                                db.simpleCommit(chunk.getCommands());
+                                batch.add(chunk.getCommands());
                                 break;
                             case TX_LOGS:
+                                flush(batch, last, pending);
+                                flushed = last;
                                 db.commit(chunk.getCommands(), chunk.getEntity());
                                 break;
                             case TX_COMMIT:
+                                flush(batch, last, pending);
+                                flushed = last;
                                 db.commitTX(chunk.getEntity());
                                 break;
                             case TX_ROLLBACK:
+                                flush(batch, last, pending);
+                                flushed = last;
                                 db.rollbackTX(chunk.getEntity());
                                 break;
-                            case SIMPLE_COMMIT:
-                                db.simpleCommit(chunk.getCommands());
-                                break;
                             default:
                                 throw new KitDBException(ErrorType.NULL, "DBCommandChunkType non-existent!");
                         }
+                    } else {
+                        apply(entryOf(data), batch);
                     }
-
                 } catch (Exception e) {
                     LOG.error("STORE ERROR", e);
-                    closure.run(new Status(-1, e.getMessage()));
+                    try {
+                        flush(batch, last, pending);
+                        flushed = last;
+                    } catch (Exception flushError) {
+                        LOG.error("STORE ERROR", flushError);
+                        fail(pending, flushError);
+                    }
+                    if (closure != null) {
+                        closure.run(new Status(-1, e.getMessage()));
+                    }
+                    iter.setErrorAndRollback(iter.getIndex() - flushed,
+                            new Status(RaftError.ESTATEMACHINE, "STORE ERROR: %s", e.getMessage()));
                     return;
                 }
-                if (closure != null) {
-                    closure.run(Status.OK());
-
+                last = iter.getIndex();
+                if (batch.isEmpty()) {
+                    flushed = last;
                 }
-
-            } finally {
                 if (closure != null) {
-                    synchronized (closure) {
-                        closure.notifyAll();
+                    if (batch.isEmpty()) {
+                        closure.run(Status.OK());
+                    } else {
+                        pending.add(closure);
                     }
                 }
+                iter.next();
+            }
+            try {
+                flush(batch, last, pending);
+            } catch (Exception e) {
+                LOG.error("STORE ERROR", e);
+                fail(pending, e);
+                // 迭代已结束，回滚未写入的合并部分
+                iter.setErrorAndRollback(last - flushed,
+                        new Status(RaftError.ESTATEMACHINE, "STORE ERROR: %s", e.getMessage()));
             }
-            iter.next();
         }
     }
 
+    /**
+     * 写入已合并的日志，之后结束这些日志的 closure
+     */
+    private void flush(LogBatch batch, long index, List<DBClosure> pending) throws KitDBException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        batch.commit(index);
+        for (DBClosure closure : pending) {
+            closure.run(Status.OK());
+        }
+        pending.clear();
+    }
+
+    private static void fail(List<DBClosure> pending, Exception e) {
+        for (DBClosure closure : pending) {
+            closure.run(new Status(-1, e.getMessage()));
+        }
+        pending.clear();
+    }
+
+    /**
+     * 跟随者应用一条日志，旧版本的 Hessian2 条目先转成 LogCodec 编码
+     */
+    private void apply(byte[] entry, LogBatch batch) throws Exception {
+        if (!LogCodec.isEncoded(entry)) {
+            DBCommandChunk chunk = SerializerManager.getSerializer(SerializerManager.Hessian2)
+                    .deserialize(entry, DBCommandChunk.class.getName());
+            entry = LogCodec.encode(chunk);
+        }
+        DBCommandChunkType dbCommandChunkType = LogCodec.type(entry);
+        LOG.debug("onApply {}", dbCommandChunkType.name());
+        switch (dbCommandChunkType) {
+            case NOM_COMMIT:
+            case SIMPLE_COMMIT:
+                //普通提交-合并写入
+                batch.add(entry);
+                break;
+            case TX_LOGS:
+                //事物写入-写入缓冲区
+                logbatchs.computeIfAbsent(LogCodec.uuid(entry), k -> new ArrayList<>()).add(entry);
+                break;
+            case TX_COMMIT:
+                //事物提交-合并写入
+                List<byte[]> logbatch_commit = logbatchs.remove(LogCodec.uuid(entry));
+                if (logbatch_commit != null) {
+                    batch.addAll(logbatch_commit);
+                }
+                break;
+            case TX_ROLLBACK:
+                logbatchs.remove(LogCodec.uuid(entry));
+                break;
+            default:
+                throw new KitDBException(ErrorType.NULL, "DBCommandChunkType non-existent!");
+        }
+    }
+
+    private static byte[] entryOf(ByteBuffer data) {
+        if (data.hasArray() && data.arrayOffset() == 0 && data.position() == 0
+                && data.remaining() == data.array().length) {
+            return data.array();
+        }
+        byte[] entry = new byte[data.remaining()];
+        data.duplicate().get(entry);
+        return entry;
+    }
+
     public void setDbName(String dbName) {
         this.dbName = dbName;
     }
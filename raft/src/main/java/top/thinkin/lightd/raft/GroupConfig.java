@@ -8,4 +8,8 @@ public class GroupConfig {
     private String initNodes;
     private int electionTimeoutMs = 1000;
     private int snapshotIntervalSecs = 3600;
+    /**
+     * 线性一致读使用领导者租约，不再每次确认领导权，依赖各节点时钟误差小于租约
+     */
+    private boolean leaseRead = false;
 }
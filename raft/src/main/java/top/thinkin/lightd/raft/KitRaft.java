@@ -3,20 +3,27 @@ package top.thinkin.lightd.raft;
 import com.alipay.remoting.rpc.RpcServer;
 import com.alipay.sofa.jraft.Node;
 import com.alipay.sofa.jraft.RaftGroupService;
+import com.alipay.sofa.jraft.Status;
+import com.alipay.sofa.jraft.closure.ReadIndexClosure;
 import com.alipay.sofa.jraft.conf.Configuration;
 import com.alipay.sofa.jraft.entity.PeerId;
 import com.alipay.sofa.jraft.option.NodeOptions;
 import com.alipay.sofa.jraft.option.RaftOptions;
+import com.alipay.sofa.jraft.option.ReadOnlyOption;
 import com.alipay.sofa.jraft.rpc.RaftRpcServerFactory;
 import org.apache.commons.io.FileUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import top.thinkin.lightd.db.DB;
+import top.thinkin.lightd.exception.ErrorType;
+import top.thinkin.lightd.exception.KitDBException;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
 public class KitRaft {
     private static final Logger LOG = LoggerFactory.getLogger(KitRaft.class);
@@ -29,6 +36,9 @@ public class KitRaft {
     private DBStateMachine dbsm;
 
 
+    /**
+     * 直接读本地库，跟随者上可能读到旧数据，需要一致性时用 read
+     */
     public DB getDB() {
         return dbsm.getDb();
     }
@@ -47,11 +57,14 @@ public class KitRaft {
         raftOptions.setDisruptorBufferSize(16 * 16384);
         raftOptions.setApplyBatch(128);
         raftOptions.setSync(false);
+        raftOptions.setReadOnlyOptions(groupConfig.isLeaseRead() ? ReadOnlyOption.ReadOnlyLeaseBased : ReadOnlyOption.ReadOnlySafe);
         nodeOptions.setRaftOptions(raftOptions);
 
         nodeOptions.setElectionTimeoutMs(groupConfig.getElectionTimeoutMs());
         nodeOptions.setDisableCli(true);
         nodeOptions.setSnapshotIntervalSecs(groupConfig.getSnapshotIntervalSecs());
+        // 安装快照时校验值相同的文件从本地上一个快照链接，不重复下载
+        nodeOptions.setFilterBeforeCopyRemote(true);
 
         PeerId serverId = new PeerId();
         if (!serverId.parse(nodeConfig.getNode())) {
@@ -86,6 +99,49 @@ public class KitRaft {
     }
 
 
+    public interface ReadAction<T> {
+        T read(DB db) throws KitDBException;
+    }
+
+    /**
+     * 线性一致读，能读到发起前已提交的全部写入，领导者和跟随者都可以调用
+     */
+    public <T> T read(ReadAction<T> action) throws KitDBException, InterruptedException {
+        try {
+            return readAsync(action).get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof KitDBException) {
+                throw (KitDBException) e.getCause();
+            }
+            throw new KitDBException(ErrorType.STROE_ERROR, e);
+        }
+    }
+
+    /**
+     * 通过 ReadIndex 确认读位置，本节点应用到该位置后在 jraft 的回调线程中执行 action
+     * <p>
+     * 同时发起的读请求由 jraft 合并成一次领导权确认；跟随者向领导者取读位置后在本地读取。
+     * GroupConfig 开启 leaseRead 时领导者在租约内直接使用提交位置。
+     */
+    public <T> CompletableFuture<T> readAsync(ReadAction<T> action) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        node.readIndex(new byte[0], new ReadIndexClosure() {
+            @Override
+            public void run(Status status, long index, byte[] reqCtx) {
+                if (!status.isOk()) {
+                    future.completeExceptionally(new KitDBException(ErrorType.STROE_ERROR, status.getErrorMsg()));
+                    return;
+                }
+                try {
+                    future.complete(action.read(getDB()));
+                } catch (Exception e) {
+                    future.completeExceptionally(e);
+                }
+            }
+        });
+        return future;
+    }
+
     public void addNode(String nodeConf) {
         PeerId peer = new PeerId();
         peer.parse(nodeConf);
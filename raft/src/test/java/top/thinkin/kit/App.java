@@ -88,13 +88,12 @@ public class App extends NanoHTTPD {
             }
             return newFixedLengthResponse("</body></html>\n");
         } else if ("/r/".equals(session.getUri())) {
-            ZSet zset = this.kitRaft.getDB().getzSet();
             Map<String, String> parms = session.getParms();
             String m = parms.get("m");
             try {
-
-                return newFixedLengthResponse("</body>" + zset.score("text", m.getBytes()) + "</html>\n");
-            } catch (KitDBException e) {
+                Long score = kitRaft.read(db -> db.getzSet().score("text", m.getBytes()));
+                return newFixedLengthResponse("</body>" + score + "</html>\n");
+            } catch (KitDBException | InterruptedException e) {
                 e.printStackTrace();
             }
         } else if ("/getLeader".equals(session.getUri())) {
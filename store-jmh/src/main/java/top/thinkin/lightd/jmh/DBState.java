@@ -0,0 +1,63 @@
+package top.thinkin.lightd.jmh;
+
+import org.openjdk.jmh.annotations.*;
+import top.thinkin.lightd.db.DB;
+import top.thinkin.lightd.exception.KitDBException;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 每个 trial 新建一个临时库，mode 区分普通库和事务库
+ */
+@State(Scope.Benchmark)
+public abstract class DBState {
+
+    @Param({"plain", "transaction"})
+    String mode;
+
+    @Param({"10000"})
+    int keyCount;
+
+    @Param({"64"})
+    int valueSize;
+
+    Path dbDir;
+    DB db;
+    String[] keys;
+    byte[] value;
+
+    @Setup(Level.Trial)
+    public void openDB() throws IOException, KitDBException {
+        dbDir = Files.createTempDirectory("kitdb-jmh");
+        if ("transaction".equals(mode)) {
+            db = DB.buildTransactionDB(dbDir.toString(), false);
+        } else {
+            db = DB.build(dbDir.toString(), false);
+        }
+        keys = new String[keyCount];
+        for (int i = 0; i < keyCount; i++) {
+            keys[i] = "key" + i;
+        }
+        value = new byte[valueSize];
+        ThreadLocalRandom.current().nextBytes(value);
+        load();
+    }
+
+    @TearDown(Level.Trial)
+    public void closeDB() throws Exception {
+        db.close();
+        Benchmarks.delete(dbDir);
+    }
+
+    /**
+     * 预置数据
+     */
+    protected abstract void load() throws KitDBException;
+
+    String randomKey() {
+        return keys[ThreadLocalRandom.current().nextInt(keyCount)];
+    }
+}
@@ -0,0 +1,114 @@
+package top.thinkin.lightd.jmh;
+
+import com.alipay.remoting.serialization.Serializer;
+import com.alipay.remoting.serialization.SerializerManager;
+import org.openjdk.jmh.annotations.*;
+import top.thinkin.lightd.base.DBCommand;
+import top.thinkin.lightd.base.DBCommandChunk;
+import top.thinkin.lightd.base.DBCommandChunkType;
+import top.thinkin.lightd.base.SstColumnFamily;
+import top.thinkin.lightd.db.DB;
+import top.thinkin.lightd.db.LogBatch;
+import top.thinkin.lightd.db.LogCodec;
+import top.thinkin.lightd.exception.KitDBException;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 复制日志条目的编码，以及跟随者的解码和应用：Hessian2 基线对比 LogCodec
+ * <p>
+ * apply 走 DBStateMachine 的路径，条目加入 LogBatch 后连同已应用位置一起写入
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LogCodecBenchmarks {
+
+    @Param({"1", "8", "64"})
+    int commands;
+
+    @Param({"64"})
+    int valueSize;
+
+    Path dbDir;
+    DB db;
+    Serializer hessian;
+    DBCommandChunk chunk;
+    byte[] hessianEntry;
+    byte[] codecEntry;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        dbDir = Files.createTempDirectory("kitdb-log-codec-benchmarks");
+        db = DB.build(dbDir.toString(), false);
+        hessian = SerializerManager.getSerializer(SerializerManager.Hessian2);
+        List<DBCommand> logs = new ArrayList<>(commands);
+        for (int i = 0; i < commands; i++) {
+            byte[] key = ("key" + i).getBytes();
+            if (i % 4 == 3) {
+                logs.add(DBCommand.delete(key, SstColumnFamily.DEFAULT));
+            } else {
+                logs.add(DBCommand.update(key, new byte[valueSize], SstColumnFamily.DEFAULT));
+            }
+        }
+        chunk = new DBCommandChunk(DBCommandChunkType.NOM_COMMIT, logs);
+        hessianEntry = hessian.serialize(chunk);
+        codecEntry = LogCodec.encode(chunk);
+    }
+
+    @TearDown(Level.Trial)
+    public void cleanup() throws Exception {
+        db.close();
+        Benchmarks.delete(dbDir);
+    }
+
+    @State(Scope.Thread)
+    public static class Applier {
+        LogBatch batch;
+        long index;
+
+        @Setup(Level.Trial)
+        public void setup(LogCodecBenchmarks benchmarks) {
+            batch = benchmarks.db.newLogBatch();
+        }
+
+        @TearDown(Level.Trial)
+        public void cleanup() {
+            batch.close();
+        }
+    }
+
+    @Benchmark
+    public byte[] encodeHessian() throws Exception {
+        return hessian.serialize(chunk);
+    }
+
+    @Benchmark
+    public byte[] encodeCodec() {
+        return LogCodec.encode(chunk);
+    }
+
+    /**
+     * 旧的跟随者路径：反序列化成 DBCommandChunk，再逐条写入批次
+     */
+    @Benchmark
+    public void applyHessian(Applier applier) throws Exception {
+        DBCommandChunk decoded = hessian.deserialize(hessianEntry, DBCommandChunk.class.getName());
+        applier.batch.add(decoded.getCommands());
+        applier.batch.commit(++applier.index);
+    }
+
+    /**
+     * 编码条目直接写入批次，不还原 DBCommand
+     */
+    @Benchmark
+    public void applyCodec(Applier applier) throws KitDBException {
+        applier.batch.add(codecEntry);
+        applier.batch.commit(++applier.index);
+    }
+}
@@ -0,0 +1,59 @@
+package top.thinkin.lightd.jmh;
+
+import org.openjdk.jmh.annotations.*;
+import top.thinkin.lightd.db.RKv;
+import top.thinkin.lightd.exception.KitDBException;
+
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RKvBenchmarks extends DBState {
+
+    RKv kv;
+
+    @Override
+    protected void load() throws KitDBException {
+        kv = db.getrKv();
+        for (String key : keys) {
+            kv.set(key, value);
+            kv.set("ttl" + key, value, 3600);
+            kv.set("incr" + key, new byte[8]);
+        }
+    }
+
+    @Benchmark
+    public void set() throws KitDBException {
+        kv.set(randomKey(), value);
+    }
+
+    @Benchmark
+    public void setTtl() throws KitDBException {
+        kv.set(randomKey(), value, 3600);
+    }
+
+    @Benchmark
+    public byte[] get() throws KitDBException {
+        return kv.get(randomKey());
+    }
+
+    @Benchmark
+    public byte[] getTtl() throws KitDBException {
+        return kv.get("ttl" + randomKey());
+    }
+
+    @Benchmark
+    public long incr() throws KitDBException {
+        return kv.incr("incr" + randomKey(), 1);
+    }
+
+    @Benchmark
+    public void incrMerge() throws KitDBException {
+        kv.incrMerge("incr" + randomKey(), 1);
+    }
+
+    @Benchmark
+    public void ttl() throws KitDBException {
+        kv.ttl("ttl" + randomKey(), 3600);
+    }
+}
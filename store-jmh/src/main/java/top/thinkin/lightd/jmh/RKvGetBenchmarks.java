@@ -0,0 +1,95 @@
+package top.thinkin.lightd.jmh;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import top.thinkin.lightd.db.DB;
+import top.thinkin.lightd.db.RKv;
+import top.thinkin.lightd.exception.KitDBException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * RKv 单 key 读取，配合 -prof gc 看每次操作的分配字节数（gc.alloc.rate.norm）
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RKvGetBenchmarks {
+
+    @Param({"100000"})
+    int keyCount;
+
+    @Param({"16", "256"})
+    int valueSize;
+
+    @Param({"false", "true"})
+    boolean ttl;
+
+    Path dbDir;
+    DB db;
+    RKv kv;
+    String[] keys;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException, KitDBException {
+        dbDir = Files.createTempDirectory("kitdb-rkv-get-benchmarks");
+        db = DB.build(dbDir.toString(), false);
+        kv = db.getrKv();
+        keys = new String[keyCount];
+        byte[] value = new byte[valueSize];
+        for (int i = 0; i < keyCount; i++) {
+            keys[i] = "key" + i;
+            if (ttl) {
+                kv.set(keys[i], value, 3600);
+            } else {
+                kv.set(keys[i], value);
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void cleanup() throws Exception {
+        db.close();
+        Benchmarks.delete(dbDir);
+    }
+
+    @State(Scope.Thread)
+    public static class Buffer {
+        ByteBuffer value = ByteBuffer.allocateDirect(4096);
+    }
+
+    @Benchmark
+    public byte[] get() throws KitDBException {
+        return kv.get(keys[ThreadLocalRandom.current().nextInt(keyCount)]);
+    }
+
+    @Benchmark
+    public void getDirect(Buffer buffer, Blackhole blackhole) throws KitDBException {
+        buffer.value.clear();
+        blackhole.consume(kv.get(keys[ThreadLocalRandom.current().nextInt(keyCount)], buffer.value));
+    }
+
+    @Benchmark
+    public void getMiss(Blackhole blackhole) throws KitDBException {
+        blackhole.consume(kv.get("miss"));
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(RKvGetBenchmarks.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
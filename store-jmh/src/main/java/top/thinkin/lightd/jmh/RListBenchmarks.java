@@ -0,0 +1,56 @@
+package top.thinkin.lightd.jmh;
+
+import org.openjdk.jmh.annotations.*;
+import top.thinkin.lightd.db.RList;
+import top.thinkin.lightd.exception.KitDBException;
+
+import java.util.List;
+
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RListBenchmarks extends DBState {
+
+    @Param({"100"})
+    int listSize;
+
+    @Param({"10"})
+    int rangeSize;
+
+    RList list;
+
+    @Override
+    protected void load() throws KitDBException {
+        list = db.getList();
+        for (String key : keys) {
+            for (int i = 0; i < listSize; i++) {
+                list.add(key, value);
+            }
+        }
+    }
+
+    @Benchmark
+    public void add() throws KitDBException {
+        list.add(randomKey(), value);
+    }
+
+    /**
+     * 弹出后再补回，列表长度保持不变
+     */
+    @Benchmark
+    public List<byte[]> blpop() throws KitDBException {
+        String key = randomKey();
+        List<byte[]> values = list.blpop(key, 1);
+        list.add(key, value);
+        return values;
+    }
+
+    @Benchmark
+    public List<byte[]> range() throws KitDBException {
+        String key = randomKey();
+        Long left = list.left(key);
+        long start = left == null ? 0 : left;
+        return list.range(key, start, start + rangeSize);
+    }
+}
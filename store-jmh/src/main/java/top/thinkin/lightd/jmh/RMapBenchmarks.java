@@ -0,0 +1,48 @@
+package top.thinkin.lightd.jmh;
+
+import org.openjdk.jmh.annotations.*;
+import top.thinkin.lightd.db.RMap;
+import top.thinkin.lightd.exception.KitDBException;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RMapBenchmarks extends DBState {
+
+    @Param({"100"})
+    int fieldCount;
+
+    RMap map;
+    String[] fields;
+
+    @Override
+    protected void load() throws KitDBException {
+        map = db.getMap();
+        fields = new String[fieldCount];
+        for (int i = 0; i < fieldCount; i++) {
+            fields[i] = "field" + i;
+        }
+        for (String key : keys) {
+            for (String field : fields) {
+                map.put(key, field, value);
+            }
+        }
+    }
+
+    private String randomField() {
+        return fields[ThreadLocalRandom.current().nextInt(fieldCount)];
+    }
+
+    @Benchmark
+    public void put() throws KitDBException {
+        map.put(randomKey(), randomField(), value);
+    }
+
+    @Benchmark
+    public byte[] get() throws KitDBException {
+        return map.get(randomKey(), randomField());
+    }
+}
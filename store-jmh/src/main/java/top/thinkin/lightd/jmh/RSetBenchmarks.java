@@ -0,0 +1,48 @@
+package top.thinkin.lightd.jmh;
+
+import org.openjdk.jmh.annotations.*;
+import top.thinkin.lightd.db.RSet;
+import top.thinkin.lightd.exception.KitDBException;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RSetBenchmarks extends DBState {
+
+    @Param({"100"})
+    int memberCount;
+
+    RSet set;
+
+    @Override
+    protected void load() throws KitDBException {
+        set = db.getSet();
+        for (String key : keys) {
+            for (int i = 0; i < memberCount; i++) {
+                set.add(key, ("member" + i).getBytes());
+            }
+        }
+    }
+
+    @Benchmark
+    public void add() throws KitDBException {
+        set.add(randomKey(), ("member" + ThreadLocalRandom.current().nextInt(memberCount * 2)).getBytes());
+    }
+
+    /**
+     * 弹出后再放回，集合大小保持不变
+     */
+    @Benchmark
+    public List<byte[]> pop() throws KitDBException {
+        String key = randomKey();
+        List<byte[]> values = set.pop(key, 1);
+        if (!values.isEmpty()) {
+            set.add(key, values.get(0));
+        }
+        return values;
+    }
+}
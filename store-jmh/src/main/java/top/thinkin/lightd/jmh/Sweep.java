@@ -0,0 +1,32 @@
+package top.thinkin.lightd.jmh;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * 按线程数扫一遍所有 benchmark，带 gc profiler，每个线程数输出一份 json 结果
+ * <p>
+ * 用法：java -cp store-jmh-benchmarks.jar top.thinkin.lightd.jmh.Sweep [include 正则] [线程数,...]
+ */
+public class Sweep {
+
+    public static void main(String[] args) throws RunnerException {
+        String include = args.length > 0 ? args[0] : "top.thinkin.lightd.jmh.*";
+        String threads = args.length > 1 ? args[1] : "1,4,16,64";
+        for (String t : threads.split(",")) {
+            int n = Integer.parseInt(t.trim());
+            Options options = new OptionsBuilder()
+                    .include(include)
+                    .threads(n)
+                    .addProfiler(GCProfiler.class)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result("jmh-result-t" + n + ".json")
+                    .build();
+            new Runner(options).run();
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package top.thinkin.lightd.jmh;
+
+import org.openjdk.jmh.annotations.*;
+import top.thinkin.lightd.db.ZSet;
+import top.thinkin.lightd.exception.KitDBException;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ZSetBenchmarks extends DBState {
+
+    @Param({"100"})
+    int memberCount;
+
+    @Param({"10"})
+    int rangeSize;
+
+    ZSet zSet;
+
+    @Override
+    protected void load() throws KitDBException {
+        zSet = db.getzSet();
+        for (String key : keys) {
+            for (int i = 0; i < memberCount; i++) {
+                zSet.add(key, ("member" + i).getBytes(), i);
+            }
+        }
+    }
+
+    @Benchmark
+    public void add() throws KitDBException {
+        int i = ThreadLocalRandom.current().nextInt(memberCount);
+        zSet.add(randomKey(), ("member" + i).getBytes(), i);
+    }
+
+    /**
+     * 改成员的分数：旧分数和新分数在排名索引里共 16 个计数节点，前缀相同的层级增量抵消，
+     * 其余节点各一次 multiGet 读和一次写，add 同分数的成员不动索引
+     */
+    @Benchmark
+    public void updateScore() throws KitDBException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        zSet.add(randomKey(), ("member" + random.nextInt(memberCount)).getBytes(), random.nextLong());
+    }
+
+    @Benchmark
+    public Long rank() throws KitDBException {
+        return zSet.rank(randomKey(), ("member" + ThreadLocalRandom.current().nextInt(memberCount)).getBytes());
+    }
+
+    @Benchmark
+    public List<ZSet.Entry> rangeByRank() throws KitDBException {
+        long start = ThreadLocalRandom.current().nextInt(memberCount);
+        return zSet.rangeByRank(randomKey(), start, start + rangeSize - 1);
+    }
+
+    @Benchmark
+    public List<ZSet.Entry> range() throws KitDBException {
+        long start = ThreadLocalRandom.current().nextInt(memberCount);
+        return zSet.range(randomKey(), start, start + rangeSize, rangeSize);
+    }
+
+    /**
+     * 删除一段分数区间后再补回
+     */
+    @Benchmark
+    public List<ZSet.Entry> rangeDel() throws KitDBException {
+        String key = randomKey();
+        long start = ThreadLocalRandom.current().nextInt(memberCount);
+        List<ZSet.Entry> entries = zSet.rangeDel(key, start, start + rangeSize, rangeSize);
+        if (!entries.isEmpty()) {
+            zSet.add(key, entries);
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,166 @@
+package top.thinkin.lightd.db;
+
+import org.rocksdb.RocksDBException;
+import org.rocksdb.RocksIterator;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 批量读取的迭代器包装，一次 JNI 调用把一批 key/value 取到 direct buffer 中
+ * <p>
+ * 取批之后底层 RocksIterator 已越过缓冲中的条目，不能再读它的当前位置。
+ * 批大小从 hint 开始逐次翻倍，只读几条的短扫描不会多取。
+ */
+final class BatchIterator implements AutoCloseable {
+    private static final int MAX_BATCH = 1024;
+    private static final int INITIAL_CAPACITY = 16 * 1024;
+
+    private final RocksIterator iterator;
+    private final DirectBufferPool pool;
+    private final boolean reverse;
+    private ByteBuffer buffer;
+    private int batch;
+    private int pending = 0;
+    private boolean end = false;
+
+    private int keyOffset;
+    private int keyLength;
+    private int valueOffset;
+    private int valueLength;
+
+    /**
+     * @param pool 为 null 时自行分配缓冲区
+     * @param hint 预计读取的条数，作为第一批的大小
+     */
+    BatchIterator(RocksIterator iterator, DirectBufferPool pool, boolean reverse, int hint) {
+        this.iterator = iterator;
+        this.pool = pool;
+        this.reverse = reverse;
+        this.batch = Math.max(1, Math.min(hint, MAX_BATCH));
+    }
+
+    /**
+     * 移到下一条，没有更多时返回 false
+     */
+    boolean next() {
+        if (pending == 0 && !fill()) {
+            return false;
+        }
+        pending--;
+        int position = buffer.position();
+        keyLength = buffer.getInt(position);
+        keyOffset = position + 4;
+        valueLength = buffer.getInt(keyOffset + keyLength);
+        valueOffset = keyOffset + keyLength + 4;
+        buffer.position(valueOffset + valueLength);
+        return true;
+    }
+
+    private boolean fill() {
+        if (end) {
+            return false;
+        }
+        if (buffer == null) {
+            buffer = acquire(INITIAL_CAPACITY);
+        }
+        buffer.clear();
+        int count = nextBatch();
+        while (count < 0) {
+            // 单条超过缓冲区，换一个足够大的
+            int size = Math.max(-count, buffer.capacity() * 2);
+            release(buffer);
+            buffer = acquire(size);
+            buffer.clear();
+            count = nextBatch();
+        }
+        if (count == 0) {
+            end = true;
+        }
+        batch = Math.min(batch * 2, MAX_BATCH);
+        pending = count;
+        return count > 0;
+    }
+
+    /**
+     * 迭代出错时抛出，不能当作读到了末尾
+     */
+    private int nextBatch() {
+        try {
+            return iterator.nextBatch(buffer, batch, reverse);
+        } catch (RocksDBException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    byte[] key() {
+        return copy(keyOffset, keyLength);
+    }
+
+    byte[] value() {
+        return copy(valueOffset, valueLength);
+    }
+
+    int keyLength() {
+        return keyLength;
+    }
+
+    /**
+     * 当前 key 从 from 开始的部分
+     */
+    byte[] key(int from) {
+        return copy(keyOffset + from, keyLength - from);
+    }
+
+    long keyLong(int offset) {
+        return buffer.getLong(keyOffset + offset);
+    }
+
+    int keyInt(int offset) {
+        return buffer.getInt(keyOffset + offset);
+    }
+
+    /**
+     * 不拷贝 key，直接在缓冲区中比较前缀
+     */
+    boolean keyStartsWith(byte[] head) {
+        if (keyLength < head.length) {
+            return false;
+        }
+        for (int i = 0; i < head.length; i++) {
+            if (buffer.get(keyOffset + i) != head[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private byte[] copy(int offset, int length) {
+        byte[] bytes = new byte[length];
+        int position = buffer.position();
+        buffer.position(offset);
+        buffer.get(bytes);
+        buffer.position(position);
+        return bytes;
+    }
+
+    private ByteBuffer acquire(int size) {
+        return pool == null ? ByteBuffer.allocateDirect(size) : pool.acquire(size);
+    }
+
+    private void release(ByteBuffer buffer) {
+        if (pool != null) {
+            pool.release(buffer);
+        }
+    }
+
+    /**
+     * 归还缓冲区，底层 RocksIterator 由调用方关闭
+     */
+    @Override
+    public void close() {
+        if (buffer != null) {
+            release(buffer);
+            buffer = null;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package top.thinkin.lightd.db;
+
+import org.rocksdb.ReadOptions;
+import org.rocksdb.RocksIterator;
+import org.rocksdb.Slice;
+import top.thinkin.lightd.exception.DAssert;
+import top.thinkin.lightd.exception.ErrorType;
+import top.thinkin.lightd.exception.KitDBException;
+import top.thinkin.lightd.kit.ArrayKits;
+import top.thinkin.lightd.kit.BytesUtil;
+
+/**
+ * 只遍历以 head 开头的 key 的迭代器
+ * <p>
+ * 上下界通过 iterate_upper_bound / iterate_lower_bound 交给 RocksDB，
+ * 正向和逆向越界后 isValid 都直接为 false，关闭时一并释放 ReadOptions 和边界 Slice
+ */
+final class BoundedIterator implements AutoCloseable {
+    private static final byte[] ZERO = {0};
+
+    final RocksIterator iterator;
+    private final byte[] head;
+    private final ReadOptions readOptions;
+    private final Slice lower;
+    private final Slice upper;
+
+    BoundedIterator(RocksIterator iterator, byte[] head, ReadOptions readOptions, Slice lower, Slice upper) {
+        this.iterator = iterator;
+        this.head = head;
+        this.readOptions = readOptions;
+        this.lower = lower;
+        this.upper = upper;
+    }
+
+    /**
+     * 定位到游标之后，游标为 null 时定位到 from
+     *
+     * @param cursor 上次返回的最后一个 key
+     */
+    void seek(byte[] from, byte[] cursor) throws KitDBException {
+        if (cursor == null) {
+            iterator.seek(from);
+            return;
+        }
+        DAssert.isTrue(BytesUtil.checkHead(head, cursor), ErrorType.PARAM_ERROR, "cursor does not belong to this key");
+        iterator.seek(ArrayKits.addAll(cursor, ZERO));
+    }
+
+    /**
+     * 当前位置是否还在 head 下
+     */
+    boolean isValid() {
+        if (!iterator.isValid()) {
+            return false;
+        }
+        return upper != null || BytesUtil.checkHead(head, iterator.key());
+    }
+
+    @Override
+    public void close() {
+        iterator.close();
+        readOptions.close();
+        lower.close();
+        if (upper != null) {
+            upper.close();
+        }
+    }
+}
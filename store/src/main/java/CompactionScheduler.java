@@ -0,0 +1,315 @@
+package top.thinkin.lightd.db;
+
+import lombok.extern.slf4j.Slf4j;
+import org.rocksdb.*;
+import top.thinkin.lightd.base.SstColumnFamily;
+import top.thinkin.lightd.kit.BytesUtil;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 增量压缩调度
+ * <p>
+ * 只压缩 clear、checkTTL、deleteHead 刚刚范围删除过的区间，
+ * 按 I/O 预算限速，RocksDB 自身积压的压缩字节过多时主动退让。
+ */
+@Slf4j
+public class CompactionScheduler {
+
+    private final static String PENDING_COMPACTION_BYTES = "rocksdb.estimate-pending-compaction-bytes";
+
+    private final DB db;
+
+    private final ConcurrentLinkedQueue<PendingRange> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingSize = new AtomicInteger(0);
+
+    /**
+     * 每秒允许压缩的字节数
+     */
+    private volatile long ioBudgetBytesPerSec = 64L * 1024 * 1024;
+    /**
+     * RocksDB 待压缩字节超过该值时本轮不做手动压缩
+     */
+    private volatile long maxPendingCompactionBytes = 1024L * 1024 * 1024;
+    /**
+     * 区间内 SST 的点删除墓碑占比达到该值才压缩，有范围墓碑时总是压缩
+     */
+    private volatile double minTombstoneRatio = 0.1;
+    private volatile int maxRangesPerRound = 16;
+    private volatile int maxPendingRanges = 4096;
+    private volatile int maxSubcompactions = 1;
+    private volatile int maxAttempts = 3;
+
+    private long budget = 0;
+    private long lastRefill = System.nanoTime();
+
+    private final AtomicLong bytesCompacted = new AtomicLong(0);
+    private final AtomicLong compactionNanos = new AtomicLong(0);
+    private final AtomicLong rangesCompacted = new AtomicLong(0);
+    private final AtomicLong rangesSkipped = new AtomicLong(0);
+    private final AtomicLong rangesDropped = new AtomicLong(0);
+    private final AtomicLong backoffRounds = new AtomicLong(0);
+
+    /**
+     * compactRange 可能阻塞很久，单独一个线程运行，不占用 DB 共享的 stp
+     */
+    private volatile ScheduledThreadPoolExecutor executor;
+
+    protected CompactionScheduler(DB db) {
+        this.db = db;
+    }
+
+    /**
+     * 每秒运行一轮
+     *
+     * @param initialDelay 第一轮前等待的秒数
+     */
+    protected void start(long initialDelay) {
+        executor = new ScheduledThreadPoolExecutor(1);
+        executor.scheduleWithFixedDelay(this::run, initialDelay, 1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 停止调度并等待正在进行的一轮结束，未处理的区间保留到下次 start
+     */
+    protected void stop() throws InterruptedException {
+        ScheduledThreadPoolExecutor executor = this.executor;
+        if (executor != null) {
+            executor.shutdown();
+            executor.awaitTermination(Integer.MAX_VALUE, TimeUnit.SECONDS);
+            this.executor = null;
+        }
+    }
+
+    /**
+     * 登记一个刚被范围删除的区间 [start, end]
+     */
+    protected void mark(byte[] start, byte[] end, SstColumnFamily columnFamily) {
+        if (start == null || end == null) {
+            return;
+        }
+        if (pendingSize.incrementAndGet() > maxPendingRanges) {
+            pendingSize.decrementAndGet();
+            rangesDropped.incrementAndGet();
+            return;
+        }
+        pending.offer(new PendingRange(start, end, columnFamily));
+    }
+
+    protected synchronized void run() {
+        if (!db.open || pending.isEmpty()) {
+            return;
+        }
+        refill();
+        if (budget <= 0) {
+            return;
+        }
+        try {
+            if (pendingCompactionBytes() > maxPendingCompactionBytes) {
+                backoffRounds.incrementAndGet();
+                return;
+            }
+            List<PendingRange> ranges = drain();
+            List<PendingRange> retry = new ArrayList<>();
+            int i = 0;
+            for (; i < ranges.size() && budget > 0 && db.open; i++) {
+                PendingRange range = ranges.get(i);
+                switch (compact(range)) {
+                    case IN_MEMTABLE:
+                        // 还没落盘，不算一次尝试
+                        retry.add(range);
+                        break;
+                    case NOT_NEEDED:
+                        range.attempts++;
+                        if (range.attempts < maxAttempts) {
+                            retry.add(range);
+                        } else {
+                            rangesSkipped.incrementAndGet();
+                        }
+                        break;
+                    case COMPACTED:
+                        break;
+                }
+            }
+            retry.addAll(ranges.subList(i, ranges.size()));
+            for (PendingRange range : retry) {
+                pendingSize.incrementAndGet();
+                pending.offer(range);
+            }
+        } catch (Exception e) {
+            log.error("compaction error", e);
+        }
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        long add = (now - lastRefill) * ioBudgetBytesPerSec / 1000_000_000L;
+        lastRefill = now;
+        budget = Math.min(ioBudgetBytesPerSec, budget + add);
+    }
+
+    /**
+     * 取出一轮要处理的区间，同列族内重叠或相邻的区间合并
+     */
+    private List<PendingRange> drain() {
+        List<PendingRange> ranges = new ArrayList<>();
+        PendingRange range;
+        while (ranges.size() < maxRangesPerRound && (range = pending.poll()) != null) {
+            pendingSize.decrementAndGet();
+            ranges.add(range);
+        }
+        Collections.sort(ranges, (a, b) -> {
+            int c = a.columnFamily.compareTo(b.columnFamily);
+            return c != 0 ? c : BytesUtil.compare(a.start, b.start);
+        });
+        List<PendingRange> merged = new ArrayList<>(ranges.size());
+        PendingRange last = null;
+        for (PendingRange r : ranges) {
+            if (last != null && last.columnFamily == r.columnFamily
+                    && BytesUtil.compare(r.start, last.end) <= 0) {
+                if (BytesUtil.compare(r.end, last.end) > 0) {
+                    last.end = r.end;
+                }
+                last.attempts = Math.max(last.attempts, r.attempts);
+                continue;
+            }
+            merged.add(r);
+            last = r;
+        }
+        return merged;
+    }
+
+    private Outcome compact(PendingRange range) throws RocksDBException {
+        ColumnFamilyHandle handle = db.findColumnFamilyHandle(range.columnFamily);
+        List<Range> ranges = new ArrayList<>(1);
+        try (final Slice start = new Slice(range.start);
+             final Slice end = new Slice(range.end)) {
+            ranges.add(new Range(start, end));
+            Map<String, TableProperties> tables = db.rocksDB().getPropertiesOfTablesInRange(handle, ranges);
+            if (tables.isEmpty()) {
+                // 墓碑还在 memtable 中，等下一轮
+                return Outcome.IN_MEMTABLE;
+            }
+            long entries = 0;
+            long deletions = 0;
+            long rangeDeletions = 0;
+            for (TableProperties properties : tables.values()) {
+                entries += properties.getNumEntries();
+                deletions += properties.getNumDeletions();
+                rangeDeletions += properties.getNumRangeDeletions();
+            }
+            // 一个范围墓碑可能覆盖整个集合，只按条数算占比会被忽略，有范围墓碑就压缩
+            if (rangeDeletions == 0
+                    && (deletions == 0 || (double) deletions / Math.max(1, entries) < minTombstoneRatio)) {
+                return Outcome.NOT_NEEDED;
+            }
+            long size = db.rocksDB().getApproximateSizes(handle, ranges, SizeApproximationFlag.INCLUDE_FILES)[0];
+
+            long startTime = System.nanoTime();
+            try (final CompactRangeOptions options = new CompactRangeOptions()) {
+                options.setExclusiveManualCompaction(false);
+                options.setAllowWriteStall(false);
+                options.setMaxSubcompactions(maxSubcompactions);
+                options.setBottommostLevelCompaction(CompactRangeOptions.BottommostLevelCompaction.kForce);
+                db.rocksDB().compactRange(handle, range.start, range.end, options);
+            }
+            compactionNanos.addAndGet(System.nanoTime() - startTime);
+            bytesCompacted.addAndGet(size);
+            rangesCompacted.incrementAndGet();
+            budget -= size;
+            return Outcome.COMPACTED;
+        }
+    }
+
+    private long pendingCompactionBytes() throws RocksDBException {
+        return db.rocksDB().getLongProperty(db.findColumnFamilyHandle(SstColumnFamily.DEFAULT), PENDING_COMPACTION_BYTES);
+    }
+
+    public int getPendingRanges() {
+        return pendingSize.get();
+    }
+
+    public long getBytesCompacted() {
+        return bytesCompacted.get();
+    }
+
+    public long getCompactionTimeMillis() {
+        return compactionNanos.get() / 1000_000L;
+    }
+
+    public long getRangesCompacted() {
+        return rangesCompacted.get();
+    }
+
+    public long getRangesSkipped() {
+        return rangesSkipped.get();
+    }
+
+    public long getRangesDropped() {
+        return rangesDropped.get();
+    }
+
+    public long getBackoffRounds() {
+        return backoffRounds.get();
+    }
+
+    public long getIoBudgetBytesPerSec() {
+        return ioBudgetBytesPerSec;
+    }
+
+    public void setIoBudgetBytesPerSec(long ioBudgetBytesPerSec) {
+        this.ioBudgetBytesPerSec = ioBudgetBytesPerSec;
+    }
+
+    public void setMaxPendingCompactionBytes(long maxPendingCompactionBytes) {
+        this.maxPendingCompactionBytes = maxPendingCompactionBytes;
+    }
+
+    public void setMinTombstoneRatio(double minTombstoneRatio) {
+        this.minTombstoneRatio = minTombstoneRatio;
+    }
+
+    public void setMaxRangesPerRound(int maxRangesPerRound) {
+        this.maxRangesPerRound = maxRangesPerRound;
+    }
+
+    public void setMaxPendingRanges(int maxPendingRanges) {
+        this.maxPendingRanges = maxPendingRanges;
+    }
+
+    public void setMaxSubcompactions(int maxSubcompactions) {
+        this.maxSubcompactions = maxSubcompactions;
+    }
+
+
+    private enum Outcome {
+        COMPACTED,
+        NOT_NEEDED,
+        /**
+         * 区间内还没有 SST，墓碑在 memtable 中
+         */
+        IN_MEMTABLE
+    }
+
+
+    private static class PendingRange {
+        private final byte[] start;
+        private byte[] end;
+        private final SstColumnFamily columnFamily;
+        private int attempts = 0;
+
+        PendingRange(byte[] start, byte[] end, SstColumnFamily columnFamily) {
+            this.start = start;
+            this.end = end;
+            this.columnFamily = columnFamily;
+        }
+    }
+}
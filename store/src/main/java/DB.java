@@ -5,7 +5,6 @@ import lombok.extern.slf4j.Slf4j;
 import org.rocksdb.*;
 import top.thinkin.lightd.base.BinLog;
 import top.thinkin.lightd.base.CloseLock;
-import top.thinkin.lightd.base.KeySegmentLockManager;
 import top.thinkin.lightd.base.VersionSequence;
 import top.thinkin.lightd.data.KeyEnum;
 import top.thinkin.lightd.exception.DAssert;
@@ -20,16 +19,32 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.zip.ZipOutputStream;
 
 @Slf4j
 public class DB extends DBAbs {
-    static final byte[] DB_VERSION = "V0.0.2".getBytes();
+    static final byte[] DB_VERSION = "V0.0.3".getBytes();
+    /**
+     * KV 的 TTL 单独存放在 KV_TTL 下的旧版本，打开时后台迁移
+     */
+    static final byte[] DB_VERSION_KV_TTL_KEY = "V0.0.2".getBytes();
+
+    /**
+     * Raft 状态机已应用的日志位置，和数据在同一个批次中写入
+     * <p>
+     * 使用保留的 key 头，不会出现在 RKv 的 key 扫描和前缀删除中
+     */
+    static final byte[] APPLIED_INDEX_KEY = KeyEnum.RAFT_APPLIED.getBytes();
 
     public static String BACK_FILE_SUFFIX = ".kit";
 
@@ -50,6 +65,10 @@ public class DB extends DBAbs {
 
     private BinLog binLog;
 
+    private final DirectBufferPool bufferPool = new DirectBufferPool(1024);
+
+    private volatile ScheduledFuture<?> kvMigration;
+
     ScheduledThreadPoolExecutor stp = new ScheduledThreadPoolExecutor(4);
 
     static {
@@ -68,14 +87,21 @@ public class DB extends DBAbs {
                 stp.shutdown();
                 stp.awaitTermination(Integer.MAX_VALUE, TimeUnit.SECONDS);
             }
+            if (compactionScheduler != null) {
+                compactionScheduler.stop();
+            }
             if (rocksDB != null) {
+                if (this.memberTtlFilter != null) {
+                    this.memberTtlFilter.clearMetaSource();
+                }
                 rocksDB.close();
+                if (this.groupCommitter != null) {
+                    this.groupCommitter.close();
+                }
                 this.readOptions.close();
                 this.writeOptions.close();
                 this.options.close();
-                for (final ColumnFamilyOptions cfOptions : this.cfOptionsList) {
-                    cfOptions.close();
-                }
+                closeColumnFamilyOptions();
                 this.metaHandle.close();
                 this.defHandle.close();
             }
@@ -90,17 +116,33 @@ public class DB extends DBAbs {
                 stp.shutdown();
                 stp.awaitTermination(Integer.MAX_VALUE, TimeUnit.SECONDS);
             }
+            if (compactionScheduler != null) {
+                compactionScheduler.stop();
+            }
             if (rocksDB != null) {
+                if (this.memberTtlFilter != null) {
+                    this.memberTtlFilter.clearMetaSource();
+                }
                 rocksDB.close();
                 this.metaHandle.close();
                 this.defHandle.close();
+                closeColumnFamilyOptions();
             }
         }
     }
 
 
     public RSnapshot createSnapshot() {
-        return new RSnapshot(this.rocksDB.getSnapshot());
+        return rKv.createSnapshot(this.rocksDB);
+    }
+
+    /**
+     * 绑定快照的只读视图，视图上的所有读取都看到同一时刻的数据
+     */
+    public SnapshotView at(RSnapshot snapshot) throws KitDBException {
+        DAssert.notNull(snapshot, ErrorType.NULL, "snapshot is null");
+        DAssert.notNull(snapshot.getSnapshot(), ErrorType.PARAM_ERROR, "snapshot is closed");
+        return new SnapshotView(this, snapshot);
     }
 
     public VersionSequence versionSequence() {
@@ -161,6 +203,9 @@ public class DB extends DBAbs {
     }
 
 
+    /**
+     * 按定时索引提前清理过期集合，过期数据最终由压缩过滤清理，这里只是加速
+     */
     public synchronized void checkTTL() {
         try {
             int end = (int) (System.currentTimeMillis() / 1000);
@@ -209,6 +254,9 @@ public class DB extends DBAbs {
 
     }
 
+    /**
+     * 清理旧版本写入 KV_TIMER 的过期 key，新写入的 KV 过期由压缩过滤清理
+     */
     public synchronized void clearKV() {
         try {
             int end = (int) (System.currentTimeMillis() / 1000);
@@ -235,6 +283,27 @@ public class DB extends DBAbs {
     }
 
 
+    /**
+     * 旧版本 KV 迁移为值内联 TTL，完成后升级库版本并打开过期值的压缩过滤
+     */
+    private void migrateKV() {
+        try {
+            if (!open || !this.rKv.migrate(1000)) {
+                return;
+            }
+            this.rocksDB.put("version".getBytes(), DB_VERSION);
+            this.kvTtlFilter.setEnabled(true);
+            this.kvMigration.cancel(false);
+            log.info("kv migration finished");
+        } catch (Exception e) {
+            log.error("kv migration error", e);
+        }
+    }
+
+
+    /**
+     * 全量压缩，只用于手动维护，后台由 CompactionScheduler 增量压缩
+     */
     public synchronized void compaction() {
         try {
             this.rocksDB.compactRange();
@@ -271,6 +340,64 @@ public class DB extends DBAbs {
         ZipUtil.unzipFile(path, targetpath);
     }
 
+
+    /**
+     * 在 path 下生成不压缩的 checkpoint，与库同一文件系统时 SST 为硬链接
+     *
+     * @return 生成的文件名
+     */
+    public synchronized List<String> checkpointDB(String path) throws RocksDBException, IOException {
+        String tempPath = path + File.separator + "tempcp";
+        final File tempFile = new File(tempPath);
+        FileZipUtils.delFile(tempFile);
+        try (final Checkpoint checkpoint = Checkpoint.create(this.rocksDB)) {
+            checkpoint.createCheckpoint(tempPath);
+        }
+        List<String> files = new ArrayList<>();
+        File[] checkpointFiles = tempFile.listFiles();
+        if (checkpointFiles != null) {
+            for (File file : checkpointFiles) {
+                Files.move(file.toPath(), Paths.get(path, file.getName()));
+                files.add(file.getName());
+            }
+        }
+        FileZipUtils.delFile(tempFile);
+        return files;
+    }
+
+
+    /**
+     * 用 checkpoint 中的文件替换 targetpath，库需已停止
+     * <p>
+     * 先在旁边的目录中准备好再整体换入，SST 不会被修改，尽量硬链接，其余文件复制
+     */
+    public static void releaseCheckpoint(String path, Collection<String> files, String targetpath) throws IOException {
+        File target = new File(targetpath).getAbsoluteFile();
+        File loading = new File(target.getPath() + ".loading");
+        File old = new File(target.getPath() + ".old");
+        FileZipUtils.delFile(loading);
+        FileZipUtils.delFile(old);
+        Files.createDirectories(loading.toPath());
+        for (String name : files) {
+            Path source = Paths.get(path, name);
+            Path dest = loading.toPath().resolve(name);
+            if (name.endsWith(".sst")) {
+                try {
+                    Files.createLink(dest, source);
+                    continue;
+                } catch (IOException | UnsupportedOperationException e) {
+                    log.warn("link {} failed, copy instead", name);
+                }
+            }
+            Files.copy(source, dest);
+        }
+        if (target.exists()) {
+            Files.move(target.toPath(), old.toPath());
+        }
+        Files.move(loading.toPath(), target.toPath());
+        FileZipUtils.delFile(old);
+    }
+
     public synchronized static DB build(String dir) throws KitDBException {
         return build(dir, true);
     }
@@ -341,6 +468,12 @@ public class DB extends DBAbs {
 
     public synchronized void open(String dir, boolean autoclear, boolean readOnly) throws KitDBException {
         DAssert.isTrue(!open, ErrorType.DB_CLOSE, "db is closed");
+        // 重新打开时数据可能已被快照替换
+        this.metaCache.clear();
+        KvNearCache kvCache = this.kvCache;
+        if (kvCache != null) {
+            kvCache.clear();
+        }
         try {
             final List<ColumnFamilyHandle> cfHandles = new ArrayList<>();
             if (openTransaction) {
@@ -351,6 +484,10 @@ public class DB extends DBAbs {
             }
             this.metaHandle = cfHandles.get(0);
             this.defHandle = cfHandles.get(1);
+            if (!readOnly) {
+                this.memberTtlFilter.setMetaSource(this.rocksDB, this.metaHandle);
+            }
+            this.kvTtlFilter.setEnabled(!this.rKv.isMigrating());
             stp = new ScheduledThreadPoolExecutor(4);
             if (!readOnly) {
                 if (autoclear) {
@@ -358,9 +495,11 @@ public class DB extends DBAbs {
                     this.stp.scheduleWithFixedDelay(this::clearKV, 1, 1, TimeUnit.SECONDS);
                 }
                 this.stp.scheduleWithFixedDelay(this::checkTTL, 1, 1, TimeUnit.SECONDS);
-                this.stp.scheduleWithFixedDelay(this::compaction, 30, 30, TimeUnit.SECONDS);
+                this.compactionScheduler.start(30);
+                if (this.rKv.isMigrating()) {
+                    this.kvMigration = this.stp.scheduleWithFixedDelay(this::migrateKV, 1000, 10, TimeUnit.MILLISECONDS);
+                }
             }
-            this.keySegmentLockManager.start(stp);
             open = true;
         } catch (RocksDBException e) {
             throw new KitDBException(ErrorType.STROE_ERROR, e);
@@ -382,6 +521,7 @@ public class DB extends DBAbs {
         db.versionSequence = new VersionSequence(db);
 
 
+        boolean legacyKv = false;
         byte[] version = db.rocksDB.get("version".getBytes());
         if (version == null) {
             if (!readOnly) {
@@ -390,6 +530,8 @@ public class DB extends DBAbs {
                 DAssert.isTrue(false, ErrorType.STORE_VERSION,
                         "Store versions must be " + new String(DB_VERSION) + ", but now is null");
             }
+        } else if (BytesUtil.compare(version, DB_VERSION_KV_TTL_KEY) == 0) {
+            legacyKv = true;
         } else {
             DAssert.isTrue(BytesUtil.compare(version, DB_VERSION) == 0, ErrorType.STORE_VERSION,
                     "Store versions must be " + new String(DB_VERSION) + ", but now is " + new String(version));
@@ -402,15 +544,28 @@ public class DB extends DBAbs {
                 db.stp.scheduleWithFixedDelay(db::clearKV, 1, 1, TimeUnit.SECONDS);
             }
             db.stp.scheduleWithFixedDelay(db::checkTTL, 1, 1, TimeUnit.SECONDS);
-            db.stp.scheduleWithFixedDelay(db::compaction, 5, 5, TimeUnit.SECONDS);
         }
 
         Options optionsBinLog = new Options();
         optionsBinLog.setCreateIfMissing(true);
 
         db.binLogDB = null;
-        db.keySegmentLockManager = new KeySegmentLockManager(db.stp);
+        db.compactionScheduler = new CompactionScheduler(db);
+        if (!readOnly) {
+            db.compactionScheduler.start(5);
+        }
+        if (!readOnly && db.memberTtlFilter != null) {
+            db.memberTtlFilter.setMetaSource(db.rocksDB, db.metaHandle);
+        }
         db.rKv = new RKv(db);
+        if (legacyKv) {
+            db.rKv.startMigrate();
+            if (!readOnly) {
+                db.kvMigration = db.stp.scheduleWithFixedDelay(db::migrateKV, 1000, 10, TimeUnit.MILLISECONDS);
+            }
+        } else if (db.kvTtlFilter != null) {
+            db.kvTtlFilter.setEnabled(true);
+        }
         db.zSet = new ZSet(db);
         db.set = new RSet(db);
         db.list = new RList(db);
@@ -420,6 +575,80 @@ public class DB extends DBAbs {
     }
 
 
+    public DirectBufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    /**
+     * 开启组提交，并发的非事务写入合并成一个 WriteBatch 写入
+     *
+     * @param maxBatchSize  一个批次最多合并的写入数
+     * @param maxWaitMicros 凑批最多等待的微秒数，0 表示不等待
+     * @param sync          每个批次是否 fsync WAL
+     */
+    public synchronized void openGroupCommit(int maxBatchSize, long maxWaitMicros, boolean sync) {
+        GroupCommitter old = this.groupCommitter;
+        this.groupCommitter = new GroupCommitter(this, maxBatchSize, maxWaitMicros, sync);
+        if (old != null) {
+            // 进行中的提交结束后才真正释放
+            old.close();
+        }
+    }
+
+    public synchronized void closeGroupCommit() {
+        GroupCommitter old = this.groupCommitter;
+        this.groupCommitter = null;
+        if (old != null) {
+            // 进行中的提交结束后才真正释放
+            old.close();
+        }
+    }
+
+    public GroupCommitter getGroupCommitter() {
+        return groupCommitter;
+    }
+
+    /**
+     * 开启 RKv 近端缓存，重复调用时换成新的空缓存
+     *
+     * @param capacity     最多缓存的 key 数
+     * @param maxValueSize 超过该字节数的值不缓存
+     */
+    public synchronized void openKvCache(int capacity, int maxValueSize) {
+        this.kvCache = new KvNearCache(capacity, maxValueSize);
+    }
+
+    public synchronized void closeKvCache() {
+        this.kvCache = null;
+    }
+
+    public KvNearCache getKvCache() {
+        return kvCache;
+    }
+
+    /**
+     * 合并多条复制日志一次写入，用完需关闭
+     */
+    public LogBatch newLogBatch() {
+        return new LogBatch(this);
+    }
+
+    /**
+     * @return 最后一次由 LogBatch 写入的日志位置，没有时返回 0
+     */
+    public long getAppliedIndex() throws KitDBException {
+        try {
+            byte[] index = this.rocksDB().get(APPLIED_INDEX_KEY);
+            return index == null ? 0 : ArrayKits.bytesToLong(index);
+        } catch (RocksDBException e) {
+            throw new KitDBException(ErrorType.STROE_ERROR, e);
+        }
+    }
+
+    public CompactionScheduler getCompactionScheduler() {
+        return compactionScheduler;
+    }
+
     public RKv getrKv() {
         return rKv;
     }
@@ -429,8 +658,11 @@ public class DB extends DBAbs {
     }
 
 
-    KeySegmentLockManager getKeySegmentLockManager() {
-        return keySegmentLockManager;
+    /**
+     * RKv 的分片锁，可查看锁竞争情况
+     */
+    public StripedKeyLock getKvLock() {
+        return rKv.lock;
     }
 
     public String getDir() {
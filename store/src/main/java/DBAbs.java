@@ -8,10 +8,16 @@ import top.thinkin.lightd.exception.ErrorType;
 import top.thinkin.lightd.exception.KitDBException;
 import top.thinkin.lightd.kit.BytesUtil;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -22,7 +28,24 @@ public abstract class DBAbs {
     protected boolean openTransaction = false;
     protected volatile boolean open = false;
 
-    protected KeySegmentLockManager keySegmentLockManager;
+    protected CompactionScheduler compactionScheduler;
+
+    /**
+     * 不为空时非事务写入走组提交
+     */
+    protected volatile GroupCommitter groupCommitter;
+
+    protected final MetaCache metaCache = new MetaCache(MetaCache.DEFAULT_CAPACITY);
+
+    /**
+     * 不为空时 RKv 读取先查近端缓存
+     */
+    protected volatile KvNearCache kvCache;
+
+    /**
+     * 事务中写到的 meta 和 KV，事务提交后再失效缓存
+     */
+    private final Map<Transaction, List<DBCommand>> txCacheLogs = new ConcurrentHashMap<>();
 
     public RocksDB rocksDB() {
         return this.rocksDB;
@@ -45,6 +68,10 @@ public abstract class DBAbs {
 
     public final ThreadLocal<Boolean> IS_STATR_TX = ThreadLocal.withInitial(() -> false);
 
+    protected final ThreadLocal<TxLocks> TX_LOCKS = ThreadLocal.withInitial(TxLocks::new);
+
+    private final ThreadLocal<List<Runnable>> TX_AFTER_COMMIT = ThreadLocal.withInitial(ArrayList::new);
+
     protected final ReadWriteLock CLOSE_LOCK = new ReentrantReadWriteLock(true);
 
 
@@ -88,12 +115,18 @@ public abstract class DBAbs {
                 //事务不需要提交，计数器减一
                 entity.subCount();
             } else {
+                List<Runnable> after;
                 try {
                     DBCommandChunk dbCommandChunk = new DBCommandChunk(DBCommandChunkType.TX_COMMIT, entity);
                     functionCommit.call(dbCommandChunk);
                 } finally {
                     IS_STATR_TX.set(false);
                     entity.reset();
+                    releaseTxLocks();
+                    after = drainAfterCommit();
+                }
+                for (Runnable runnable : after) {
+                    runnable.run();
                 }
             }
         } catch (RocksDBException e) {
@@ -102,7 +135,12 @@ public abstract class DBAbs {
     }
 
     public void commitTX(TransactionEntity entity) throws RocksDBException {
-        entity.getTransaction().commit();
+        Transaction transaction = entity.getTransaction();
+        transaction.commit();
+        List<DBCommand> cacheLogs = txCacheLogs.remove(transaction);
+        if (cacheLogs != null) {
+            invalidateCaches(cacheLogs);
+        }
     }
 
 
@@ -126,6 +164,8 @@ public abstract class DBAbs {
                 } finally {
                     IS_STATR_TX.set(false);
                     entity.reset();
+                    releaseTxLocks();
+                    drainAfterCommit();
                 }
             }
         } catch (RocksDBException e) {
@@ -135,6 +175,7 @@ public abstract class DBAbs {
     }
 
     public void rollbackTX(TransactionEntity entity) throws RocksDBException {
+        txCacheLogs.remove(entity.getTransaction());
         entity.getTransaction().rollback();
     }
 
@@ -162,13 +203,57 @@ public abstract class DBAbs {
         }
     }
 
-    protected void addLockEntity(LockEntity lockEntity) {
+    /**
+     * 事务中加锁的等待上限。锁持有到事务结束，两个事务以相反顺序锁到同一组分片时靠超时解开
+     */
+    protected final static long TX_LOCK_TIMEOUT_MILLIS = 2000;
+
+    /**
+     * 事务中加锁，锁一直持有到事务提交或回滚，同一分片只加一次，等待超时报 TX_ERROR
+     */
+    protected int lockInTx(StripedKeyLock lock, String key) throws KitDBException {
+        TxLocks held = TX_LOCKS.get();
+        int stripe = lock.stripe(key);
+        if (held.contains(lock, stripe)) {
+            return stripe;
+        }
+        boolean locked;
+        try {
+            locked = lock.tryLockStripe(stripe, TX_LOCK_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new KitDBException(ErrorType.TX_ERROR, e);
+        }
+        DAssert.isTrue(locked, ErrorType.TX_ERROR, "lock timeout in transaction, key: " + key);
+        held.add(lock, stripe);
+        return stripe;
+    }
+
+    protected void releaseTxLocks() {
+        TX_LOCKS.get().release();
+    }
+
+    /**
+     * 在写入可见后执行，事务中推迟到最外层事务提交成功之后，回滚时丢弃
+     */
+    protected void afterCommit(Runnable runnable) {
         if (this.IS_STATR_TX.get()) {
-            TransactionEntity transactionEntity = TRANSACTION_ENTITY.get();
-            transactionEntity.addLock(lockEntity);
+            TX_AFTER_COMMIT.get().add(runnable);
+        } else {
+            runnable.run();
         }
     }
 
+    private List<Runnable> drainAfterCommit() {
+        List<Runnable> after = TX_AFTER_COMMIT.get();
+        if (after.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Runnable> drained = new ArrayList<>(after);
+        after.clear();
+        return drained;
+    }
+
     public void checkKey() throws KitDBException {
         DAssert.isTrue(this.openTransaction, ErrorType.NOT_TX_DB, "this db is not a Transaction DB");
     }
@@ -182,6 +267,7 @@ public abstract class DBAbs {
                     setLogs(logs, batch);
                     transaction.rebuildFromWriteBatch(batch);
                 }
+                addTxCacheLogs(transaction, logs);
             } else {
                 simpleCommit(logs);
             }
@@ -197,16 +283,119 @@ public abstract class DBAbs {
                 setLogs(logs, batch);
                 transactionEntity.getTransaction().rebuildFromWriteBatch(batch);
             }
+            addTxCacheLogs(transactionEntity.getTransaction(), logs);
         } catch (RocksDBException e) {
             throw new KitDBException(ErrorType.STROE_ERROR, e);
         }
     }
 
     public void simpleCommit(List<DBCommand> logs) throws KitDBException, RocksDBException {
+        while (true) {
+            GroupCommitter committer = this.groupCommitter;
+            if (committer == null) {
+                try (final WriteBatch batch = new WriteBatch()) {
+                    setLogs(logs, batch);
+                    this.rocksDB().write(this.writeOptions(), batch);
+                }
+                break;
+            }
+            // 占用失败说明 committer 刚被替换或关闭，重新读取
+            if (committer.acquire()) {
+                try {
+                    committer.commit(logs);
+                } finally {
+                    committer.release();
+                }
+                break;
+            }
+        }
+        invalidateCaches(logs);
+    }
+
+    /**
+     * 直接写入 LogCodec 编码的日志条目中的命令，Raft 跟随者使用，不还原 DBCommand
+     */
+    public void simpleCommit(byte[] entry) throws KitDBException, RocksDBException {
         try (final WriteBatch batch = new WriteBatch()) {
-            setLogs(logs, batch);
+            LogCodec.writeTo(entry, batch, this);
             this.rocksDB().write(this.writeOptions(), batch);
         }
+        invalidateCaches(entry);
+    }
+
+    /**
+     * 写入可见后失效编码条目里写到的 meta 和 KV
+     */
+    void invalidateCaches(byte[] entry) {
+        if (metaCache.isEnabled() || kvCache != null) {
+            LogCodec.keys(entry, this::invalidateCache);
+        }
+    }
+
+    /**
+     * 写入可见后失效 logs 里写到的 meta 和 KV，调用方仍持有 key 锁
+     */
+    protected void invalidateCaches(List<DBCommand> logs) {
+        if (!metaCache.isEnabled() && kvCache == null) {
+            return;
+        }
+        for (DBCommand log : logs) {
+            switch (log.getType()) {
+                case DELETE_RANGE:
+                    invalidateCache(log.getFamily(), log.getStart(), true);
+                    break;
+                default:
+                    invalidateCache(log.getFamily(), log.getKey(), false);
+            }
+        }
+    }
+
+    /**
+     * @param range 为 true 时 key 是范围删除的起点，清空整个缓存
+     */
+    private void invalidateCache(SstColumnFamily family, byte[] key, boolean range) {
+        KvNearCache kvCache = this.kvCache;
+        if (family == SstColumnFamily.META) {
+            if (range) {
+                metaCache.clear();
+            } else {
+                metaCache.invalidate(key);
+            }
+        } else if (kvCache != null && isKvKey(key)) {
+            if (range) {
+                kvCache.clear();
+            } else {
+                kvCache.invalidate(kvKeyOf(key));
+            }
+        }
+    }
+
+    private void invalidateKv(byte[] key) {
+        KvNearCache kvCache = this.kvCache;
+        if (kvCache != null && isKvKey(key)) {
+            kvCache.invalidate(kvKeyOf(key));
+        }
+    }
+
+    private static boolean isKvKey(byte[] key) {
+        return key.length >= RKv.HEAD_B.length && BytesUtil.checkHead(RKv.HEAD_B, key);
+    }
+
+    private static String kvKeyOf(byte[] key) {
+        return new String(key, RKv.HEAD_B.length, key.length - RKv.HEAD_B.length, StandardCharsets.UTF_8);
+    }
+
+    private void addTxCacheLogs(Transaction transaction, List<DBCommand> logs) {
+        if (!metaCache.isEnabled() && kvCache == null) {
+            return;
+        }
+        for (DBCommand log : logs) {
+            txCacheLogs.computeIfAbsent(transaction, t -> new ArrayList<>()).add(log);
+        }
+    }
+
+    public MetaCache getMetaCache() {
+        return metaCache;
     }
 
     protected void commitLocal() throws KitDBException {
@@ -247,6 +436,19 @@ public abstract class DBAbs {
     }
 
 
+    /**
+     * 提交当前线程的 logs 但不等待写入完成，返回写入完成时结束的 future，不能在事务中使用
+     */
+    protected CompletableFuture<Void> commitAsync() throws KitDBException {
+        DAssert.isTrue(!this.IS_STATR_TX.get(), ErrorType.TX_ERROR, "async commit is not supported in a transaction");
+        List<DBCommand> logs = threadLogs.get();
+        // threadLogs 会被复用，提交出去的要单独一份
+        DBCommandChunk dbCommandChunk = new DBCommandChunk(DBCommandChunkType.NOM_COMMIT, new ArrayList<>(logs));
+        logs.clear();
+        return functionCommit.callAsync(dbCommandChunk);
+    }
+
+
     protected WriteOptions writeOptions() {
         return this.writeOptions;
     }
@@ -276,6 +478,75 @@ public abstract class DBAbs {
         }
     }
 
+    /**
+     * 提交当前线程的日志，并把 direct key/value 追加到同一个 WriteBatch。
+     * 事务、Raft 或组提交模式下退化为复制成 byte[] 后走普通提交
+     */
+    protected void commitDirect(ByteBuffer key, ByteBuffer value, SstColumnFamily columnFamily) throws KitDBException {
+        commitDirect(key, value, null, columnFamily);
+    }
+
+    /**
+     * 同上，delKey 不为空时在同一批次里删除它
+     */
+    protected void commitDirect(ByteBuffer key, ByteBuffer value, ByteBuffer delKey,
+                                SstColumnFamily columnFamily) throws KitDBException {
+        if (!directWritable()) {
+            putDB(DirectKey.toBytes(key), DirectKey.toBytes(value), columnFamily);
+            if (delKey != null) {
+                deleteDB(DirectKey.toBytes(delKey), columnFamily);
+            }
+            commit();
+            return;
+        }
+        List<DBCommand> logs = threadLogs.get();
+        byte[] cachedKey = kvCache == null ? null : DirectKey.toBytes(key);
+        try (final WriteBatch batch = new WriteBatch()) {
+            setLogs(logs, batch);
+            ColumnFamilyHandle handle = findColumnFamilyHandle(columnFamily);
+            batch.put(handle, key, value);
+            if (delKey != null) {
+                batch.delete(handle, delKey);
+            }
+            this.rocksDB().write(this.writeOptions(), batch);
+            // logs 里带着集合的 R_META，和 simpleCommit 一样写入后失效 MetaCache
+            invalidateCaches(logs);
+            if (cachedKey != null) {
+                invalidateKv(cachedKey);
+            }
+        } catch (RocksDBException e) {
+            throw new KitDBException(ErrorType.STROE_ERROR, e);
+        } finally {
+            logs.clear();
+        }
+    }
+
+    /**
+     * 当前写入能否绕过 DBCommand 日志直接写 WriteBatch，事务、Raft 复制和组提交时不行
+     */
+    protected boolean directWritable() {
+        return !this.IS_STATR_TX.get() && functionCommit == localCommit && groupCommitter == null;
+    }
+
+    /**
+     * 直接写一批 merge，调用前先用 directWritable 判断
+     */
+    protected void mergeDirect(List<byte[]> keys, List<byte[]> operands,
+                               SstColumnFamily columnFamily) throws KitDBException {
+        try (final WriteBatch batch = new WriteBatch()) {
+            ColumnFamilyHandle handle = findColumnFamilyHandle(columnFamily);
+            for (int i = 0; i < keys.size(); i++) {
+                batch.merge(handle, keys.get(i), operands.get(i));
+            }
+            this.rocksDB().write(this.writeOptions(), batch);
+            for (byte[] key : keys) {
+                invalidateKv(key);
+            }
+        } catch (RocksDBException e) {
+            throw new KitDBException(ErrorType.STROE_ERROR, e);
+        }
+    }
+
     protected void putDB(byte[] key, byte[] value, SstColumnFamily columnFamily) {
         List<DBCommand> logs = threadLogs.get();
         logs.add(DBCommand.update(key, value, columnFamily));
@@ -293,7 +564,7 @@ public abstract class DBAbs {
     }
 
 
-    private void setLogs(List<DBCommand> logs, WriteBatch batch) throws KitDBException {
+    protected void setLogs(List<DBCommand> logs, WriteBatch batch) throws KitDBException {
         try {
             for (DBCommand log : logs) {
                 switch (log.getType()) {
@@ -315,12 +586,42 @@ public abstract class DBAbs {
 
     protected final List<ColumnFamilyOptions> cfOptionsList = new ArrayList<>();
 
+    /**
+     * 压缩时丢弃头部过期时间已到的 KV
+     */
+    protected ExpireTimeCompactionFilter kvTtlFilter;
+    /**
+     * 压缩时丢弃已过期集合的 meta
+     */
+    protected CollectionTtlCompactionFilter metaTtlFilter;
+    /**
+     * 压缩时丢弃 meta 已删除、已过期或版本不一致的集合成员
+     */
+    protected CollectionTtlCompactionFilter memberTtlFilter;
+    protected ChainedCompactionFilter defFilter;
+    /**
+     * RKv.incrMerge 使用的计数器 merge 算子
+     */
+    protected KvIncrMergeOperator kvIncrOperator;
+    protected KeyPrefixExtractor prefixExtractor;
+    protected BloomFilter bloomFilter;
+
 
     protected List<ColumnFamilyDescriptor> getColumnFamilyDescriptor() {
         final ColumnFamilyOptions cfOptions = TableConfig.createColumnFamilyOptions();
         final ColumnFamilyOptions defCfOptions = TableConfig.createDefColumnFamilyOptions();
         cfOptionsList.add(cfOptions);
         cfOptionsList.add(defCfOptions);
+        // 迁移完成前不启用，旧布局的值没有过期时间头
+        kvTtlFilter = new ExpireTimeCompactionFilter(RKv.HEAD_B);
+        metaTtlFilter = createCollectionTtlFilter(false);
+        memberTtlFilter = createCollectionTtlFilter(true);
+        defFilter = new ChainedCompactionFilter(kvTtlFilter, memberTtlFilter);
+        cfOptions.setCompactionFilter(metaTtlFilter);
+        defCfOptions.setCompactionFilter(defFilter);
+        kvIncrOperator = new KvIncrMergeOperator();
+        defCfOptions.setMergeOperator(kvIncrOperator);
+        setPrefixBloom(defCfOptions);
 
         final List<ColumnFamilyDescriptor> cfDescriptors = new ArrayList<>();
         cfDescriptors.add(new ColumnFamilyDescriptor("R_META".getBytes(), cfOptions));
@@ -330,7 +631,91 @@ public abstract class DBAbs {
     }
 
 
-    private ColumnFamilyHandle findColumnFamilyHandle(final SstColumnFamily sstColumnFamily) {
+    /**
+     * meta 首字节为类型头，之后是固定偏移的过期时间和版本号，偏移取自各集合的 meta 编码类
+     */
+    private static CollectionTtlCompactionFilter createCollectionTtlFilter(boolean members) {
+        byte[] metaHeads = {
+                // RList：[头][size][left][right][timestamp][version]
+                RList.HEAD_B[0],
+                // RMap、RSet、ZSet：[头][size][timestamp][version]
+                RMap.HEAD_B[0], RSet.HEAD_B[0], ZSet.HEAD_B[0]};
+        int[] metaSizes = {RList.MetaVD.LENGTH,
+                RMap.MetaD.LENGTH, RSet.MetaD.LENGTH, ZSet.MetaD.LENGTH};
+        int[] timestampOffsets = {RList.MetaVD.TIMESTAMP_OFFSET,
+                RMap.MetaD.TIMESTAMP_OFFSET, RSet.MetaD.TIMESTAMP_OFFSET, ZSet.MetaD.TIMESTAMP_OFFSET};
+        int[] versionOffsets = {RList.MetaVD.VERSION_OFFSET,
+                RMap.MetaD.VERSION_OFFSET, RSet.MetaD.VERSION_OFFSET, ZSet.MetaD.VERSION_OFFSET};
+        return new CollectionTtlCompactionFilter(members, metaHeads, metaSizes,
+                timestampOffsets, versionOffsets, memberHeads());
+    }
+
+    /**
+     * 集合成员 key 的类型头，成员 key 为 [头][int 长度][key_b][int version]...
+     */
+    private static byte[] memberHeads() {
+        return new byte[]{RList.HEAD_VALUE_B[0], RMap.HEAD_KEY_B[0], RSet.HEAD_V_B[0],
+                ZSet.HEAD_SCORE_B[0], ZSet.HEAD_V_B[0], ZSet.HEAD_RANK_B[0]};
+    }
+
+    /**
+     * 以单个集合的成员 key 头（含 version）为前缀建 bloom，
+     * 集合内的 seek 和点查可以跳过不含该集合的 SST 和 memtable
+     */
+    private void setPrefixBloom(ColumnFamilyOptions cfOptions) {
+        prefixExtractor = new KeyPrefixExtractor(memberHeads(), 4);
+        cfOptions.setPrefixExtractor(prefixExtractor);
+        cfOptions.setMemtablePrefixBloomSizeRatio(0.1);
+
+        TableFormatConfig formatConfig = cfOptions.tableFormatConfig();
+        BlockBasedTableConfig tableConfig = formatConfig instanceof BlockBasedTableConfig
+                ? (BlockBasedTableConfig) formatConfig : new BlockBasedTableConfig();
+        if (tableConfig.filterPolicy() == null) {
+            bloomFilter = new BloomFilter(10, false);
+            tableConfig.setFilterPolicy(bloomFilter);
+        }
+        tableConfig.setWholeKeyFiltering(true);
+        cfOptions.setTableFormatConfig(tableConfig);
+    }
+
+    /**
+     * 释放 getColumnFamilyDescriptor 创建的 native 对象，需在 rocksDB 关闭后调用。
+     * stop 后重新 open 会再次创建，不释放每次重开都会泄漏
+     */
+    protected void closeColumnFamilyOptions() {
+        for (final ColumnFamilyOptions cfOptions : cfOptionsList) {
+            cfOptions.close();
+        }
+        cfOptionsList.clear();
+        closeCompactionFilters();
+    }
+
+    private void closeCompactionFilters() {
+        for (AbstractCompactionFilter<?> filter : new AbstractCompactionFilter<?>[]{
+                defFilter, kvTtlFilter, memberTtlFilter, metaTtlFilter}) {
+            if (filter != null) {
+                filter.close();
+            }
+        }
+        if (kvIncrOperator != null) {
+            kvIncrOperator.close();
+        }
+        if (prefixExtractor != null) {
+            prefixExtractor.close();
+        }
+        if (bloomFilter != null) {
+            bloomFilter.close();
+        }
+        defFilter = null;
+        kvTtlFilter = null;
+        memberTtlFilter = null;
+        metaTtlFilter = null;
+        kvIncrOperator = null;
+        prefixExtractor = null;
+        bloomFilter = null;
+    }
+
+    protected ColumnFamilyHandle findColumnFamilyHandle(final SstColumnFamily sstColumnFamily) {
         switch (sstColumnFamily) {
             case DEFAULT:
                 return this.defHandle;
@@ -342,18 +727,72 @@ public abstract class DBAbs {
     }
 
 
+    /**
+     * 读取时使用的 ReadOptions，view 为快照视图的读选项，为 null 时读最新数据
+     */
+    private ReadOptions readOptions(ReadOptions view) {
+        return view == null ? readOptions : view;
+    }
+
+    /**
+     * 快照视图直接读 RocksDB，不经过当前线程的事务
+     */
+    private boolean readInTx(ReadOptions view) {
+        return view == null && this.IS_STATR_TX.get();
+    }
+
     protected byte[] getDB(byte[] key, SstColumnFamily columnFamily) throws KitDBException {
+        return getDB(key, columnFamily, null);
+    }
+
+    protected byte[] getDB(byte[] key, SstColumnFamily columnFamily, ReadOptions view) throws KitDBException {
         try {
-            if (this.IS_STATR_TX.get()) {
+            if (readInTx(view)) {
                 Transaction transaction = TRANSACTION_ENTITY.get().getTransaction();
                 return transaction.get(findColumnFamilyHandle(columnFamily), readOptions, key);
             }
-            return this.rocksDB().get(findColumnFamilyHandle(columnFamily), key);
+            return this.rocksDB().get(findColumnFamilyHandle(columnFamily), readOptions(view), key);
         } catch (RocksDBException e) {
             throw new KitDBException(ErrorType.STROE_ERROR, e);
         }
     }
 
+    /**
+     * 读取到 direct 缓冲区，语义同 RocksDB.get(ReadOptions, ByteBuffer, ByteBuffer)
+     *
+     * @return value 的实际长度，不存在返回 RocksDB.NOT_FOUND
+     */
+    protected int getDB(ByteBuffer key, ByteBuffer value, SstColumnFamily columnFamily) throws KitDBException {
+        return getDB(key, value, columnFamily, null);
+    }
+
+    protected int getDB(ByteBuffer key, ByteBuffer value, SstColumnFamily columnFamily,
+                        ReadOptions view) throws KitDBException {
+        try {
+            if (readInTx(view)) {
+                Transaction transaction = TRANSACTION_ENTITY.get().getTransaction();
+                byte[] v = transaction.get(findColumnFamilyHandle(columnFamily), readOptions, DirectKey.toBytes(key));
+                key.position(key.limit());
+                return copyTo(v, value);
+            }
+            return this.rocksDB().get(findColumnFamilyHandle(columnFamily), readOptions(view), key, value);
+        } catch (RocksDBException e) {
+            throw new KitDBException(ErrorType.STROE_ERROR, e);
+        }
+    }
+
+    private static int copyTo(byte[] v, ByteBuffer value) {
+        if (v == null) {
+            return RocksDB.NOT_FOUND;
+        }
+        int position = value.position();
+        int n = Math.min(v.length, value.remaining());
+        value.put(v, 0, n);
+        value.limit(position + n);
+        value.position(position);
+        return v.length;
+    }
+
     public byte[] simpleGet(byte[] key, SstColumnFamily columnFamily) throws KitDBException {
         try {
             return this.rocksDB().get(findColumnFamilyHandle(columnFamily), key);
@@ -364,13 +803,45 @@ public abstract class DBAbs {
 
 
     protected RocksIterator newIterator(SstColumnFamily columnFamily) {
+        return newIterator(columnFamily, (ReadOptions) null);
+    }
 
-        if (this.IS_STATR_TX.get()) {
+    protected RocksIterator newIterator(SstColumnFamily columnFamily, ReadOptions view) {
+
+        if (readInTx(view)) {
             Transaction transaction = TRANSACTION_ENTITY.get().getTransaction();
             return transaction.getIterator(readOptions, findColumnFamilyHandle(columnFamily));
         }
 
-        return this.rocksDB().newIterator(findColumnFamilyHandle(columnFamily));
+        return this.rocksDB().newIterator(findColumnFamilyHandle(columnFamily), readOptions(view));
+    }
+
+    /**
+     * 只遍历以 head 开头的 key，上界由 head 加一得到
+     */
+    protected BoundedIterator newIterator(SstColumnFamily columnFamily, byte[] head) {
+        return newIterator(columnFamily, head, null);
+    }
+
+    protected BoundedIterator newIterator(SstColumnFamily columnFamily, byte[] head, ReadOptions view) {
+        byte[] end = prefixEnd(head);
+        Slice lower = new Slice(head);
+        Slice upper = end == null ? null : new Slice(end);
+        ReadOptions options = new ReadOptions().setIterateLowerBound(lower);
+        if (upper != null) {
+            options.setIterateUpperBound(upper);
+        }
+        if (view != null) {
+            options.setSnapshot(view.snapshot());
+        }
+        RocksIterator iterator;
+        if (readInTx(view)) {
+            Transaction transaction = TRANSACTION_ENTITY.get().getTransaction();
+            iterator = transaction.getIterator(options, findColumnFamilyHandle(columnFamily));
+        } else {
+            iterator = this.rocksDB().newIterator(findColumnFamilyHandle(columnFamily), options);
+        }
+        return new BoundedIterator(iterator, head, options, lower, upper);
     }
 
     private static int computeCapacityHint(final int estimatedNumberOfItems) {
@@ -380,45 +851,159 @@ public abstract class DBAbs {
     }
 
     protected Map<byte[], byte[]> multiGet(List<byte[]> keys, SstColumnFamily columnFamily) throws KitDBException {
+        return multiGet(keys, columnFamily, (ReadOptions) null);
+    }
+
+    protected Map<byte[], byte[]> multiGet(List<byte[]> keys, SstColumnFamily columnFamily,
+                                           ReadOptions view) throws KitDBException {
 
         try {
             List<ColumnFamilyHandle> columnFamilyHandles = new ArrayList<>(keys.size());
             for (byte[] ignored : keys) {
                 columnFamilyHandles.add(findColumnFamilyHandle(columnFamily));
             }
-            if (this.IS_STATR_TX.get()) {
+            List<byte[]> values;
+            if (readInTx(view)) {
                 Transaction transaction = TRANSACTION_ENTITY.get().getTransaction();
                 byte[][] keys_bytes = keys.toArray(new byte[keys.size()][]);
-                byte[][] values = transaction.multiGet(readOptions, columnFamilyHandles, keys_bytes);
-
-                final Map<byte[], byte[]> keyValueMap
-                        = new HashMap<>(computeCapacityHint(values.length));
-                for (int i = 0; i < values.length; i++) {
-                    if (values[i] == null) {
-                        continue;
-                    }
-                    keyValueMap.put(keys.get(i), values[i]);
+                values = Arrays.asList(transaction.multiGet(readOptions, columnFamilyHandles, keys_bytes));
+            } else {
+                values = this.rocksDB().multiGetAsList(readOptions(view), columnFamilyHandles, keys);
+            }
+            final Map<byte[], byte[]> keyValueMap
+                    = new HashMap<>(computeCapacityHint(values.size()));
+            for (int i = 0; i < values.size(); i++) {
+                if (values.get(i) == null) {
+                    continue;
                 }
-                return keyValueMap;
+                keyValueMap.put(keys.get(i), values.get(i));
             }
-            return this.rocksDB().multiGet(columnFamilyHandles, keys);
+            return keyValueMap;
         } catch (RocksDBException e) {
             throw new KitDBException(ErrorType.STROE_ERROR, e);
         }
     }
 
 
-    protected void deleteHead(byte[] head, SstColumnFamily columnFamily) {
-        final RocksIterator iterator;
-        ReadOptions readOptions = new ReadOptions();
-        readOptions.setPrefixSameAsStart(true);
-        iterator = this.rocksDB().newIterator(findColumnFamilyHandle(columnFamily), readOptions);
+    /**
+     * 批量读取，返回的 value 与 keys 顺序一一对应，不存在为 null
+     * <p>
+     * key 排序后一次 JNI 调用读完，事务中走 Transaction.multiGetAsList
+     */
+    protected List<byte[]> multiGetAsList(List<byte[]> keys, SstColumnFamily columnFamily) throws KitDBException {
+        return multiGetAsList(keys, columnFamily, null);
+    }
 
+    protected List<byte[]> multiGetAsList(List<byte[]> keys, SstColumnFamily columnFamily,
+                                          ReadOptions view) throws KitDBException {
+        int size = keys.size();
+        if (size == 0) {
+            return new ArrayList<>();
+        }
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> BytesUtil.compare(keys.get(a), keys.get(b)));
+        List<byte[]> sorted = new ArrayList<>(size);
+        for (Integer i : order) {
+            sorted.add(keys.get(i));
+        }
+        List<ColumnFamilyHandle> columnFamilyHandles = Collections.nCopies(size, findColumnFamilyHandle(columnFamily));
         try {
+            List<byte[]> values;
+            if (readInTx(view)) {
+                Transaction transaction = TRANSACTION_ENTITY.get().getTransaction();
+                values = transaction.multiGetAsList(readOptions, columnFamilyHandles, sorted);
+            } else {
+                values = this.rocksDB().multiGetAsList(readOptions(view), columnFamilyHandles, sorted);
+            }
+            byte[][] result = new byte[size][];
+            for (int i = 0; i < size; i++) {
+                result[order[i]] = values.get(i);
+            }
+            return Arrays.asList(result);
+        } catch (RocksDBException e) {
+            throw new KitDBException(ErrorType.STROE_ERROR, e);
+        }
+    }
+
+
+    /**
+     * 批量读取到 direct 缓冲区，values 按 keys 顺序一一对应
+     *
+     * @return 每个 key 的 value 实际长度，不存在为 RocksDB.NOT_FOUND
+     */
+    protected int[] multiGet(List<ByteBuffer> keys, List<ByteBuffer> values,
+                             SstColumnFamily columnFamily) throws KitDBException {
+        return multiGet(keys, values, columnFamily, null);
+    }
+
+    protected int[] multiGet(List<ByteBuffer> keys, List<ByteBuffer> values,
+                             SstColumnFamily columnFamily, ReadOptions view) throws KitDBException {
+        try {
+            int[] sizes = new int[keys.size()];
+            if (readInTx(view)) {
+                List<byte[]> keys_bytes = new ArrayList<>(sizes.length);
+                for (ByteBuffer key : keys) {
+                    keys_bytes.add(DirectKey.toBytes(key));
+                }
+                List<byte[]> vs = multiGetAsList(keys_bytes, columnFamily, view);
+                for (int i = 0; i < sizes.length; i++) {
+                    sizes[i] = copyTo(vs.get(i), values.get(i));
+                }
+                return sizes;
+            }
+            List<ColumnFamilyHandle> columnFamilyHandles = new ArrayList<>(1);
+            columnFamilyHandles.add(findColumnFamilyHandle(columnFamily));
+            List<ByteBufferGetStatus> results = this.rocksDB().multiGetByteBuffers(readOptions(view), columnFamilyHandles, keys, values);
+            for (int i = 0; i < sizes.length; i++) {
+                ByteBufferGetStatus result = results.get(i);
+                sizes[i] = result.status.getCode() == Status.Code.Ok ? result.requiredSize : RocksDB.NOT_FOUND;
+            }
+            return sizes;
+        } catch (RocksDBException e) {
+            throw new KitDBException(ErrorType.STROE_ERROR, e);
+        }
+    }
+
+
+    /**
+     * 删除以 head 为前缀的所有 key
+     * <p>
+     * 前缀加一得到开区间上界，只写一个范围墓碑，不需要遍历集合找最后一个 key
+     */
+    protected void deleteHead(byte[] head, SstColumnFamily columnFamily) {
+        byte[] end = prefixEnd(head);
+        if (end == null) {
+            deleteHeadScan(head, columnFamily);
+            return;
+        }
+        try (final Slice upper = new Slice(end);
+             final ReadOptions readOptions = new ReadOptions().setIterateUpperBound(upper);
+             final RocksIterator iterator = this.rocksDB().newIterator(findColumnFamilyHandle(columnFamily), readOptions)) {
+            // 空前缀不写墓碑
+            iterator.seek(head);
+            if (!iterator.isValid()) {
+                return;
+            }
+        }
+        deleteRangeDB(head, end, columnFamily);
+        if (compactionScheduler != null) {
+            compactionScheduler.mark(head, end, columnFamily);
+        }
+    }
+
+    /**
+     * head 全为 0xFF 时没有上界，只能遍历到最后一个 key
+     */
+    private void deleteHeadScan(byte[] head, SstColumnFamily columnFamily) {
+        try (final ReadOptions readOptions = new ReadOptions().setPrefixSameAsStart(true);
+             final RocksIterator iterator = this.rocksDB().newIterator(findColumnFamilyHandle(columnFamily), readOptions)) {
             iterator.seek(head);
-            byte[] start;
+            if (!iterator.isValid()) return;
+            byte[] start = iterator.key();
             byte[] end = null;
-            start = iterator.key();
             if (!BytesUtil.checkHead(head, start)) return;
             while (iterator.isValid()) {
                 byte[] key = iterator.key();
@@ -429,18 +1014,47 @@ public abstract class DBAbs {
             if (end != null) {
                 deleteRangeDB(start, end, columnFamily);
                 deleteDB(end, columnFamily);
+                if (compactionScheduler != null) {
+                    compactionScheduler.mark(start, end, columnFamily);
+                }
             }
-        } finally {
-            iterator.close();
         }
     }
 
+    /**
+     * 大于所有以 prefix 开头的 key 的最小值，prefix 全为 0xFF 时返回 null
+     */
+    static byte[] prefixEnd(byte[] prefix) {
+        for (int i = prefix.length - 1; i >= 0; i--) {
+            if (prefix[i] != (byte) 0xFF) {
+                byte[] end = Arrays.copyOf(prefix, i + 1);
+                end[i]++;
+                return end;
+            }
+        }
+        return null;
+    }
+
 
     public interface FunctionCommit {
         void call(DBCommandChunk dbCommandChunk) throws KitDBException, RocksDBException;
+
+        /**
+         * 不等待写入完成的提交，默认同步执行后返回已结束的 future
+         */
+        default CompletableFuture<Void> callAsync(DBCommandChunk dbCommandChunk) {
+            CompletableFuture<Void> future = new CompletableFuture<>();
+            try {
+                call(dbCommandChunk);
+                future.complete(null);
+            } catch (Exception e) {
+                future.completeExceptionally(e);
+            }
+            return future;
+        }
     }
 
-    volatile public FunctionCommit functionCommit = (dbCommandChunk) -> {
+    private final FunctionCommit localCommit = (dbCommandChunk) -> {
         DBCommandChunkType dbCommandChunkType = dbCommandChunk.getType();
         switch (dbCommandChunkType) {
             case NOM_COMMIT:
@@ -462,4 +1076,40 @@ public abstract class DBAbs {
                 throw new KitDBException(ErrorType.NULL, "DBCommandChunkType non-existent!");
         }
     };
+
+    volatile public FunctionCommit functionCommit = localCommit;
+
+
+    protected static class TxLocks {
+        private StripedKeyLock[] locks = new StripedKeyLock[8];
+        private int[] stripes = new int[8];
+        private int size = 0;
+
+        boolean contains(StripedKeyLock lock, int stripe) {
+            for (int i = 0; i < size; i++) {
+                if (locks[i] == lock && stripes[i] == stripe) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void add(StripedKeyLock lock, int stripe) {
+            if (size == locks.length) {
+                locks = Arrays.copyOf(locks, size * 2);
+                stripes = Arrays.copyOf(stripes, size * 2);
+            }
+            locks[size] = lock;
+            stripes[size] = stripe;
+            size++;
+        }
+
+        void release() {
+            for (int i = size - 1; i >= 0; i--) {
+                locks[i].unlock(stripes[i]);
+                locks[i] = null;
+            }
+            size = 0;
+        }
+    }
 }
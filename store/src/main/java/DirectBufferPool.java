@@ -0,0 +1,70 @@
+package top.thinkin.lightd.db;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * direct ByteBuffer 池，按 2 的幂分级
+ */
+public class DirectBufferPool {
+    private static final int MIN_SHIFT = 6;
+    private static final int MAX_SHIFT = 20;
+
+    private final ConcurrentLinkedQueue<ByteBuffer>[] classes;
+    private final AtomicInteger[] counts;
+    private final int maxPerClass;
+
+    @SuppressWarnings("unchecked")
+    public DirectBufferPool(int maxPerClass) {
+        this.maxPerClass = maxPerClass;
+        int size = MAX_SHIFT - MIN_SHIFT + 1;
+        this.classes = new ConcurrentLinkedQueue[size];
+        this.counts = new AtomicInteger[size];
+        for (int i = 0; i < size; i++) {
+            classes[i] = new ConcurrentLinkedQueue<>();
+            counts[i] = new AtomicInteger(0);
+        }
+    }
+
+    /**
+     * 取一个容量不小于 size 的缓冲区，超过最大分级时直接分配
+     */
+    public ByteBuffer acquire(int size) {
+        int index = indexOf(size);
+        if (index < 0) {
+            return ByteBuffer.allocateDirect(size);
+        }
+        ByteBuffer buffer = classes[index].poll();
+        if (buffer == null) {
+            return ByteBuffer.allocateDirect(1 << (index + MIN_SHIFT));
+        }
+        counts[index].decrementAndGet();
+        buffer.clear();
+        return buffer;
+    }
+
+    public void release(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect()) {
+            return;
+        }
+        int capacity = buffer.capacity();
+        if (Integer.bitCount(capacity) != 1) {
+            return;
+        }
+        int index = Integer.numberOfTrailingZeros(capacity) - MIN_SHIFT;
+        if (index < 0 || index >= classes.length) {
+            return;
+        }
+        if (counts[index].incrementAndGet() > maxPerClass) {
+            counts[index].decrementAndGet();
+            return;
+        }
+        classes[index].offer(buffer);
+    }
+
+    private int indexOf(int size) {
+        int shift = size <= 1 << MIN_SHIFT ? MIN_SHIFT : 32 - Integer.numberOfLeadingZeros(size - 1);
+        return shift > MAX_SHIFT ? -1 : shift - MIN_SHIFT;
+    }
+}
@@ -0,0 +1,115 @@
+package top.thinkin.lightd.db;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 线程内复用的 direct key 缓冲，key 直接编码进去，不在堆上分配
+ */
+final class DirectKey {
+    static final int SLOT_KEY = 0;
+    static final int SLOT_TTL = 1;
+    static final int SLOT_VALUE = 2;
+    static final int SLOT_BATCH = 3;
+
+    private static final int SLOTS = 4;
+    private static final int MIN_CAPACITY = 256;
+    /**
+     * 每个槽位留在线程内的最大容量，更大的请求只分配临时缓冲区
+     */
+    static final int MAX_CAPACITY = 1024 * 1024;
+
+    private static final ThreadLocal<ByteBuffer[]> BUFFERS = ThreadLocal.withInitial(() -> new ByteBuffer[SLOTS]);
+
+    private DirectKey() {
+    }
+
+    /**
+     * 取出指定槽位的缓冲区，容量不足时扩容，返回前已 clear
+     * <p>
+     * 超过 MAX_CAPACITY 时返回一次性的缓冲区，槽位保持原样，线程内缓存不会被个别大值撑大
+     */
+    static ByteBuffer begin(int slot, int capacity) {
+        ByteBuffer[] buffers = BUFFERS.get();
+        ByteBuffer buffer = buffers[slot];
+        if (buffer == null || buffer.capacity() < capacity) {
+            int size = Math.max(MIN_CAPACITY, Integer.highestOneBit(capacity - 1) << 1);
+            if (size > MAX_CAPACITY) {
+                return ByteBuffer.allocateDirect(capacity);
+            }
+            buffer = ByteBuffer.allocateDirect(size);
+            buffers[slot] = buffer;
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * head + UTF-8(key)
+     */
+    static ByteBuffer encode(int slot, byte[] head, String key) {
+        ByteBuffer buffer = begin(slot, head.length + utf8Length(key));
+        buffer.put(head);
+        putUtf8(buffer, key);
+        buffer.flip();
+        return buffer;
+    }
+
+    static int utf8Length(String s) {
+        int length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    length += 4;
+                    i++;
+                } else {
+                    length += 1;
+                }
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * 与 String.getBytes(UTF-8) 结果一致，不成对的代理字符写为 '?'
+     */
+    static void putUtf8(ByteBuffer buffer, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xC0 | (c >> 6)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, s.charAt(++i));
+                    buffer.put((byte) (0xF0 | (cp >> 18)));
+                    buffer.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+                    buffer.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+                    buffer.put((byte) (0x80 | (cp & 0x3F)));
+                } else {
+                    buffer.put((byte) '?');
+                }
+            } else {
+                buffer.put((byte) (0xE0 | (c >> 12)));
+                buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    static byte[] toBytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        int position = buffer.position();
+        buffer.get(bytes);
+        buffer.position(position);
+        return bytes;
+    }
+}
@@ -0,0 +1,251 @@
+package top.thinkin.lightd.db;
+
+import lombok.extern.slf4j.Slf4j;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.WriteBatch;
+import org.rocksdb.WriteOptions;
+import top.thinkin.lightd.base.DBCommand;
+import top.thinkin.lightd.exception.ErrorType;
+import top.thinkin.lightd.exception.KitDBException;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 非事务写入的组提交
+ * <p>
+ * 并发线程的 DBCommand 排队，由第一个拿到领导权的线程合并成一个 WriteBatch 写入，
+ * 写完后唤醒同批次的线程。调用方在自己的数据写入 WAL 后才返回。
+ */
+@Slf4j
+public class GroupCommitter {
+
+    private final DB db;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition done = lock.newCondition();
+    private final Condition full = lock.newCondition();
+    private final ArrayDeque<Writer> queue = new ArrayDeque<>();
+    private boolean leading = false;
+
+    private final WriteOptions writeOptions;
+    private final int maxBatchSize;
+    private final long maxWaitNanos;
+
+    /**
+     * 引用计数，DB 自己持有 1，每个正在提交的线程持有 1，归零时释放 writeOptions
+     */
+    private final AtomicInteger refs = new AtomicInteger(1);
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+
+    private final AtomicLong batches = new AtomicLong(0);
+    private final AtomicLong writes = new AtomicLong(0);
+    private final AtomicLong maxBatch = new AtomicLong(0);
+    private final AtomicLong queueNanos = new AtomicLong(0);
+    private final AtomicLong maxQueueNanos = new AtomicLong(0);
+
+    /**
+     * @param maxBatchSize  一个批次最多合并的写入数
+     * @param maxWaitMicros 领导者凑批最多等待的微秒数，0 表示不等待
+     * @param sync          是否每个批次 fsync WAL
+     */
+    protected GroupCommitter(DB db, int maxBatchSize, long maxWaitMicros, boolean sync) {
+        this.db = db;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.maxWaitNanos = TimeUnit.MICROSECONDS.toNanos(Math.max(0, maxWaitMicros));
+        this.writeOptions = new WriteOptions();
+        this.writeOptions.setSync(sync);
+    }
+
+    protected void commit(List<DBCommand> logs) throws KitDBException {
+        Writer writer = new Writer(logs);
+        lock.lock();
+        try {
+            queue.add(writer);
+            if (queue.size() >= maxBatchSize) {
+                full.signal();
+            }
+            while (!writer.done && leading) {
+                done.awaitUninterruptibly();
+            }
+            if (writer.done) {
+                writer.check();
+                return;
+            }
+            leading = true;
+        } finally {
+            lock.unlock();
+        }
+
+        try {
+            while (!writer.done) {
+                List<Writer> group = take();
+                write(group);
+            }
+        } finally {
+            lock.lock();
+            try {
+                leading = false;
+                done.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+        writer.check();
+    }
+
+    private List<Writer> take() {
+        lock.lock();
+        try {
+            if (maxWaitNanos > 0 && queue.size() < maxBatchSize) {
+                long wait = maxWaitNanos;
+                while (wait > 0 && queue.size() < maxBatchSize) {
+                    try {
+                        wait = full.awaitNanos(wait);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+            }
+            int size = Math.min(queue.size(), maxBatchSize);
+            List<Writer> group = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                group.add(queue.poll());
+            }
+            return group;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void write(List<Writer> group) {
+        long now = System.nanoTime();
+        Exception error = null;
+        try (final WriteBatch batch = new WriteBatch()) {
+            for (Writer writer : group) {
+                db.setLogs(writer.logs, batch);
+            }
+            db.rocksDB().write(writeOptions, batch);
+        } catch (Exception e) {
+            log.error("group commit error", e);
+            error = e;
+        }
+
+        batches.incrementAndGet();
+        writes.addAndGet(group.size());
+        maxBatch.accumulateAndGet(group.size(), Math::max);
+        for (Writer writer : group) {
+            long queued = now - writer.enqueueTime;
+            queueNanos.addAndGet(queued);
+            maxQueueNanos.accumulateAndGet(queued, Math::max);
+        }
+
+        lock.lock();
+        try {
+            for (Writer writer : group) {
+                writer.error = error;
+                writer.done = true;
+            }
+            done.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 提交前占用，已关闭时返回 false，调用方需重新读取当前的 committer
+     */
+    protected boolean acquire() {
+        while (true) {
+            int n = refs.get();
+            if (n == 0 || closed.get()) {
+                return false;
+            }
+            if (refs.compareAndSet(n, n + 1)) {
+                return true;
+            }
+        }
+    }
+
+    protected void release() {
+        if (refs.decrementAndGet() == 0) {
+            writeOptions.close();
+        }
+    }
+
+    /**
+     * 不再接受新的提交，等进行中的提交都 release 后释放 writeOptions
+     */
+    protected void close() {
+        if (closed.compareAndSet(false, true)) {
+            release();
+        }
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    public long getMaxWaitMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(maxWaitNanos);
+    }
+
+    public long getBatches() {
+        return batches.get();
+    }
+
+    public long getWrites() {
+        return writes.get();
+    }
+
+    public long getMaxBatch() {
+        return maxBatch.get();
+    }
+
+    public double getAvgBatchSize() {
+        long b = batches.get();
+        return b == 0 ? 0 : (double) writes.get() / b;
+    }
+
+    /**
+     * 平均排队时间，从入队到批次开始写入
+     */
+    public long getAvgQueueMicros() {
+        long w = writes.get();
+        return w == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(queueNanos.get() / w);
+    }
+
+    public long getMaxQueueMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(maxQueueNanos.get());
+    }
+
+
+    private static class Writer {
+        private final List<DBCommand> logs;
+        private final long enqueueTime = System.nanoTime();
+        private boolean done = false;
+        private Exception error;
+
+        Writer(List<DBCommand> logs) {
+            this.logs = logs;
+        }
+
+        void check() throws KitDBException {
+            if (error == null) {
+                return;
+            }
+            if (error instanceof KitDBException) {
+                throw (KitDBException) error;
+            }
+            throw new KitDBException(ErrorType.STROE_ERROR, error);
+        }
+    }
+}
@@ -2,49 +2,69 @@ package top.thinkin.lightd.db;
 
 
 import org.rocksdb.RocksIterator;
-import top.thinkin.lightd.kit.ArrayKits;
-import top.thinkin.lightd.kit.BytesUtil;
 
 public class KeyIterator implements AutoCloseable {
     private final RocksIterator iterator;
+    private final BoundedIterator bounded;
+    private final BatchIterator batch;
     private final byte[] seekHead;
     private boolean finish = false;
-    private byte[] now;
-    private byte[] next;
+    private boolean loaded = false;
+    private byte[] cursor;
 
     public KeyIterator(RocksIterator iterator, byte[] seekHead) {
+        this(iterator, seekHead, null);
+    }
+
+    KeyIterator(RocksIterator iterator, byte[] seekHead, DirectBufferPool pool) {
         this.iterator = iterator;
+        this.bounded = null;
+        this.batch = new BatchIterator(iterator, pool, false, 16);
+        this.seekHead = seekHead;
+    }
+
+    KeyIterator(BoundedIterator bounded, byte[] seekHead, DirectBufferPool pool) {
+        this.iterator = bounded.iterator;
+        this.bounded = bounded;
+        this.batch = new BatchIterator(iterator, pool, false, 16);
         this.seekHead = seekHead;
     }
 
     public boolean hasNext() {
         if (finish) return false;
-        byte[] key = iterator.key();
-        if (key == null || !BytesUtil.checkHead(seekHead, key)) {
-            finish = true;
-            return false;
+        if (!loaded) {
+            loaded = batch.next() && batch.keyStartsWith(seekHead);
+            finish = !loaded;
         }
-        return iterator.isValid();
+        return loaded;
     }
 
 
     public String next() {
-        if (!iterator.isValid()) return null;
-        byte[] cKey = iterator.key();
-        if (cKey == null) {
-            return null;
-        }
-        iterator.next();
-        return new String(ArrayKits.sub(cKey, 1, cKey.length), RBase.charset);
+        if (!hasNext()) return null;
+        loaded = false;
+        byte[] cKey = batch.key();
+        cursor = cKey;
+        return new String(cKey, 1, cKey.length - 1, RBase.charset);
     }
 
     public byte[] getSeek() {
         return seekHead;
     }
 
+    /**
+     * 最后一个 next 返回的 key 的游标，传给 getKeyIterator(cursor) 从其后继续
+     */
+    public byte[] getCursor() {
+        return cursor;
+    }
+
     @Override
     public void close() {
-        if (iterator != null) {
+        batch.close();
+        if (bounded != null) {
+            bounded.close();
+        } else if (iterator != null) {
             iterator.close();
         }
     }
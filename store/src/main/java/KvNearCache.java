@@ -0,0 +1,337 @@
+package top.thinkin.lightd.db;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * RKv 热点 key 的堆内近端缓存，缓存去掉过期头后的值和过期时间
+ * <p>
+ * 分段 CLOCK 淘汰，加 TinyLFU 准入：段满时候选 key 的访问频率高于 CLOCK 选出的淘汰者才替换，
+ * 只访问一次的 key 冲不掉热点。频率用每段一个 4 位计数的 count-min sketch 估计，定期减半。
+ * <p>
+ * 一致性与 MetaCache 相同：写入可见后失效，未命中时按失效计数判断能否回填。
+ */
+public class KvNearCache {
+
+    private final static int SEGMENTS = 16;
+    private final static int STAMP_STRIPES = 1024;
+
+    private final Segment[] segments;
+    private final AtomicLongArray stamps = new AtomicLongArray(STAMP_STRIPES);
+    private final int capacity;
+    private final int maxValueSize;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    /**
+     * @param capacity     最多缓存的 key 数
+     * @param maxValueSize 超过该字节数的值不缓存
+     */
+    public KvNearCache(int capacity, int maxValueSize) {
+        this.capacity = Math.max(SEGMENTS, capacity);
+        this.maxValueSize = maxValueSize;
+        this.segments = new Segment[SEGMENTS];
+        int perSegment = (this.capacity + SEGMENTS - 1) / SEGMENTS;
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(perSegment);
+        }
+    }
+
+    /**
+     * @return 值的副本，未缓存或已过期返回 null
+     */
+    byte[] get(String key) {
+        Segment segment = segment(key);
+        byte[] value;
+        synchronized (segment) {
+            value = segment.get(key);
+        }
+        if (value == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return value.clone();
+    }
+
+    /**
+     * 读库之前调用，回填时传回
+     */
+    long stamp(String key) {
+        return stamps.get(stripe(key));
+    }
+
+    /**
+     * 从 stamp 到现在 key 没有被失效过才放入
+     */
+    void put(String key, byte[] value, int expire, long stamp) {
+        if (value.length > maxValueSize) {
+            return;
+        }
+        Segment segment = segment(key);
+        synchronized (segment) {
+            if (stamps.get(stripe(key)) != stamp) {
+                return;
+            }
+            segment.put(key, value.clone(), expire);
+        }
+    }
+
+    /**
+     * 写入可见后调用
+     */
+    void invalidate(String key) {
+        stamps.incrementAndGet(stripe(key));
+        Segment segment = segment(key);
+        synchronized (segment) {
+            segment.remove(key);
+        }
+        invalidations.increment();
+    }
+
+    void clear() {
+        for (int i = 0; i < STAMP_STRIPES; i++) {
+            stamps.incrementAndGet(i);
+        }
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    private Segment segment(String key) {
+        return segments[spread(key.hashCode()) & (SEGMENTS - 1)];
+    }
+
+    private static int stripe(String key) {
+        return (spread(key.hashCode()) >>> 4) & (STAMP_STRIPES - 1);
+    }
+
+    private static int spread(int h) {
+        return h ^ (h >>> 16);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getSize() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.index.size();
+            }
+        }
+        return size;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public double getHitRate() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * 准入失败、没有放入缓存的次数
+     */
+    public long getRejections() {
+        return rejections.sum();
+    }
+
+    public long getExpirations() {
+        return expirations.sum();
+    }
+
+    public long getInvalidations() {
+        return invalidations.sum();
+    }
+
+
+    private class Segment {
+        private final String[] keys;
+        private final byte[][] values;
+        private final int[] expires;
+        private final boolean[] referenced;
+        private final Map<String, Integer> index;
+        private final FrequencySketch sketch;
+        private int hand = 0;
+        private int used = 0;
+
+        Segment(int size) {
+            this.keys = new String[size];
+            this.values = new byte[size][];
+            this.expires = new int[size];
+            this.referenced = new boolean[size];
+            this.index = new HashMap<>(size * 2);
+            this.sketch = new FrequencySketch(size);
+        }
+
+        byte[] get(String key) {
+            sketch.increment(key);
+            Integer slot = index.get(key);
+            if (slot == null) {
+                return null;
+            }
+            int expire = expires[slot];
+            if (expire != RKv.NO_EXPIRE && (System.currentTimeMillis() / 1000) - expire >= 0) {
+                free(slot);
+                expirations.increment();
+                return null;
+            }
+            referenced[slot] = true;
+            return values[slot];
+        }
+
+        void put(String key, byte[] value, int expire) {
+            Integer slot = index.get(key);
+            if (slot == null) {
+                slot = allocate(key);
+                if (slot < 0) {
+                    rejections.increment();
+                    return;
+                }
+                keys[slot] = key;
+                index.put(key, slot);
+            }
+            values[slot] = value;
+            expires[slot] = expire;
+            referenced[slot] = false;
+        }
+
+        /**
+         * @return 可用的槽位，准入失败返回 -1
+         */
+        private int allocate(String key) {
+            if (used < keys.length) {
+                for (int i = 0; i < keys.length; i++) {
+                    int slot = (hand + i) % keys.length;
+                    if (keys[slot] == null) {
+                        used++;
+                        return slot;
+                    }
+                }
+            }
+            // CLOCK：跳过并清除最近访问过的槽位，找到第一个未被访问的
+            while (referenced[hand]) {
+                referenced[hand] = false;
+                hand = (hand + 1) % keys.length;
+            }
+            int victim = hand;
+            if (sketch.frequency(key) <= sketch.frequency(keys[victim])) {
+                return -1;
+            }
+            hand = (hand + 1) % keys.length;
+            index.remove(keys[victim]);
+            evictions.increment();
+            return victim;
+        }
+
+        void remove(String key) {
+            Integer slot = index.get(key);
+            if (slot != null) {
+                free(slot);
+            }
+        }
+
+        private void free(int slot) {
+            index.remove(keys[slot]);
+            keys[slot] = null;
+            values[slot] = null;
+            referenced[slot] = false;
+            used--;
+        }
+
+        void clear() {
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = null;
+                values[i] = null;
+                referenced[i] = false;
+            }
+            index.clear();
+            used = 0;
+        }
+    }
+
+
+    /**
+     * 4 行 count-min sketch，计数 4 位饱和，累计增加到 10 倍容量时全部减半
+     */
+    private static class FrequencySketch {
+        private final long[] table;
+        private final int mask;
+        private final int sampleSize;
+        private int additions = 0;
+
+        FrequencySketch(int capacity) {
+            int size = Integer.highestOneBit(Math.max(capacity, 8) - 1) << 1;
+            this.table = new long[size];
+            this.mask = size - 1;
+            this.sampleSize = 10 * Math.max(capacity, 8);
+        }
+
+        void increment(String key) {
+            int h = spread(key.hashCode());
+            boolean added = false;
+            for (int i = 0; i < 4; i++) {
+                int index = indexOf(h, i);
+                int offset = counterOffset(h, i);
+                if (((table[index] >>> offset) & 0xFL) != 0xFL) {
+                    table[index] += 1L << offset;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= sampleSize) {
+                reset();
+            }
+        }
+
+        int frequency(String key) {
+            int h = spread(key.hashCode());
+            int frequency = Integer.MAX_VALUE;
+            for (int i = 0; i < 4; i++) {
+                int count = (int) ((table[indexOf(h, i)] >>> counterOffset(h, i)) & 0xFL);
+                frequency = Math.min(frequency, count);
+            }
+            return frequency;
+        }
+
+        private int indexOf(int h, int i) {
+            int hash = (h + i) * 0x9E3779B9;
+            return (hash ^ (hash >>> 16)) & mask;
+        }
+
+        /**
+         * 每个 long 存 16 个计数，第 i 行使用其中第 i 组的 4 个
+         */
+        private static int counterOffset(int h, int i) {
+            return ((i << 2) + ((h >>> (i << 3)) & 3)) << 2;
+        }
+
+        private void reset() {
+            for (int i = 0; i < table.length; i++) {
+                table[i] = (table[i] >>> 1) & 0x7777777777777777L;
+            }
+            additions = additions >>> 1;
+        }
+    }
+}
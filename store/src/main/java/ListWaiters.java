@@ -0,0 +1,138 @@
+package top.thinkin.lightd.db;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * RList 阻塞弹出的等待队列
+ * <p>
+ * 每个 list key 一个先进先出的等待队列，写入提交后唤醒队首的等待者。
+ * 一个等待者可以同时排在多个 key 上，被其中任一个唤醒后从其他队列中移除。
+ */
+class ListWaiters {
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<String, ArrayDeque<Waiter>> queues = new HashMap<>();
+    private final AtomicInteger waiting = new AtomicInteger(0);
+
+    Waiter newWaiter(List<String> keys) {
+        return new Waiter(keys, lock.newCondition());
+    }
+
+    /**
+     * 排队，第一次排在队尾；被唤醒后没抢到数据的重新排到队首，保证先来先得
+     */
+    void enqueue(Waiter waiter) {
+        lock.lock();
+        try {
+            if (waiter.queued) {
+                return;
+            }
+            for (String key : waiter.keys) {
+                ArrayDeque<Waiter> queue = queues.computeIfAbsent(key, k -> new ArrayDeque<>());
+                if (waiter.woken) {
+                    queue.addFirst(waiter);
+                } else {
+                    queue.addLast(waiter);
+                }
+            }
+            waiter.queued = true;
+            waiter.signalled = false;
+            waiting.incrementAndGet();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 等到被唤醒或超时
+     *
+     * @return 是否被唤醒
+     */
+    boolean await(Waiter waiter, long nanos) throws InterruptedException {
+        lock.lock();
+        try {
+            while (!waiter.signalled && nanos > 0) {
+                nanos = waiter.condition.awaitNanos(nanos);
+            }
+            return waiter.signalled;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void cancel(Waiter waiter) {
+        lock.lock();
+        try {
+            remove(waiter);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 唤醒 key 上排在最前的一个等待者
+     */
+    void signal(String key) {
+        if (waiting.get() == 0) {
+            return;
+        }
+        lock.lock();
+        try {
+            ArrayDeque<Waiter> queue = queues.get(key);
+            if (queue == null) {
+                return;
+            }
+            Waiter waiter = queue.peekFirst();
+            if (waiter == null) {
+                return;
+            }
+            remove(waiter);
+            waiter.signalled = true;
+            waiter.woken = true;
+            waiter.condition.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int getWaiting() {
+        return waiting.get();
+    }
+
+    private void remove(Waiter waiter) {
+        if (!waiter.queued) {
+            return;
+        }
+        for (String key : waiter.keys) {
+            ArrayDeque<Waiter> queue = queues.get(key);
+            if (queue != null) {
+                queue.remove(waiter);
+                if (queue.isEmpty()) {
+                    queues.remove(key);
+                }
+            }
+        }
+        waiter.queued = false;
+        waiting.decrementAndGet();
+    }
+
+
+    static class Waiter {
+        private final List<String> keys;
+        private final Condition condition;
+        private boolean queued = false;
+        private boolean signalled = false;
+        private boolean woken = false;
+
+        Waiter(List<String> keys, Condition condition) {
+            this.keys = keys;
+            this.condition = condition;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package top.thinkin.lightd.db;
+
+import org.rocksdb.RocksDBException;
+import org.rocksdb.WriteBatch;
+import top.thinkin.lightd.base.DBCommand;
+import top.thinkin.lightd.base.SstColumnFamily;
+import top.thinkin.lightd.exception.ErrorType;
+import top.thinkin.lightd.exception.KitDBException;
+import top.thinkin.lightd.kit.ArrayKits;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 把多条复制日志合并成一个 WriteBatch 写入，由 DB.newLogBatch 创建，Raft 状态机使用
+ * <p>
+ * 已应用的日志位置和数据写在同一个批次里，重启后与数据一致。
+ * 写入后按批次中的 key 失效缓存，之后可以继续添加下一批。
+ * 添加失败的条目不会留在批次中，写入失败时批次内容保留，可以重试。
+ */
+public final class LogBatch implements AutoCloseable {
+    private final DB db;
+    private final WriteBatch batch = new WriteBatch();
+    private final List<List<DBCommand>> commands = new ArrayList<>();
+    private final List<byte[]> entries = new ArrayList<>();
+
+    LogBatch(DB db) {
+        this.db = db;
+    }
+
+    public void add(List<DBCommand> logs) throws KitDBException {
+        try {
+            batch.setSavePoint();
+            try {
+                db.setLogs(logs, batch);
+            } catch (KitDBException | RuntimeException e) {
+                batch.rollbackToSavePoint();
+                throw e;
+            }
+            batch.popSavePoint();
+        } catch (RocksDBException e) {
+            throw new KitDBException(ErrorType.STROE_ERROR, e);
+        }
+        commands.add(logs);
+    }
+
+    /**
+     * 添加 LogCodec 编码的日志条目
+     */
+    public void add(byte[] entry) throws KitDBException {
+        addAll(Collections.singletonList(entry));
+    }
+
+    /**
+     * 添加多个编码条目，全部成功或全部不添加
+     */
+    public void addAll(List<byte[]> entries) throws KitDBException {
+        try {
+            batch.setSavePoint();
+            try {
+                for (byte[] entry : entries) {
+                    LogCodec.writeTo(entry, batch, db);
+                }
+            } catch (RocksDBException | RuntimeException e) {
+                batch.rollbackToSavePoint();
+                throw e;
+            }
+            batch.popSavePoint();
+        } catch (RocksDBException e) {
+            throw new KitDBException(ErrorType.STROE_ERROR, e);
+        }
+        this.entries.addAll(entries);
+    }
+
+    public boolean isEmpty() {
+        return commands.isEmpty() && entries.isEmpty();
+    }
+
+    /**
+     * 一次写入批次中的全部日志和已应用的位置
+     *
+     * @param index 批次中最后一条日志的位置
+     */
+    public void commit(long index) throws KitDBException {
+        try {
+            batch.setSavePoint();
+            batch.put(db.findColumnFamilyHandle(SstColumnFamily.DEFAULT), DB.APPLIED_INDEX_KEY, ArrayKits.longToBytes(index));
+            try {
+                db.rocksDB().write(db.writeOptions(), batch);
+            } catch (RocksDBException e) {
+                batch.rollbackToSavePoint();
+                throw e;
+            }
+        } catch (RocksDBException e) {
+            throw new KitDBException(ErrorType.STROE_ERROR, e);
+        }
+        batch.clear();
+        for (List<DBCommand> logs : commands) {
+            db.invalidateCaches(logs);
+        }
+        for (byte[] entry : entries) {
+            db.invalidateCaches(entry);
+        }
+        commands.clear();
+        entries.clear();
+    }
+
+    @Override
+    public void close() {
+        batch.close();
+    }
+}
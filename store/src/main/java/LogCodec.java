@@ -0,0 +1,246 @@
+package top.thinkin.lightd.db;
+
+import org.rocksdb.RocksDBException;
+import org.rocksdb.WriteBatch;
+import top.thinkin.lightd.base.DBCommand;
+import top.thinkin.lightd.base.DBCommandChunk;
+import top.thinkin.lightd.base.DBCommandChunkType;
+import top.thinkin.lightd.base.SstColumnFamily;
+import top.thinkin.lightd.exception.ErrorType;
+import top.thinkin.lightd.exception.KitDBException;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 复制日志条目的二进制编码，替代 Hessian2 序列化 DBCommandChunk
+ * <p>
+ * 格式：MAGIC、类型、事务 uuid、命令数，之后每条命令为操作、列族和长度前缀的 key/value。
+ * 跟随者不需要还原成 DBCommand，直接按条目写入 WriteBatch。
+ * 首字节不是 MAGIC 的是旧版本的 Hessian2 条目。
+ */
+public final class LogCodec {
+
+    /**
+     * Hessian2 的对象编码不会以该字节开头
+     */
+    public final static byte MAGIC = (byte) 0xD1;
+
+    private final static byte OP_UPDATE = 0;
+    private final static byte OP_DELETE = 1;
+    private final static byte OP_DELETE_RANGE = 2;
+
+    private final static DBCommandChunkType[] TYPES = DBCommandChunkType.values();
+    private final static SstColumnFamily[] FAMILIES = SstColumnFamily.values();
+
+    private LogCodec() {
+    }
+
+    public static boolean isEncoded(byte[] entry) {
+        return entry.length > 0 && entry[0] == MAGIC;
+    }
+
+    public static byte[] encode(DBCommandChunk chunk) {
+        byte[] uuid = chunk.getEntity() == null ? null : chunk.getEntity().getUuid().getBytes(StandardCharsets.UTF_8);
+        List<DBCommand> commands = chunk.getCommands();
+        int size = 1 + 1 + 4 + (uuid == null ? 0 : uuid.length) + 4;
+        if (commands != null) {
+            for (DBCommand command : commands) {
+                size += 2;
+                switch (command.getType()) {
+                    case UPDATE:
+                        size += 8 + command.getKey().length + command.getValue().length;
+                        break;
+                    case DELETE:
+                        size += 4 + command.getKey().length;
+                        break;
+                    case DELETE_RANGE:
+                        size += 8 + command.getStart().length + command.getEnd().length;
+                        break;
+                }
+            }
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.put(MAGIC);
+        buffer.put((byte) chunk.getType().ordinal());
+        putBytes(buffer, uuid);
+        buffer.putInt(commands == null ? 0 : commands.size());
+        if (commands != null) {
+            for (DBCommand command : commands) {
+                switch (command.getType()) {
+                    case UPDATE:
+                        buffer.put(OP_UPDATE).put((byte) command.getFamily().ordinal());
+                        putBytes(buffer, command.getKey());
+                        putBytes(buffer, command.getValue());
+                        break;
+                    case DELETE:
+                        buffer.put(OP_DELETE).put((byte) command.getFamily().ordinal());
+                        putBytes(buffer, command.getKey());
+                        break;
+                    case DELETE_RANGE:
+                        buffer.put(OP_DELETE_RANGE).put((byte) command.getFamily().ordinal());
+                        putBytes(buffer, command.getStart());
+                        putBytes(buffer, command.getEnd());
+                        break;
+                }
+            }
+        }
+        return buffer.array();
+    }
+
+    public static DBCommandChunkType type(byte[] entry) {
+        return TYPES[entry[1]];
+    }
+
+    /**
+     * @return 事务 uuid，非事务条目返回 null
+     */
+    public static String uuid(byte[] entry) {
+        ByteBuffer buffer = ByteBuffer.wrap(entry, 2, entry.length - 2);
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        return new String(entry, buffer.position(), length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 还原条目中的命令
+     */
+    public static List<DBCommand> commands(byte[] entry) throws KitDBException {
+        ByteBuffer buffer = commandsOf(entry);
+        List<DBCommand> commands = new ArrayList<>(buffer.getInt());
+        try {
+            visit(buffer, new Visitor() {
+                @Override
+                public void update(SstColumnFamily family, byte[] key, byte[] value) {
+                    commands.add(DBCommand.update(key, value, family));
+                }
+
+                @Override
+                public void delete(SstColumnFamily family, byte[] key) {
+                    commands.add(DBCommand.delete(key, family));
+                }
+
+                @Override
+                public void deleteRange(SstColumnFamily family, byte[] start, byte[] end) {
+                    commands.add(DBCommand.deleteRange(start, end, family));
+                }
+            });
+        } catch (RocksDBException e) {
+            throw new KitDBException(ErrorType.STROE_ERROR, e);
+        }
+        return commands;
+    }
+
+    /**
+     * 把条目中的命令写入 batch
+     */
+    static void writeTo(byte[] entry, WriteBatch batch, DBAbs db) throws RocksDBException {
+        ByteBuffer buffer = commandsOf(entry);
+        buffer.getInt();
+        visit(buffer, new Visitor() {
+            @Override
+            public void update(SstColumnFamily family, byte[] key, byte[] value) throws RocksDBException {
+                batch.put(db.findColumnFamilyHandle(family), key, value);
+            }
+
+            @Override
+            public void delete(SstColumnFamily family, byte[] key) throws RocksDBException {
+                batch.delete(db.findColumnFamilyHandle(family), key);
+            }
+
+            @Override
+            public void deleteRange(SstColumnFamily family, byte[] start, byte[] end) throws RocksDBException {
+                batch.deleteRange(db.findColumnFamilyHandle(family), start, end);
+            }
+        });
+    }
+
+    /**
+     * 只读出每条命令写到的 key，用于写入后失效缓存
+     */
+    static void keys(byte[] entry, KeyVisitor visitor) {
+        ByteBuffer buffer = commandsOf(entry);
+        int count = buffer.getInt();
+        for (int i = 0; i < count; i++) {
+            byte op = buffer.get();
+            SstColumnFamily family = FAMILIES[buffer.get()];
+            byte[] key = getBytes(buffer);
+            if (op != OP_DELETE) {
+                skipBytes(buffer);
+            }
+            visitor.visit(family, key, op == OP_DELETE_RANGE);
+        }
+    }
+
+    private static void visit(ByteBuffer buffer, Visitor visitor) throws RocksDBException {
+        while (buffer.hasRemaining()) {
+            byte op = buffer.get();
+            SstColumnFamily family = FAMILIES[buffer.get()];
+            switch (op) {
+                case OP_UPDATE:
+                    visitor.update(family, getBytes(buffer), getBytes(buffer));
+                    break;
+                case OP_DELETE:
+                    visitor.delete(family, getBytes(buffer));
+                    break;
+                case OP_DELETE_RANGE:
+                    visitor.deleteRange(family, getBytes(buffer), getBytes(buffer));
+                    break;
+                default:
+                    throw new IllegalArgumentException("illegal log op: " + op);
+            }
+        }
+    }
+
+    /**
+     * 定位到命令数之前
+     */
+    private static ByteBuffer commandsOf(byte[] entry) {
+        ByteBuffer buffer = ByteBuffer.wrap(entry);
+        buffer.position(2);
+        int length = buffer.getInt();
+        if (length > 0) {
+            buffer.position(buffer.position() + length);
+        }
+        return buffer;
+    }
+
+    private static void putBytes(ByteBuffer buffer, byte[] bytes) {
+        if (bytes == null) {
+            buffer.putInt(-1);
+            return;
+        }
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static byte[] getBytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private static void skipBytes(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        buffer.position(buffer.position() + length);
+    }
+
+    private interface Visitor {
+        void update(SstColumnFamily family, byte[] key, byte[] value) throws RocksDBException;
+
+        void delete(SstColumnFamily family, byte[] key) throws RocksDBException;
+
+        void deleteRange(SstColumnFamily family, byte[] start, byte[] end) throws RocksDBException;
+    }
+
+    interface KeyVisitor {
+        /**
+         * @param range 为 true 时 key 是范围删除的起点
+         */
+        void visit(SstColumnFamily family, byte[] key, boolean range);
+    }
+}
@@ -0,0 +1,184 @@
+package top.thinkin.lightd.db;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 集合 meta 的内存缓存，按集合 key 缓存解码后的 meta，不存在的 key 也会缓存
+ * <p>
+ * 分段 LRU，总条数有上限。写入在数据可见之后、释放 key 锁之前失效对应条目；
+ * 读未命中时先取分片的失效计数，读完 R_META 后计数未变才放入缓存，
+ * 避免与写入交错时把旧值放回去。
+ */
+public class MetaCache {
+
+    public final static int DEFAULT_CAPACITY = Integer.getInteger("kitdb.meta.cache", 8192);
+
+    private final static int SEGMENTS = 16;
+    private final static int STAMP_STRIPES = 1024;
+
+    /**
+     * 缓存中表示 meta 不存在
+     */
+    final static Object NONE = new Object();
+
+    private final Segment[] segments;
+    private final AtomicLongArray stamps = new AtomicLongArray(STAMP_STRIPES);
+    private final int capacity;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    /**
+     * @param capacity 最多缓存的集合数，0 表示不缓存
+     */
+    public MetaCache(int capacity) {
+        this.capacity = Math.max(0, capacity);
+        this.segments = new Segment[SEGMENTS];
+        int perSegment = (this.capacity + SEGMENTS - 1) / SEGMENTS;
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(perSegment);
+        }
+    }
+
+    boolean isEnabled() {
+        return capacity > 0;
+    }
+
+    /**
+     * @return 缓存的 meta，不存在的 key 返回 NONE，未缓存返回 null
+     */
+    Object get(byte[] key_b) {
+        ByteBuffer key = ByteBuffer.wrap(key_b);
+        Segment segment = segment(key);
+        Object meta;
+        synchronized (segment) {
+            // 访问顺序的 LinkedHashMap，get 也会修改链表
+            meta = segment.get(key);
+        }
+        if (meta == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return meta;
+    }
+
+    /**
+     * 读 R_META 之前调用，放入缓存时传回
+     */
+    long stamp(byte[] key_b) {
+        return stamps.get(stripe(ByteBuffer.wrap(key_b)));
+    }
+
+    /**
+     * 从 stamp 到现在 key 没有被失效过才放入
+     *
+     * @param meta 为 null 时缓存为不存在
+     */
+    void put(byte[] key_b, Object meta, long stamp) {
+        ByteBuffer key = ByteBuffer.wrap(key_b);
+        int stripe = stripe(key);
+        Segment segment = segment(key);
+        synchronized (segment) {
+            if (stamps.get(stripe) != stamp) {
+                return;
+            }
+            segment.put(key, meta == null ? NONE : meta);
+        }
+    }
+
+    /**
+     * 写入可见后调用
+     */
+    void invalidate(byte[] key_b) {
+        ByteBuffer key = ByteBuffer.wrap(key_b);
+        stamps.incrementAndGet(stripe(key));
+        Segment segment = segment(key);
+        synchronized (segment) {
+            segment.remove(key);
+        }
+        invalidations.increment();
+    }
+
+    void clear() {
+        for (int i = 0; i < STAMP_STRIPES; i++) {
+            stamps.incrementAndGet(i);
+        }
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    private Segment segment(ByteBuffer key) {
+        int h = key.hashCode();
+        return segments[(h ^ (h >>> 16)) & (SEGMENTS - 1)];
+    }
+
+    private static int stripe(ByteBuffer key) {
+        int h = key.hashCode();
+        return (h ^ (h >>> 12)) & (STAMP_STRIPES - 1);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getSize() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public double getHitRate() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public long getInvalidations() {
+        return invalidations.sum();
+    }
+
+
+    private class Segment extends LinkedHashMap<ByteBuffer, Object> {
+        private final int limit;
+
+        Segment(int limit) {
+            super(16, 0.75f, true);
+            this.limit = limit;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ByteBuffer, Object> eldest) {
+            if (size() > limit) {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    }
+}
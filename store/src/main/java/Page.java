@@ -0,0 +1,19 @@
+package top.thinkin.lightd.db;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 按游标分页的一页数据
+ */
+@Data
+@AllArgsConstructor
+public class Page<T> {
+    private List<T> items;
+    /**
+     * 传给下一次调用以取下一页，没有更多数据时为 null
+     */
+    private byte[] cursor;
+}
@@ -2,6 +2,7 @@ package top.thinkin.lightd.db;
 
 
 import lombok.extern.slf4j.Slf4j;
+import org.rocksdb.ReadOptions;
 import org.rocksdb.RocksIterator;
 import top.thinkin.lightd.base.*;
 import top.thinkin.lightd.data.KeyEnum;
@@ -10,9 +11,11 @@ import top.thinkin.lightd.exception.ErrorType;
 import top.thinkin.lightd.exception.KitDBException;
 import top.thinkin.lightd.kit.ArrayKits;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 @Slf4j
 
@@ -27,7 +30,12 @@ public abstract class RBase {
     protected int DEF_TX_TIME_OUT = 5000;
 
 
-    protected KeyLock lock;
+    protected StripedKeyLock lock;
+
+    /**
+     * 快照视图的读选项，为 null 时读最新数据；不为 null 时是只读视图
+     */
+    protected ReadOptions readView;
 
     public RBase(boolean isLog) {
         this.isLog = isLog;
@@ -44,7 +52,21 @@ public abstract class RBase {
 
 
     public CloseLock checkClose() throws KitDBException {
-        return db.closeCheck();
+        CloseLock closeLock = db.closeCheck();
+        try {
+            DAssert.isTrue(readView == null || readView.isOwningHandle(), ErrorType.DB_CLOSE, "snapshot is closed");
+        } catch (KitDBException e) {
+            closeLock.close();
+            throw e;
+        }
+        return closeLock;
+    }
+
+    /**
+     * 快照视图不能写入
+     */
+    protected void checkWritable() throws KitDBException {
+        DAssert.isTrue(readView == null, ErrorType.PARAM_ERROR, "snapshot view is read-only");
     }
 
     protected void setTimer(KeyEnum keyEnum, int time, byte[] value) {
@@ -82,17 +104,21 @@ public abstract class RBase {
     }
 
 
-    protected LockEntity lock(String key) {
-        LockEntity lockEntity = lock.lock(key);
-        db.addLockEntity(lockEntity);
-        return lockEntity;
+    /**
+     * @return 分片号，解锁时传回
+     */
+    protected int lock(String key) throws KitDBException {
+        if (db.IS_STATR_TX.get()) {
+            return db.lockInTx(lock, key);
+        }
+        return lock.lock(key);
     }
 
-    protected void unlock(LockEntity lockEntity) {
+    protected void unlock(int lockStripe) {
         if (db.IS_STATR_TX.get()) {
             return;
         }
-        lock.unlock(lockEntity);
+        lock.unlock(lockStripe);
     }
 
 
@@ -132,17 +158,28 @@ public abstract class RBase {
 
 
     protected void commit() throws KitDBException {
+        checkWritable();
         db.commit();
     }
 
     protected void commitLocal() throws KitDBException {
+        checkWritable();
         db.commitLocal();
     }
 
+    protected CompletableFuture<Void> commitAsync() throws KitDBException {
+        checkWritable();
+        return db.commitAsync();
+    }
+
     protected void release() {
         db.release();
     }
 
+    protected void afterCommit(Runnable runnable) {
+        db.afterCommit(runnable);
+    }
+
 
     protected void putDB(byte[] key, byte[] value, SstColumnFamily columnFamily) {
         db.putDB(key, value, columnFamily);
@@ -159,17 +196,62 @@ public abstract class RBase {
 
 
     protected byte[] getDB(byte[] key, SstColumnFamily columnFamily) throws KitDBException {
-        return db.getDB(key, columnFamily);
+        return db.getDB(key, columnFamily, readView);
+    }
+
+
+    protected int getDB(ByteBuffer key, ByteBuffer value, SstColumnFamily columnFamily) throws KitDBException {
+        return db.getDB(key, value, columnFamily, readView);
+    }
+
+
+    protected void commitDirect(ByteBuffer key, ByteBuffer value, SstColumnFamily columnFamily) throws KitDBException {
+        checkWritable();
+        db.commitDirect(key, value, columnFamily);
+    }
+
+
+    protected void commitDirect(ByteBuffer key, ByteBuffer value, ByteBuffer delKey,
+                                SstColumnFamily columnFamily) throws KitDBException {
+        checkWritable();
+        db.commitDirect(key, value, delKey, columnFamily);
+    }
+
+
+    protected boolean directWritable() {
+        return db.directWritable();
+    }
+
+
+    protected void mergeDirect(List<byte[]> keys, List<byte[]> operands,
+                               SstColumnFamily columnFamily) throws KitDBException {
+        checkWritable();
+        db.mergeDirect(keys, operands, columnFamily);
+    }
+
+
+    protected int[] multiGet(List<ByteBuffer> keys, List<ByteBuffer> values, SstColumnFamily columnFamily) throws KitDBException {
+        return db.multiGet(keys, values, columnFamily, readView);
     }
 
 
     protected RocksIterator newIterator(SstColumnFamily columnFamily) {
-        return db.newIterator(columnFamily);
+        return db.newIterator(columnFamily, readView);
+    }
+
+
+    protected BoundedIterator newIterator(SstColumnFamily columnFamily, byte[] head) {
+        return db.newIterator(columnFamily, head, readView);
     }
 
 
     protected Map<byte[], byte[]> multiGet(List<byte[]> keys, SstColumnFamily columnFamily) throws KitDBException {
-        return db.multiGet(keys, columnFamily);
+        return db.multiGet(keys, columnFamily, readView);
+    }
+
+
+    protected List<byte[]> multiGetAsList(List<byte[]> keys, SstColumnFamily columnFamily) throws KitDBException {
+        return db.multiGetAsList(keys, columnFamily, readView);
     }
 
 
@@ -1,5 +1,6 @@
 package top.thinkin.lightd.db;
 
+import org.rocksdb.ReadOptions;
 import org.rocksdb.RocksDBException;
 import org.rocksdb.RocksIterator;
 import top.thinkin.lightd.base.MetaAbs;
@@ -8,17 +9,58 @@ import top.thinkin.lightd.base.SstColumnFamily;
 import top.thinkin.lightd.exception.KitDBException;
 import top.thinkin.lightd.kit.ArrayKits;
 
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
 public abstract class RCollection extends RBase {
 
     public RCollection(DB db, boolean isLog, int lockSize) {
         super(isLog);
         this.db = db;
-        this.lock = db.getKeySegmentLockManager().createLock(2000);
+        this.lock = new StripedKeyLock(lockSize);
+    }
+
+    /**
+     * 快照视图，与 live 共用分片锁
+     */
+    protected RCollection(RCollection live, ReadOptions readView) {
+        super(live.isLog);
+        this.db = live.db;
+        this.lock = live.lock;
+        this.readView = readView;
     }
 
 
     protected abstract <T extends MetaAbs> T getMeta(byte[] key_b) throws Exception;
 
+    /**
+     * 读取并解码 meta，优先走 MetaCache
+     * <p>
+     * 事务中和快照视图直接读 R_META。缓存里的对象不会交给调用方，返回的是 copy 出的副本，调用方可以修改
+     */
+    @SuppressWarnings("unchecked")
+    protected <T extends MetaAbs> T loadMeta(byte[] key_b, Function<byte[], T> decode,
+                                             UnaryOperator<T> copy) throws KitDBException {
+        MetaCache cache = db.getMetaCache();
+        if (!cache.isEnabled() || readView != null || db.IS_STATR_TX.get()) {
+            byte[] k_v = getDB(key_b, SstColumnFamily.META);
+            return k_v == null ? null : decode.apply(k_v);
+        }
+        Object cached = cache.get(key_b);
+        if (cached != null) {
+            return cached == MetaCache.NONE ? null : copy.apply((T) cached);
+        }
+        long stamp = cache.stamp(key_b);
+        byte[] k_v = getDB(key_b, SstColumnFamily.META);
+        if (k_v == null) {
+            cache.put(key_b, null, stamp);
+            return null;
+        }
+        T meta = decode.apply(k_v);
+        cache.put(key_b, meta, stamp);
+        return copy.apply(meta);
+    }
+
     protected void deleteFast(byte[] key_b, MetaAbs metaV) throws KitDBException {
         this.start();
         try {
@@ -48,10 +90,23 @@ public abstract class RCollection extends RBase {
 
 
     protected KeyIterator getKeyIterator(byte[] head) {
-        RocksIterator iterator = newIterator(SstColumnFamily.META);
-        iterator.seek(head);
-        KeyIterator keyIterator = new KeyIterator(iterator, head);
-        return keyIterator;
+        BoundedIterator bounded = newIterator(SstColumnFamily.META, head);
+        bounded.iterator.seek(head);
+        return new KeyIterator(bounded, head, db.getBufferPool());
+    }
+
+    /**
+     * 从游标之后继续遍历 key，cursor 为 null 时从头开始
+     */
+    protected KeyIterator getKeyIterator(byte[] head, byte[] cursor) throws KitDBException {
+        BoundedIterator bounded = newIterator(SstColumnFamily.META, head);
+        try {
+            bounded.seek(head, cursor);
+        } catch (KitDBException e) {
+            bounded.close();
+            throw e;
+        }
+        return new KeyIterator(bounded, head, db.getBufferPool());
     }
 
     abstract <T extends RCollection> RIterator<T> iterator(String key) throws Exception;
@@ -84,7 +139,18 @@ public abstract class RCollection extends RBase {
     abstract int size(String key) throws Exception;
 
 
-    abstract <E extends REntry> E getEntry(RocksIterator iterator) throws KitDBException;
+    /**
+     * 由成员的 key/value 构造 Entry
+     */
+    abstract <E extends REntry> E getEntry(byte[] key, byte[] value) throws KitDBException;
+
+    public <E extends REntry> E getEntry(RocksIterator iterator) throws KitDBException {
+        byte[] key = iterator.key();
+        if (key == null) {
+            return null;
+        }
+        return getEntry(key, iterator.value());
+    }
 
 
 }
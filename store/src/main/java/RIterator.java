@@ -2,42 +2,65 @@ package top.thinkin.lightd.db;
 
 import org.rocksdb.RocksIterator;
 import top.thinkin.lightd.exception.KitDBException;
-import top.thinkin.lightd.kit.BytesUtil;
 
 public class RIterator<R extends RCollection> implements AutoCloseable {
     private final RocksIterator iterator;
+    private final BoundedIterator bounded;
+    private final BatchIterator batch;
     private final R rCollection;
     private final byte[] seekHead;
     private  boolean finish = false;
+    private boolean loaded = false;
+    private byte[] cursor;
 
     public RIterator(RocksIterator iterator, R rCollection, byte[] seekHead) {
         this.iterator = iterator;
+        this.bounded = null;
+        this.batch = new BatchIterator(iterator, rCollection.db.getBufferPool(), false, 16);
+        this.rCollection = rCollection;
+        this.seekHead = seekHead;
+    }
+
+    RIterator(BoundedIterator bounded, R rCollection, byte[] seekHead) {
+        this.iterator = bounded.iterator;
+        this.bounded = bounded;
+        this.batch = new BatchIterator(iterator, rCollection.db.getBufferPool(), false, 16);
         this.rCollection = rCollection;
         this.seekHead = seekHead;
     }
 
     public boolean hasNext(){
         if(finish) return false;
-        byte[] key = iterator.key();
-        if(key==null||!BytesUtil.checkHead(seekHead,key)){
-            finish = true;
-            return false;
+        if (!loaded) {
+            loaded = batch.next() && batch.keyStartsWith(seekHead);
+            finish = !loaded;
         }
-        return iterator.isValid();
+        return loaded;
     }
 
 
     public <E extends REntry> E next() throws KitDBException {
-        if (!iterator.isValid()) return null;
-        E entry = rCollection.getEntry(iterator);
-        iterator.next();
-        return entry;
+        if (!hasNext()) return null;
+        loaded = false;
+        byte[] key = batch.key();
+        cursor = key;
+        return rCollection.getEntry(key, batch.value());
+    }
+
+    /**
+     * 最后一个 next 返回的成员的游标，传给 iterator(key, cursor) 从其后继续
+     */
+    public byte[] getCursor() {
+        return cursor;
     }
 
 
     @Override
     public void close() {
-        if (iterator != null) {
+        batch.close();
+        if (bounded != null) {
+            bounded.close();
+        } else if (iterator != null) {
             iterator.close();
         }
     }
@@ -5,6 +5,7 @@ package top.thinkin.lightd.db;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
+import org.rocksdb.RocksDB;
 import org.rocksdb.RocksIterator;
 import top.thinkin.lightd.base.*;
 import top.thinkin.lightd.data.KeyEnum;
@@ -14,10 +15,11 @@ import top.thinkin.lightd.exception.KitDBException;
 import top.thinkin.lightd.kit.ArrayKits;
 import top.thinkin.lightd.kit.BytesUtil;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 @Slf4j
 
@@ -27,24 +29,105 @@ public class RKv extends RBase {
 
     public final static byte[] HEAD_B = HEAD.getBytes();
 
+    /**
+     * 值头部 4 字节为过期时间戳(秒)，0 表示不过期
+     */
+    final static int HEADER_SIZE = 4;
+    final static int NO_EXPIRE = 0;
+
+    /**
+     * 值超过该长度时不再放入线程缓冲，直接走 byte[] 读取
+     */
+    private final static int MAX_BUFFERED_VALUE = DirectKey.MAX_CAPACITY;
+
+    /**
+     * 库里还有旧布局（TTL 单独存放在 KV_TTL 下）的数据
+     */
+    private volatile boolean legacy = false;
+    /**
+     * 已迁移到的最后一个 key，小于等于它的 key 都是新布局
+     */
+    private volatile byte[] migrated;
+    private final ReentrantReadWriteLock migrateLock = new ReentrantReadWriteLock();
+
     protected RKv(DB db) {
         this.db = db;
-        lock = new SegmentStrLock(128);
+        lock = new StripedKeyLock();
+    }
+
+    private RKv(RKv live, RSnapshot snapshot) {
+        this.db = live.db;
+        this.lock = live.lock;
+        this.readView = snapshot.getReadOptions();
+        this.legacy = snapshot.kvLegacy;
+        this.migrated = snapshot.kvMigrated;
+    }
+
+    /**
+     * 绑定快照的只读视图，迁移进度取快照时的值
+     */
+    RKv at(RSnapshot snapshot) {
+        return new RKv(this, snapshot);
+    }
+
+    /**
+     * 在迁移读锁内创建快照，快照与记下的迁移进度一致
+     */
+    RSnapshot createSnapshot(RocksDB rocksDB) {
+        Lock migrating = migrating();
+        try {
+            return new RSnapshot(rocksDB, rocksDB.getSnapshot(), legacy, migrated);
+        } finally {
+            unlock(migrating);
+        }
     }
 
     public void set(String key, byte[] value) throws KitDBException {
         checkTxStart();
         try (CloseLock ignored = checkClose()) {
             byte[] keyb = getKey(key);
-            LockEntity lockEntity = lock.lock(key);
+            Lock migrating = migrating();
+            int lockStripe = lock.lock(key);
             try {
                 start();
-                byte[] key_b = ArrayKits.addAll(HEAD_B, keyb);
-                putDB(key_b, value, SstColumnFamily.DEFAULT);
-                deleteDB(ArrayKits.addAll(HEAD_TTL, keyb), SstColumnFamily.DEFAULT);
+                store(ArrayKits.addAll(HEAD_B, keyb), keyb, value, NO_EXPIRE);
                 commit();
             } finally {
-                lock.unlock(lockEntity);
+                lock.unlock(lockStripe);
+                unlock(migrating);
+                release();
+            }
+            checkTxCommit();
+        } catch (Exception e) {
+            checkTxRollBack();
+            throw e;
+        }
+    }
+
+    /**
+     * 写入 direct 缓冲区中的值，value 的 position 会移动到 limit
+     */
+    public void set(String key, ByteBuffer value) throws KitDBException {
+        checkTxStart();
+        try (CloseLock ignored = checkClose()) {
+            DAssert.notNull(key, ErrorType.NULL, "Key is null");
+            Lock migrating = migrating();
+            int lockStripe = lock.lock(key);
+            try {
+                start();
+                ByteBuffer key_b = DirectKey.encode(DirectKey.SLOT_KEY, HEAD_B, key);
+                if (isInline(key_b)) {
+                    ByteBuffer value_b = DirectKey.begin(DirectKey.SLOT_VALUE, HEADER_SIZE + value.remaining());
+                    value_b.putInt(NO_EXPIRE).put(value);
+                    value_b.flip();
+                    commitDirect(key_b, value_b, SstColumnFamily.DEFAULT);
+                } else {
+                    commitDirect(key_b, value,
+                            DirectKey.encode(DirectKey.SLOT_TTL, HEAD_TTL, key), SstColumnFamily.DEFAULT);
+                }
+            } finally {
+                lock.unlock(lockStripe);
+                unlock(migrating);
                 release();
             }
             checkTxCommit();
@@ -63,31 +146,29 @@ public class RKv extends RBase {
         checkTxStart();
         try (CloseLock ignored = checkClose()) {
             byte[] keyb = getKey(key);
-            LockEntity lockEntity = lock.lock(key);
+            byte[] key_b = ArrayKits.addAll(HEAD_B, keyb);
+            Lock migrating = migrating();
+            int lockStripe = lock.stripe(key);
             try {
                 start();
-                byte[] key_b = ArrayKits.addAll(HEAD_B, keyb);
-
-                byte[] value = get(key);
+                Stored stored = loadLocked(lockStripe, key_b, keyb);
                 long seq;
-                if (value == null) {
+                if (stored == null) {
                     seq = step;
                 } else {
-                    DAssert.isTrue(value.length == 8, ErrorType.DATA_LOCK, "value not a incr");
-                    seq = ArrayKits.bytesToLong(value) + step;
+                    DAssert.isTrue(stored.value.length == 8, ErrorType.DATA_LOCK, "value not a incr");
+                    seq = ArrayKits.bytesToLong(stored.value) + step;
                 }
 
-                putDB(key_b, ArrayKits.longToBytes(seq), SstColumnFamily.DEFAULT);
                 int time = (int) (System.currentTimeMillis() / 1000 + ttl);
-                putDB(ArrayKits.addAll(HEAD_TTL, keyb), ArrayKits.intToBytes(time), SstColumnFamily.DEFAULT);
-
-                setTimer(KeyEnum.KV_TIMER, time, key_b);
+                store(key_b, keyb, ArrayKits.longToBytes(seq), time);
 
                 commit();
                 checkTxCommit();
                 return seq;
             } finally {
-                lock.unlock(lockEntity);
+                lock.unlock(lockStripe);
+                unlock(migrating);
                 release();
             }
         } catch (Exception e) {
@@ -97,29 +178,32 @@ public class RKv extends RBase {
     }
 
 
-    public long incr(String key, int step) throws KitDBException {
+    public long incr(String key, long step) throws KitDBException {
         checkTxStart();
         try (CloseLock ignored = checkClose()) {
             byte[] keyb = getKey(key);
-            LockEntity lockEntity = lock.lock(key);
+            byte[] key_b = ArrayKits.addAll(HEAD_B, keyb);
+            Lock migrating = migrating();
+            int lockStripe = lock.stripe(key);
             try {
                 start();
-                byte[] key_b = ArrayKits.addAll(HEAD_B, keyb);
-
-                byte[] value = get(key);
+                Stored stored = loadLocked(lockStripe, key_b, keyb);
                 long seq;
-                if (value == null) {
+                int expire = NO_EXPIRE;
+                if (stored == null) {
                     seq = step;
                 } else {
-                    DAssert.isTrue(value.length == 8, ErrorType.DATA_LOCK, "value not a incr");
-                    seq = ArrayKits.bytesToLong(value) + step;
+                    DAssert.isTrue(stored.value.length == 8, ErrorType.DATA_LOCK, "value not a incr");
+                    seq = ArrayKits.bytesToLong(stored.value) + step;
+                    expire = stored.expire;
                 }
-                putDB(key_b, ArrayKits.longToBytes(seq), SstColumnFamily.DEFAULT);
+                store(key_b, keyb, ArrayKits.longToBytes(seq), expire);
                 commit();
                 checkTxCommit();
                 return seq;
             } finally {
-                lock.unlock(lockEntity);
+                lock.unlock(lockStripe);
+                unlock(migrating);
                 release();
             }
         } catch (Exception e) {
@@ -128,55 +212,107 @@ public class RKv extends RBase {
         }
     }
 
-    public void set(Map<String, byte[]> map) throws KitDBException {
-        checkTxStart();
+    /**
+     * 自增但不返回结果，不读旧值，直接写一个 merge
+     * <p>
+     * 旧值不是计数器时会被覆盖为 step，不像 incr 那样报错。
+     * incr、set、ttl 等读后写的操作最后写的是 Put，merge 落在它们的读和写之间会被覆盖，
+     * 所以这里也持有 key 的分片锁，和它们混用时不丢增量。
+     * 在事务中、日志走 Raft 复制、开启组提交或旧数据迁移未完成时退回到 incr。
+     */
+    public void incrMerge(String key, long step) throws KitDBException {
+        if (legacy || !directWritable()) {
+            incr(key, step);
+            return;
+        }
         try (CloseLock ignored = checkClose()) {
+            byte[] key_b = ArrayKits.addAll(HEAD_B, getKey(key));
+            int lockStripe = lock.lock(key);
             try {
-                start();
+                mergeDirect(Collections.singletonList(key_b),
+                        Collections.singletonList(ArrayKits.longToBytes(step)), SstColumnFamily.DEFAULT);
+            } finally {
+                lock.unlock(lockStripe);
+            }
+        }
+    }
 
-                for (Map.Entry<String, byte[]> entry : map.entrySet()) {
-                    LockEntity lockEntity = lock.lock(entry.getKey());
-                    try {
-                        byte[] key_b = ArrayKits.addAll(HEAD_B, getKey(entry.getKey()));
-                        putDB(key_b, entry.getValue(), SstColumnFamily.DEFAULT);
-                        deleteDB(ArrayKits.addAll(HEAD_TTL, getKey(entry.getKey())), SstColumnFamily.DEFAULT);
-                    } finally {
-                        lock.unlock(lockEntity);
+    /**
+     * 批量 incrMerge，所有 merge 写在同一个 WriteBatch 中
+     * <p>
+     * 写入时按分片号从小到大持有所有 key 的分片锁，避免批量调用之间死锁。
+     * 退回到 incr 时逐个执行，只有在事务中才是原子的
+     */
+    public void incrAll(Map<String, Long> steps) throws KitDBException {
+        DAssert.notNull(steps, ErrorType.NULL, "steps is null");
+        if (steps.isEmpty()) {
+            return;
+        }
+        if (legacy || !directWritable()) {
+            for (Map.Entry<String, Long> entry : steps.entrySet()) {
+                incr(entry.getKey(), entry.getValue());
+            }
+            return;
+        }
+        try (CloseLock ignored = checkClose()) {
+            List<byte[]> keys = new ArrayList<>(steps.size());
+            List<byte[]> operands = new ArrayList<>(steps.size());
+            int[] stripes = new int[steps.size()];
+            int i = 0;
+            for (Map.Entry<String, Long> entry : steps.entrySet()) {
+                keys.add(ArrayKits.addAll(HEAD_B, getKey(entry.getKey())));
+                operands.add(ArrayKits.longToBytes(entry.getValue()));
+                stripes[i++] = lock.stripe(entry.getKey());
+            }
+            Arrays.sort(stripes);
+            int locked = 0;
+            try {
+                for (int j = 0; j < stripes.length; j++) {
+                    // 分片锁不可重入，同一分片只锁一次
+                    if (j > 0 && stripes[j] == stripes[j - 1]) {
+                        continue;
                     }
+                    lock.lockStripe(stripes[j]);
+                    locked = j + 1;
                 }
-                commit();
+                mergeDirect(keys, operands, SstColumnFamily.DEFAULT);
             } finally {
-                release();
+                for (int j = 0; j < locked; j++) {
+                    if (j > 0 && stripes[j] == stripes[j - 1]) {
+                        continue;
+                    }
+                    lock.unlock(stripes[j]);
+                }
             }
-            checkTxCommit();
-
-        } catch (Exception e) {
-            checkTxRollBack();
-            throw e;
         }
     }
 
+    public void set(Map<String, byte[]> map) throws KitDBException {
+        setAll(map, NO_EXPIRE);
+    }
+
     public void set(Map<String, byte[]> map, int ttl) throws KitDBException {
+        setAll(map, (int) (System.currentTimeMillis() / 1000 + ttl));
+    }
+
+    private void setAll(Map<String, byte[]> map, int expire) throws KitDBException {
         checkTxStart();
         try (CloseLock ignored = checkClose()) {
-            int time = (int) (System.currentTimeMillis() / 1000 + ttl);
+            Lock migrating = migrating();
             try {
                 start();
-                int i = 0;
                 for (Map.Entry<String, byte[]> entry : map.entrySet()) {
-                    LockEntity lockEntity = lock.lock(entry.getKey());
+                    int lockStripe = lock.lock(entry.getKey());
                     try {
-                        byte[] key_b = ArrayKits.addAll(HEAD_B, getKey(entry.getKey()));
-                        putDB(key_b, entry.getValue(), SstColumnFamily.DEFAULT);
-                        putDB(ArrayKits.addAll(HEAD_TTL, getKey(entry.getKey())), ArrayKits.intToBytes(time), SstColumnFamily.DEFAULT);
-                        setTimer(KeyEnum.KV_TIMER, time, key_b);
-                        i++;
+                        byte[] keyb = getKey(entry.getKey());
+                        store(ArrayKits.addAll(HEAD_B, keyb), keyb, entry.getValue(), expire);
                     } finally {
-                        lock.unlock(lockEntity);
+                        lock.unlock(lockStripe);
                     }
                 }
                 commit();
             } finally {
+                unlock(migrating);
                 release();
             }
             checkTxCommit();
@@ -191,17 +327,16 @@ public class RKv extends RBase {
         checkTxStart();
         try (CloseLock ignored = checkClose()) {
             byte[] keyb = getKey(key);
-            LockEntity lockEntity = lock.lock(key);
+            Lock migrating = migrating();
+            int lockStripe = lock.lock(key);
             try {
                 start();
-                byte[] key_b = ArrayKits.addAll(HEAD_B, keyb);
-                putDB(key_b, value, SstColumnFamily.DEFAULT);
                 int time = (int) (System.currentTimeMillis() / 1000) + ttl;
-                putDB(ArrayKits.addAll(HEAD_TTL, keyb), ArrayKits.intToBytes(time), SstColumnFamily.DEFAULT);
-                setTimer(KeyEnum.KV_TIMER, time, key_b);
+                store(ArrayKits.addAll(HEAD_B, keyb), keyb, value, time);
                 commit();
             } finally {
-                lock.unlock(lockEntity);
+                lock.unlock(lockStripe);
+                unlock(migrating);
                 release();
             }
             checkTxCommit();
@@ -213,20 +348,79 @@ public class RKv extends RBase {
 
     }
 
+    /**
+     * 异步写入，返回写入完成时结束的 future，调用线程不等待 Raft 提交，可以连续发出多个写入
+     * <p>
+     * 只有不依赖旧值的写入有异步版本，key 锁在提交发出后就释放。不能在事务中使用。
+     */
+    public CompletableFuture<Void> setAsync(String key, byte[] value) throws KitDBException {
+        return storeAsync(key, value, NO_EXPIRE);
+    }
+
+    public CompletableFuture<Void> setAsync(String key, byte[] value, int ttl) throws KitDBException {
+        return storeAsync(key, value, (int) (System.currentTimeMillis() / 1000) + ttl);
+    }
+
+    public CompletableFuture<Void> delAsync(String key) throws KitDBException {
+        return storeAsync(key, null, NO_EXPIRE);
+    }
+
+    /**
+     * @param value 为 null 时删除
+     */
+    private CompletableFuture<Void> storeAsync(String key, byte[] value, int expire) throws KitDBException {
+        if (legacy) {
+            // 旧布局迁移中，写入要和迁移互斥到写完为止，退化为同步写入
+            if (value == null) {
+                del(key);
+            } else {
+                setAll(Collections.singletonMap(key, value), expire);
+            }
+            return CompletableFuture.completedFuture(null);
+        }
+        try (CloseLock ignored = checkClose()) {
+            byte[] keyb = getKey(key);
+            int lockStripe = lock.lock(key);
+            CompletableFuture<Void> future;
+            try {
+                start();
+                byte[] key_b = ArrayKits.addAll(HEAD_B, keyb);
+                if (value == null) {
+                    remove(key_b, keyb);
+                } else {
+                    store(key_b, keyb, value, expire);
+                }
+                future = commitAsync();
+            } catch (KitDBException | RuntimeException e) {
+                lock.unlock(lockStripe);
+                throw e;
+            } finally {
+                release();
+            }
+            // 日志应用前持有分片锁，否则 incr、ttl 等读后写会读到旧值并覆盖这次写入。
+            // 返回解锁之后的 future，调用方在回调里再写同一个 key 不会等自己
+            return future.whenComplete((v, e) -> lock.unlock(lockStripe));
+        }
+    }
+
     public void ttl(String key, int ttl) throws KitDBException {
         checkTxStart();
         try (CloseLock ignored = checkClose()) {
             byte[] keyb = getKey(key);
-            LockEntity lockEntity = lock.lock(key);
+            Lock migrating = migrating();
+            int lockStripe = lock.lock(key);
             try {
                 start();
                 byte[] key_b = ArrayKits.addAll(HEAD_B, keyb);
-                int time = (int) (System.currentTimeMillis() / 1000) + ttl;
-                putDB(ArrayKits.addAll(HEAD_TTL, keyb), ArrayKits.intToBytes(time), SstColumnFamily.DEFAULT);
-                setTimer(KeyEnum.KV_TIMER, time, key_b);
-                commit();
+                Stored stored = load(key_b, keyb);
+                if (stored != null) {
+                    int time = (int) (System.currentTimeMillis() / 1000) + ttl;
+                    store(key_b, keyb, stored.value, time);
+                    commit();
+                }
             } finally {
-                lock.unlock(lockEntity);
+                lock.unlock(lockStripe);
+                unlock(migrating);
                 release();
             }
             checkTxCommit();
@@ -239,84 +433,90 @@ public class RKv extends RBase {
 
 
     public Map<String, byte[]> get(List<String> keys) throws KitDBException {
-        Map<String, byte[]> map = null;
         try (CloseLock ignored = checkClose()) {
             DAssert.notEmpty(keys, ErrorType.EMPTY, "keys is empty");
+            Map<String, byte[]> map = new HashMap<>(keys.size());
+            Lock migrating = migrating();
+            try {
+                if (migrating != null) {
+                    for (String key : keys) {
+                        byte[] keyb = getKey(key);
+                        Stored stored = load(ArrayKits.addAll(HEAD_B, keyb), keyb);
+                        map.put(key, stored == null ? null : stored.value);
+                    }
+                    return map;
+                }
 
-            byte[][] keybs = new byte[keys.size()][];
-            for (int i = 0; i < keys.size(); i++) {
-                keybs[i] = getKey(keys.get(i));
-            }
-
-            List<byte[]> vKeys = new ArrayList<>(keybs.length);
-
-            for (byte[] key : keybs) {
-                vKeys.add(ArrayKits.addAll(HEAD_TTL, key));
-                vKeys.add(ArrayKits.addAll(HEAD_B, key));
-            }
-            vKeys.addAll(vKeys);
-            Map<String, byte[]> resMap = transMap(multiGet(vKeys, SstColumnFamily.DEFAULT));
-            map = new HashMap<>(keybs.length);
+                KvNearCache cache = nearCache();
+                List<String> missed = keys;
+                long[] stamps = null;
+                if (cache != null) {
+                    missed = new ArrayList<>(keys.size());
+                    for (String key : keys) {
+                        byte[] cached = cache.get(key);
+                        if (cached != null) {
+                            map.put(key, cached);
+                        } else {
+                            missed.add(key);
+                        }
+                    }
+                    if (missed.isEmpty()) {
+                        return map;
+                    }
+                    stamps = new long[missed.size()];
+                    for (int i = 0; i < stamps.length; i++) {
+                        stamps[i] = cache.stamp(missed.get(i));
+                    }
+                }
 
-            for (byte[] key : keybs) {
-                byte[] ttl_bs = resMap.get(new String(ArrayKits.addAll(HEAD_TTL, key)));
-                if (ttl_bs == null) {
-                    map.put(new String(key, charset), resMap.get(new String((ArrayKits.addAll(HEAD_B, key)))));
-                } else {
-                    int time = ArrayKits.bytesToInt(ttl_bs, 0);
-                    if ((System.currentTimeMillis() / 1000) - time <= 0) {
-                        map.put(new String(key, charset), null);
+                List<byte[]> vKeys = new ArrayList<>(missed.size());
+                for (String key : missed) {
+                    vKeys.add(ArrayKits.addAll(HEAD_B, getKey(key)));
+                }
+                Map<byte[], byte[]> resMap = multiGet(vKeys, SstColumnFamily.DEFAULT);
+                for (int i = 0; i < missed.size(); i++) {
+                    byte[] value = resMap.get(vKeys.get(i));
+                    if (value == null || isExpired(expireOf(value))) {
+                        map.put(missed.get(i), null);
                     } else {
-                        map.put(new String(key, charset), resMap.get(new String((ArrayKits.addAll(HEAD_B, key)))));
+                        byte[] bytes = unwrap(value);
+                        map.put(missed.get(i), bytes);
+                        if (cache != null) {
+                            cache.put(missed.get(i), bytes, expireOf(value), stamps[i]);
+                        }
                     }
                 }
-
+                return map;
+            } finally {
+                unlock(migrating);
             }
         }
-        return map;
-    }
-
-
-    private Map<String, byte[]> transMap(Map<byte[], byte[]> bsMap) {
-        Map<String, byte[]> map = new HashMap<>(bsMap.size());
-
-        for (Map.Entry<byte[], byte[]> entry : bsMap.entrySet()) {
-            map.put(new String(entry.getKey()), entry.getValue());
-        }
-
-        return map;
     }
 
 
+    /**
+     * 清理旧版本 KV_TIMER 中遗留的过期 key
+     */
     protected void delCheckTTL(String key, int ztime) throws KitDBException {
         checkTxStart();
         try (CloseLock ignored = checkClose()) {
-            LockEntity lockEntity = lock.lock(key);
+            Lock migrating = migrating();
+            int lockStripe = lock.lock(key);
             try {
                 byte[] keyb = getKey(key);
-                List<byte[]> keys = new ArrayList<>();
-                keys.add(ArrayKits.addAll(HEAD_TTL, keyb));
-                keys.add(ArrayKits.addAll(HEAD_B, keyb));
-
-                Map<String, byte[]> resMap = transMap(multiGet(keys, SstColumnFamily.DEFAULT));
-                byte[] ttl_bs = resMap.get(new String(ArrayKits.addAll(HEAD_TTL, keyb)));
-                if (ttl_bs == null) {
-                    checkTxCommit();
-                    return;
-                }
-                int time = ArrayKits.bytesToInt(ttl_bs, 0);
-
-                if (ztime < time) {
+                byte[] key_b = ArrayKits.addAll(HEAD_B, keyb);
+                Stored stored = load(key_b, keyb, true);
+                if (stored == null || stored.expire == NO_EXPIRE || ztime < stored.expire) {
                     checkTxCommit();
                     return;
                 }
 
                 start();
-                deleteDB(ArrayKits.addAll(HEAD_B, keyb), SstColumnFamily.DEFAULT);
-                deleteDB(ArrayKits.addAll(HEAD_TTL, keyb), SstColumnFamily.DEFAULT);
+                remove(key_b, keyb);
                 commitLocal();
             } finally {
-                lock.unlock(lockEntity);
+                lock.unlock(lockStripe);
+                unlock(migrating);
                 release();
             }
             checkTxCommit();
@@ -329,45 +529,131 @@ public class RKv extends RBase {
     }
 
 
+    /**
+     * 单 key 读取，key 编码在线程缓冲里，除返回的 byte[] 外不分配对象
+     */
     public byte[] get(String key) throws KitDBException {
         try (CloseLock ignored = checkClose()) {
-            byte[] keyb = getKey(key);
-            List<byte[]> keys = new ArrayList<>();
-            keys.add(ArrayKits.addAll(HEAD_TTL, keyb));
-            keys.add(ArrayKits.addAll(HEAD_B, keyb));
+            DAssert.notNull(key, ErrorType.NULL, "Key is null");
+            if (legacy) {
+                return getLegacy(key);
+            }
+            KvNearCache cache = nearCache();
+            if (cache == null) {
+                return read(key, null, 0);
+            }
+            byte[] cached = cache.get(key);
+            if (cached != null) {
+                return cached;
+            }
+            return read(key, cache, cache.stamp(key));
+        }
+    }
 
-            Map<String, byte[]> resMap = transMap(multiGet(keys, SstColumnFamily.DEFAULT));
-            byte[] ttl_bs = resMap.get(new String(ArrayKits.addAll(HEAD_TTL, keyb)));
-            if (ttl_bs == null) {
-                return resMap.get(new String(ArrayKits.addAll(HEAD_B, keyb)));
+    /**
+     * 近端缓存，事务中和快照视图不使用
+     */
+    private KvNearCache nearCache() {
+        if (readView != null || db.IS_STATR_TX.get()) {
+            return null;
+        }
+        return db.getKvCache();
+    }
+
+    /**
+     * @param cache 不为 null 时读到的值回填缓存
+     */
+    private byte[] read(String key, KvNearCache cache, long stamp) throws KitDBException {
+        ByteBuffer key_b = DirectKey.encode(DirectKey.SLOT_KEY, HEAD_B, key);
+        ByteBuffer value = DirectKey.begin(DirectKey.SLOT_VALUE, 0);
+        int size = getDB(key_b, value, SstColumnFamily.DEFAULT);
+        if (size == RocksDB.NOT_FOUND) {
+            return null;
+        }
+        if (size > value.remaining()) {
+            key_b.rewind();
+            if (size > MAX_BUFFERED_VALUE) {
+                return unwrapLive(getDB(DirectKey.toBytes(key_b), SstColumnFamily.DEFAULT));
             }
-            int time = ArrayKits.bytesToInt(ttl_bs, 0);
-            if ((System.currentTimeMillis() / 1000) - time >= 0) {
+            value = DirectKey.begin(DirectKey.SLOT_VALUE, size);
+            size = getDB(key_b, value, SstColumnFamily.DEFAULT);
+            if (size == RocksDB.NOT_FOUND) {
                 return null;
-            } else {
-                return resMap.get(new String(ArrayKits.addAll(HEAD_B, keyb)));
             }
+            if (size > value.remaining()) {
+                key_b.rewind();
+                return unwrapLive(getDB(DirectKey.toBytes(key_b), SstColumnFamily.DEFAULT));
+            }
+        }
+        int expire = value.getInt(0);
+        if (isExpired(expire)) {
+            return null;
+        }
+        byte[] bytes = new byte[size - HEADER_SIZE];
+        value.position(HEADER_SIZE);
+        value.get(bytes);
+        if (cache != null) {
+            cache.put(key, bytes, expire, stamp);
         }
+        return bytes;
     }
 
-    public byte[] getNoTTL(String key) throws KitDBException {
-        byte[] keyb = getKey(key);
+    /**
+     * 读取到 direct 缓冲区，读取后 value 的 position 到 limit 之间是值的内容
+     *
+     * @return 值的实际长度，大于 value.remaining() 时说明缓冲区不足；不存在或已过期返回 RocksDB.NOT_FOUND
+     */
+    public int get(String key, ByteBuffer value) throws KitDBException {
+        try (CloseLock ignored = checkClose()) {
+            DAssert.notNull(key, ErrorType.NULL, "Key is null");
+            int position = value.position();
+            if (legacy || value.remaining() < HEADER_SIZE) {
+                return copyTo(get(key), value);
+            }
+            KvNearCache cache = nearCache();
+            long stamp = 0;
+            if (cache != null) {
+                byte[] cached = cache.get(key);
+                if (cached != null) {
+                    return copyTo(cached, value);
+                }
+                stamp = cache.stamp(key);
+            }
+            int size = getDB(DirectKey.encode(DirectKey.SLOT_KEY, HEAD_B, key), value, SstColumnFamily.DEFAULT);
+            int expire = size == RocksDB.NOT_FOUND ? NO_EXPIRE : value.getInt(position);
+            if (size == RocksDB.NOT_FOUND || isExpired(expire)) {
+                return RocksDB.NOT_FOUND;
+            }
+            value.position(position + HEADER_SIZE);
+            if (cache != null && value.remaining() == size - HEADER_SIZE) {
+                byte[] bytes = new byte[size - HEADER_SIZE];
+                value.duplicate().get(bytes);
+                cache.put(key, bytes, expire, stamp);
+            }
+            return size - HEADER_SIZE;
+        }
+    }
 
-        return getDB(ArrayKits.addAll(HEAD_B, keyb), SstColumnFamily.DEFAULT);
+    /**
+     * TTL 已内联在值头部，与 get 相同
+     */
+    public byte[] getNoTTL(String key) throws KitDBException {
+        return get(key);
     }
 
     public void del(String key) throws KitDBException {
         checkTxStart();
         try (CloseLock ignored = checkClose()) {
             byte[] keyb = getKey(key);
-            LockEntity lockEntity = lock.lock(key);
+            Lock migrating = migrating();
+            int lockStripe = lock.lock(key);
             try {
                 start();
-                deleteDB(ArrayKits.addAll(HEAD_B, keyb), SstColumnFamily.DEFAULT);
-                deleteDB(ArrayKits.addAll(HEAD_TTL, keyb), SstColumnFamily.DEFAULT);
+                remove(ArrayKits.addAll(HEAD_B, keyb), keyb);
                 commit();
             } finally {
-                lock.unlock(lockEntity);
+                lock.unlock(lockStripe);
+                unlock(migrating);
                 release();
             }
             checkTxCommit();
@@ -384,7 +670,9 @@ public class RKv extends RBase {
         try (CloseLock ignored = checkClose()) {
             start();
             deleteHead(ArrayKits.addAll(HEAD_B, keyb_), SstColumnFamily.DEFAULT);
-            deleteHead(ArrayKits.addAll(HEAD_TTL, keyb_), SstColumnFamily.DEFAULT);
+            if (legacy) {
+                deleteHead(ArrayKits.addAll(HEAD_TTL, keyb_), SstColumnFamily.DEFAULT);
+            }
             commit();
         } finally {
             release();
@@ -418,50 +706,69 @@ public class RKv extends RBase {
 
 
     /**
-     * 获取过期时间戳(秒)
+     * 按游标分页列出以 key_ 开头的 key，每页直接 seek 到游标之后
      *
-     * @return
-     * @throws KitDBException <p>
-     *                   删除过期时间
-     * @throws KitDBException <p>
-     *                   设置新的过期时间戳(秒)
-     * @throws KitDBException
+     * @param cursor 上一页的游标，第一页为 null
      */
+    public Page<String> keys(String key_, byte[] cursor, int limit) throws KitDBException {
+        try (CloseLock ignored = checkClose()) {
+            byte[] head = ArrayKits.addAll(HEAD_B, getKey(key_));
+            List<String> list = new ArrayList<>();
+            byte[] last = null;
+            try (final BoundedIterator bounded = newIterator(SstColumnFamily.DEFAULT, head)) {
+                RocksIterator iterator = bounded.iterator;
+                bounded.seek(head, cursor);
+                while (list.size() < limit && bounded.isValid()) {
+                    last = iterator.key();
+                    list.add(new String(ArrayKits.sub(last, 1, last.length), charset));
+                    iterator.next();
+                }
+                return new Page<>(list, bounded.isValid() ? last : null);
+            }
+        }
+    }
 
+    /**
+     * 获取剩余的过期时间(秒)，没有设置过期时间返回 -1
+     */
     int getTtl(String key) throws KitDBException {
         try (CloseLock ignored = checkClose()) {
             byte[] keyb = getKey(key);
-            byte[] value_bs = getDB(ArrayKits.addAll(HEAD_TTL, keyb), SstColumnFamily.DEFAULT);
-            if (value_bs != null) {
-                int time = ArrayKits.bytesToInt(value_bs, 0);
-                int ttl = (int) ((System.currentTimeMillis() / 1000) - time);
-                if (ttl <= 0) {
-                    return 0;
-                }
-                return ttl;
+            Stored stored;
+            Lock migrating = migrating();
+            try {
+                stored = load(ArrayKits.addAll(HEAD_B, keyb), keyb);
+            } finally {
+                unlock(migrating);
             }
-            return -1;
+            if (stored == null || stored.expire == NO_EXPIRE) {
+                return -1;
+            }
+            int ttl = (int) (stored.expire - System.currentTimeMillis() / 1000);
+            return Math.max(ttl, 0);
         }
     }
 
     /**
      * 删除过期时间
-     *
-     * @return
-     * @throws KitDBException
      */
-
     void delTtl(String key) throws KitDBException {
         checkTxStart();
         try (CloseLock ignored = checkClose()) {
-            LockEntity lockEntity = lock.lock(key);
+            Lock migrating = migrating();
+            int lockStripe = lock.lock(key);
             try {
                 byte[] keyb = getKey(key);
+                byte[] key_b = ArrayKits.addAll(HEAD_B, keyb);
                 start();
-                deleteDB(ArrayKits.addAll(HEAD_TTL, keyb), SstColumnFamily.DEFAULT);
-                commit();
+                Stored stored = load(key_b, keyb);
+                if (stored != null && stored.expire != NO_EXPIRE) {
+                    store(key_b, keyb, stored.value, NO_EXPIRE);
+                    commit();
+                }
             } finally {
-                lock.unlock(lockEntity);
+                lock.unlock(lockStripe);
+                unlock(migrating);
                 release();
             }
             checkTxCommit();
@@ -471,12 +778,239 @@ public class RKv extends RBase {
         }
     }
 
+
+    /**
+     * 打开旧版本的库时调用，迁移完成前读写都兼容旧布局
+     */
+    void startMigrate() {
+        this.legacy = true;
+    }
+
+    boolean isMigrating() {
+        return legacy;
+    }
+
+    /**
+     * 把旧布局的 KV 迁移为值内联 TTL，每次最多处理 limit 个 key，迁移期间阻塞 KV 读写
+     *
+     * @return 是否已全部迁移完成
+     */
+    boolean migrate(int limit) throws KitDBException {
+        if (!legacy) {
+            return true;
+        }
+        try (CloseLock ignored = checkClose()) {
+            migrateLock.writeLock().lock();
+            try {
+                int count = 0;
+                byte[] last = migrated;
+                start();
+                try (final RocksIterator iterator = newIterator(SstColumnFamily.DEFAULT)) {
+                    iterator.seek(last == null ? HEAD_B : last);
+                    if (last != null && iterator.isValid() && BytesUtil.compare(iterator.key(), last) == 0) {
+                        iterator.next();
+                    }
+                    while (iterator.isValid() && count < limit) {
+                        byte[] key_b = iterator.key();
+                        if (!BytesUtil.checkHead(HEAD_B, key_b)) {
+                            break;
+                        }
+                        byte[] ttl_key = ArrayKits.addAll(HEAD_TTL, ArrayKits.sub(key_b, HEAD_B.length, key_b.length));
+                        byte[] ttl_bs = getDB(ttl_key, SstColumnFamily.DEFAULT);
+                        int expire = ttl_bs == null ? NO_EXPIRE : ArrayKits.bytesToInt(ttl_bs, 0);
+                        if (ttl_bs != null) {
+                            deleteDB(ttl_key, SstColumnFamily.DEFAULT);
+                        }
+                        if (isExpired(expire)) {
+                            deleteDB(key_b, SstColumnFamily.DEFAULT);
+                        } else {
+                            putDB(key_b, wrap(expire, iterator.value()), SstColumnFamily.DEFAULT);
+                        }
+                        last = key_b;
+                        count++;
+                        iterator.next();
+                    }
+                }
+                commitLocal();
+                migrated = last;
+                if (count < limit) {
+                    // 没有对应 value 的孤立 TTL
+                    deleteHead(HEAD_TTL, SstColumnFamily.DEFAULT);
+                    commitLocal();
+                    legacy = false;
+                    return true;
+                }
+                return false;
+            } finally {
+                release();
+                migrateLock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * 迁移期间拿读锁，保证一次操作内 key 的布局不变
+     */
+    private Lock migrating() {
+        if (!legacy) {
+            return null;
+        }
+        Lock readLock = migrateLock.readLock();
+        readLock.lock();
+        return readLock;
+    }
+
+    private void unlock(Lock migrating) {
+        if (migrating != null) {
+            migrating.unlock();
+        }
+    }
+
+    private boolean isInline(byte[] key_b) {
+        if (!legacy) {
+            return true;
+        }
+        byte[] last = migrated;
+        return last != null && BytesUtil.compare(key_b, last) <= 0;
+    }
+
+    private boolean isInline(ByteBuffer key_b) {
+        return !legacy || isInline(DirectKey.toBytes(key_b));
+    }
+
+    private byte[] getLegacy(String key) throws KitDBException {
+        byte[] keyb = getKey(key);
+        Lock migrating = migrating();
+        try {
+            Stored stored = load(ArrayKits.addAll(HEAD_B, keyb), keyb);
+            return stored == null ? null : stored.value;
+        } finally {
+            unlock(migrating);
+        }
+    }
+
+    /**
+     * 读出旧值并加上写锁，返回时一定持有该分片的写锁
+     * <p>
+     * 先乐观读，读的过程中没有其他写入就直接升级为写锁，否则加锁后重读
+     */
+    private Stored loadLocked(int lockStripe, byte[] key_b, byte[] keyb) throws KitDBException {
+        long stamp = lock.tryOptimisticRead(lockStripe);
+        if (stamp != 0) {
+            try {
+                Stored stored = load(key_b, keyb);
+                if (lock.tryConvertToWriteLock(lockStripe, stamp)) {
+                    return stored;
+                }
+            } catch (Exception ignored) {
+                // 加锁后重读
+            }
+        }
+        lock.lockStripe(lockStripe);
+        return load(key_b, keyb);
+    }
+
+    private Stored load(byte[] key_b, byte[] keyb) throws KitDBException {
+        return load(key_b, keyb, false);
+    }
+
+    /**
+     * 读取值和过期时间，兼容旧布局。调用方需在迁移读锁内
+     *
+     * @param withExpired 为 false 时已过期视为不存在
+     */
+    private Stored load(byte[] key_b, byte[] keyb, boolean withExpired) throws KitDBException {
+        byte[] value = getDB(key_b, SstColumnFamily.DEFAULT);
+        if (value == null) {
+            return null;
+        }
+        Stored stored;
+        if (isInline(key_b)) {
+            stored = new Stored(unwrap(value), expireOf(value));
+        } else {
+            byte[] ttl_bs = getDB(ArrayKits.addAll(HEAD_TTL, keyb), SstColumnFamily.DEFAULT);
+            stored = new Stored(value, ttl_bs == null ? NO_EXPIRE : ArrayKits.bytesToInt(ttl_bs, 0));
+        }
+        if (!withExpired && isExpired(stored.expire)) {
+            return null;
+        }
+        return stored;
+    }
+
+    private void store(byte[] key_b, byte[] keyb, byte[] value, int expire) {
+        if (isInline(key_b)) {
+            putDB(key_b, wrap(expire, value), SstColumnFamily.DEFAULT);
+            return;
+        }
+        putDB(key_b, value, SstColumnFamily.DEFAULT);
+        byte[] ttl_key = ArrayKits.addAll(HEAD_TTL, keyb);
+        if (expire == NO_EXPIRE) {
+            deleteDB(ttl_key, SstColumnFamily.DEFAULT);
+        } else {
+            putDB(ttl_key, ArrayKits.intToBytes(expire), SstColumnFamily.DEFAULT);
+        }
+    }
+
+    private void remove(byte[] key_b, byte[] keyb) {
+        deleteDB(key_b, SstColumnFamily.DEFAULT);
+        if (!isInline(key_b)) {
+            deleteDB(ArrayKits.addAll(HEAD_TTL, keyb), SstColumnFamily.DEFAULT);
+        }
+    }
+
+    static byte[] wrap(int expire, byte[] value) {
+        byte[] bytes = new byte[HEADER_SIZE + value.length];
+        bytes[0] = (byte) (expire >>> 24);
+        bytes[1] = (byte) (expire >>> 16);
+        bytes[2] = (byte) (expire >>> 8);
+        bytes[3] = (byte) expire;
+        System.arraycopy(value, 0, bytes, HEADER_SIZE, value.length);
+        return bytes;
+    }
+
+    static int expireOf(byte[] value) {
+        return ArrayKits.bytesToInt(value, 0);
+    }
+
+    static byte[] unwrap(byte[] value) {
+        return Arrays.copyOfRange(value, HEADER_SIZE, value.length);
+    }
+
+    private static byte[] unwrapLive(byte[] value) {
+        if (value == null || isExpired(expireOf(value))) {
+            return null;
+        }
+        return unwrap(value);
+    }
+
+    private static boolean isExpired(int expire) {
+        return expire != NO_EXPIRE && (System.currentTimeMillis() / 1000) - expire >= 0;
+    }
+
+    private static int copyTo(byte[] v, ByteBuffer value) {
+        if (v == null) {
+            return RocksDB.NOT_FOUND;
+        }
+        int position = value.position();
+        int n = Math.min(v.length, value.remaining());
+        value.put(v, 0, n);
+        value.limit(position + n);
+        value.position(position);
+        return v.length;
+    }
+
     @Override
     protected TxLock getTxLock(String key) {
         return new TxLock(String.join(":", HEAD, key));
     }
 
 
+    @AllArgsConstructor
+    private static class Stored {
+        private final byte[] value;
+        private final int expire;
+    }
+
     @Data
     @AllArgsConstructor
     public static class Entry {
@@ -4,6 +4,8 @@ import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.rocksdb.ReadOptions;
+import org.rocksdb.RocksDB;
 import org.rocksdb.RocksDBException;
 import org.rocksdb.RocksIterator;
 import top.thinkin.lightd.base.*;
@@ -14,8 +16,11 @@ import top.thinkin.lightd.exception.KitDBException;
 import top.thinkin.lightd.kit.ArrayKits;
 import top.thinkin.lightd.kit.BytesUtil;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A List
@@ -27,6 +32,8 @@ public class RList extends RCollection {
     public final static byte[] HEAD_VALUE_B = KeyEnum.LIST_VALUE.getBytes();
     public final static byte[] HEAD_B = HEAD.getBytes();
 
+    private final ListWaiters waiters = new ListWaiters();
+
     @Override
     protected TxLock getTxLock(String key) {
         return new TxLock(String.join(":", HEAD, key));
@@ -36,9 +43,27 @@ public class RList extends RCollection {
         super(db, false, 128);
     }
 
+    private RList(RList live, ReadOptions readView) {
+        super(live, readView);
+    }
+
+    /**
+     * 绑定快照的只读视图
+     */
+    RList at(ReadOptions readView) {
+        return new RList(this, readView);
+    }
+
 
     public void add(String key, byte[] v) throws KitDBException {
-        addMayTTLPrivate(key, v, -1);
+        addMayTTLPrivate(key, v, null, -1);
+    }
+
+    /**
+     * 追加 direct 缓冲区中的值，v 的 position 会移动到 limit
+     */
+    public void add(String key, ByteBuffer v) throws KitDBException {
+        addMayTTLPrivate(key, null, v, -1);
     }
 
 
@@ -55,7 +80,7 @@ public class RList extends RCollection {
     public void set(String key, long i, byte[] v) throws KitDBException {
         checkTxStart();
         try (CloseLock ignored = checkClose()) {
-            LockEntity lockEntity = lock(key);
+            int lockStripe = lock(key);
             try {
                 byte[] key_b = getKey(key);
                 MetaV metaV = getMeta(key_b);
@@ -72,7 +97,7 @@ public class RList extends RCollection {
                 putDB(valueKD.toBytes(), v, SstColumnFamily.DEFAULT);
                 commit();
             } finally {
-                unlock(lockEntity);
+                unlock(lockStripe);
                 release();
             }
             checkTxCommit();
@@ -96,6 +121,29 @@ public class RList extends RCollection {
         }
     }
 
+    /**
+     * 读取到 direct 缓冲区
+     *
+     * @return 值的实际长度，不存在返回 RocksDB.NOT_FOUND
+     */
+    public int get(String key, long i, ByteBuffer value) throws KitDBException {
+        try (CloseLock ignored = checkClose()) {
+            byte[] key_b = getKey(key);
+            MetaV metaV = getMeta(key_b);
+            if (metaV == null) {
+                return RocksDB.NOT_FOUND;
+            }
+            return getDB(directKey(key_b, metaV.getVersion(), i), value, SstColumnFamily.DEFAULT);
+        }
+    }
+
+    private static ByteBuffer directKey(byte[] key_b, int version, long index) {
+        ByteBuffer buffer = DirectKey.begin(DirectKey.SLOT_KEY, HEAD_VALUE_B.length + 16 + key_b.length);
+        buffer.put(HEAD_VALUE_B).putInt(key_b.length).put(key_b).putInt(version).putLong(index);
+        buffer.flip();
+        return buffer;
+    }
+
     public List<byte[]> get(String key, List<Long> is) throws KitDBException {
         try (CloseLock ignored = checkClose()) {
             byte[] key_b = getKey(key);
@@ -104,13 +152,12 @@ public class RList extends RCollection {
             if (metaV == null) {
                 return new ArrayList<>();
             }
-            List<byte[]> list = new ArrayList<>(is.size());
-
+            List<byte[]> keys = new ArrayList<>(is.size());
             for (long i : is) {
                 ValueK valueK = new ValueK(key_b.length, key_b, metaV.getVersion(), i);
-                list.add(getDB(valueK.convertValueBytes().toBytes(), SstColumnFamily.DEFAULT));
+                keys.add(valueK.convertValueBytes().toBytes());
             }
-            return list;
+            return new ArrayList<>(multiGetAsList(keys, SstColumnFamily.DEFAULT));
         }
     }
 
@@ -152,7 +199,7 @@ public class RList extends RCollection {
     public void deleteFast(String key) throws KitDBException {
         checkTxStart();
         try (CloseLock ignored = checkClose()) {
-            LockEntity lockEntity = lock(key);
+            int lockStripe = lock(key);
             try {
                 byte[] key_b = getKey(key);
                 MetaV metaV = getMeta(key_b);
@@ -162,7 +209,7 @@ public class RList extends RCollection {
                 }
                 deleteFast(key_b, metaV);
             } finally {
-                unlock(lockEntity);
+                unlock(lockStripe);
             }
             checkTxCommit();
         } catch (Exception e) {
@@ -174,7 +221,7 @@ public class RList extends RCollection {
     public void delete(String key) throws KitDBException {
         checkTxRange();
         try (CloseLock ignored = checkClose()) {
-            LockEntity lockEntity = lock(key);
+            int lockStripe = lock(key);
             try {
                 byte[] key_b = getKey(key);
                 MetaV metaV = getMeta(key_b);
@@ -187,7 +234,7 @@ public class RList extends RCollection {
                 delete(key_b, metaV);
                 commit();
             } finally {
-                unlock(lockEntity);
+                unlock(lockStripe);
                 release();
             }
             checkTxCommit();
@@ -201,9 +248,7 @@ public class RList extends RCollection {
     public boolean isExist(String key) throws KitDBException {
         try (CloseLock ignored = checkClose()) {
             byte[] key_b = getKey(key);
-            byte[] k_v = getDB(key_b, SstColumnFamily.META);
-            MetaV metaV = addCheck(k_v);
-
+            MetaV metaV = getMeta(key_b);
             return metaV != null;
         }
     }
@@ -220,26 +265,58 @@ public class RList extends RCollection {
                 return list;
             }
             ValueK valueK_seek = new ValueK(key_b.length, key_b, metaV.getVersion(), start);
-            try (final RocksIterator iterator = newIterator(SstColumnFamily.DEFAULT)) {
-                ValueKD valueKD = valueK_seek.convertValueBytes();
-                byte[] heads = valueKD.toHeadBytes();
-                iterator.seek(valueKD.toBytes());
+            ValueKD valueKD = valueK_seek.convertValueBytes();
+            byte[] heads = valueKD.toHeadBytes();
+            try (final BoundedIterator bounded = newIterator(SstColumnFamily.DEFAULT, heads);
+                 final BatchIterator batch = new BatchIterator(bounded.iterator, db.getBufferPool(), false,
+                         (int) Math.min(end - start, Integer.MAX_VALUE))) {
+                bounded.iterator.seek(valueKD.toBytes());
                 long index = 0;
-                while (iterator.isValid() && index < end) {
-                    byte[] key_bs = iterator.key();
-                    if (!BytesUtil.checkHead(heads, key_bs)) break;
-                    ValueK valueK = ValueKD.build(key_bs).convertValue();
-                    index = valueK.getIndex();
-                    list.add(iterator.value());
-                    iterator.next();
+                // 元素 key 以 index 结尾
+                int indexOffset = heads.length;
+                while (index < end && batch.next()) {
+                    if (!batch.keyStartsWith(heads)) break;
+                    index = batch.keyLong(indexOffset);
+                    list.add(batch.value());
                 }
-            } catch (Exception e) {
-                throw e;
             }
             return list;
         }
     }
 
+    /**
+     * 按游标分页从左到右返回元素
+     *
+     * @param cursor 上一页的游标，第一页为 null
+     */
+    public Page<byte[]> range(String key, byte[] cursor, int limit) throws KitDBException {
+        try (CloseLock ignored = checkClose()) {
+            byte[] key_b = getKey(key);
+
+            List<byte[]> list = new ArrayList<>();
+            MetaV metaV = getMeta(key_b);
+            if (metaV == null) {
+                return new Page<>(list, null);
+            }
+            ValueKD valueKD = new ValueK(key_b.length, key_b, metaV.getVersion(), metaV.left).convertValueBytes();
+            byte[] head = valueKD.toHeadBytes();
+            byte[] last = null;
+            try (final BoundedIterator bounded = newIterator(SstColumnFamily.DEFAULT, head)) {
+                RocksIterator iterator = bounded.iterator;
+                bounded.seek(valueKD.toBytes(), cursor);
+                try (final BatchIterator batch = new BatchIterator(iterator, db.getBufferPool(), false, limit)) {
+                    while (list.size() < limit && batch.next() && batch.keyStartsWith(head)) {
+                        last = batch.key();
+                        list.add(batch.value());
+                    }
+                    // 多取一条判断是否还有下一页
+                    boolean more = batch.next() && batch.keyStartsWith(head);
+                    return new Page<>(list, more ? last : null);
+                }
+            }
+        }
+    }
+
     @Override
     @SuppressWarnings("unchecked")
     public RIterator<RList> iterator(String key) throws KitDBException {
@@ -250,22 +327,18 @@ public class RList extends RCollection {
                 return null;
             }
             ValueK valueK_seek = new ValueK(key_b.length, key_b, metaV.getVersion(), metaV.left);
-            RocksIterator iterator = newIterator(SstColumnFamily.DEFAULT);
             ValueKD valueKD = valueK_seek.convertValueBytes();
-            iterator.seek(valueKD.toBytes());
-            RIterator<RList> rIterator = new RIterator<>(iterator, this, valueKD.toHeadBytes());
-            return rIterator;
+            byte[] head = valueKD.toHeadBytes();
+            BoundedIterator bounded = newIterator(SstColumnFamily.DEFAULT, head);
+            bounded.iterator.seek(valueKD.toBytes());
+            return new RIterator<>(bounded, this, head);
         }
     }
 
-    public Entry getEntry(RocksIterator iterator) throws KitDBException {
+    public Entry getEntry(byte[] key_bs, byte[] value) throws KitDBException {
         try (CloseLock ignored = checkClose()) {
-            byte[] key_bs = iterator.key();
-            if (key_bs == null) {
-                return null;
-            }
             ValueK key = ValueKD.build(key_bs).convertValue();
-            Entry entry = new Entry(key.index, iterator.value());
+            Entry entry = new Entry(key.index, value);
             return entry;
         }
     }
@@ -274,7 +347,7 @@ public class RList extends RCollection {
     public List<byte[]> blpop(String key, int num) throws KitDBException {
         checkTxStart();
         try (CloseLock ignored = checkClose()) {
-            LockEntity lockEntity = lock(key);
+            int lockStripe = lock(key);
             try {
                 byte[] key_b = getKey(key);
 
@@ -322,7 +395,7 @@ public class RList extends RCollection {
                     release();
                 }
             } finally {
-                unlock(lockEntity);
+                unlock(lockStripe);
             }
 
         } catch (Exception e) {
@@ -335,7 +408,7 @@ public class RList extends RCollection {
     public List<byte[]> brpop(String key, int num) throws KitDBException {
         checkTxStart();
         try (CloseLock ignored = checkClose()) {
-            LockEntity lockEntity = lock(key);
+            int lockStripe = lock(key);
             try {
                 byte[] key_b = getKey(key);
                 List<byte[]> list = new ArrayList<>();
@@ -379,7 +452,7 @@ public class RList extends RCollection {
                 }
 
             } finally {
-                unlock(lockEntity);
+                unlock(lockStripe);
             }
         } catch (Exception e) {
             checkTxRollBack();
@@ -387,6 +460,101 @@ public class RList extends RCollection {
         }
     }
 
+    /**
+     * 阻塞地从左侧弹出，list 为空时等到有写入或超时
+     *
+     * @return 超时返回空列表
+     */
+    public List<byte[]> blpop(String key, int num, long timeout, TimeUnit unit) throws KitDBException {
+        Pop pop = bpop(Collections.singletonList(key), num, true, timeout, unit);
+        return pop == null ? new ArrayList<>() : pop.getValues();
+    }
+
+    /**
+     * 阻塞地从右侧弹出，list 为空时等到有写入或超时
+     *
+     * @return 超时返回空列表
+     */
+    public List<byte[]> brpop(String key, int num, long timeout, TimeUnit unit) throws KitDBException {
+        Pop pop = bpop(Collections.singletonList(key), num, false, timeout, unit);
+        return pop == null ? new ArrayList<>() : pop.getValues();
+    }
+
+    /**
+     * 按顺序检查多个 list，从第一个非空的 list 左侧弹出，全部为空时等到其中任一个有写入或超时
+     *
+     * @return 超时返回 null
+     */
+    public Pop blpop(List<String> keys, int num, long timeout, TimeUnit unit) throws KitDBException {
+        return bpop(keys, num, true, timeout, unit);
+    }
+
+    public Pop brpop(List<String> keys, int num, long timeout, TimeUnit unit) throws KitDBException {
+        return bpop(keys, num, false, timeout, unit);
+    }
+
+    /**
+     * 先排队再检查 list，避免检查和排队之间的写入漏掉唤醒
+     */
+    private Pop bpop(List<String> keys, int num, boolean left, long timeout, TimeUnit unit) throws KitDBException {
+        DAssert.isTrue(keys != null && !keys.isEmpty(), ErrorType.EMPTY, "keys is empty");
+        DAssert.isTrue(!db.IS_STATR_TX.get(), ErrorType.TX_ERROR, "Blocking pop can't execute in a transaction");
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        ListWaiters.Waiter waiter = waiters.newWaiter(keys);
+        boolean queued = false;
+        try {
+            while (true) {
+                for (String key : keys) {
+                    List<byte[]> values = left ? blpop(key, num) : brpop(key, num);
+                    if (!values.isEmpty()) {
+                        return new Pop(key, values);
+                    }
+                }
+                long nanos = deadline - System.nanoTime();
+                if (nanos <= 0) {
+                    return null;
+                }
+                if (!queued) {
+                    waiters.enqueue(waiter);
+                    queued = true;
+                    continue;
+                }
+                try {
+                    waiters.await(waiter, nanos);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+                queued = false;
+            }
+        } finally {
+            waiters.cancel(waiter);
+            passOn(keys);
+        }
+    }
+
+    /**
+     * 退出时自己可能占用了某个 key 的唤醒却没有从它弹出（从别的 key 弹出、超时或被中断），
+     * 把所有仍有数据的 key 交给下一个等待者
+     */
+    private void passOn(List<String> keys) throws KitDBException {
+        for (String key : keys) {
+            if (waiters.getWaiting() == 0) {
+                return;
+            }
+            if (size(key) > 0) {
+                waiters.signal(key);
+            }
+        }
+    }
+
+    /**
+     * 正在阻塞等待的调用数
+     */
+    public int getWaiting() {
+        return waiters.getWaiting();
+    }
+
     @Override
     public KeyIterator getKeyIterator() throws KitDBException {
         try (CloseLock ignored = checkClose()) {
@@ -394,12 +562,21 @@ public class RList extends RCollection {
         }
     }
 
+    /**
+     * @param cursor 上一个 KeyIterator 的 getCursor，为 null 时从头开始
+     */
+    public KeyIterator getKeyIterator(byte[] cursor) throws KitDBException {
+        try (CloseLock ignored = checkClose()) {
+            return getKeyIterator(HEAD_B, cursor);
+        }
+    }
+
     public void ttl(String key, int ttl) throws KitDBException {
         DAssert.isTrue(ttl > 0, ErrorType.PARAM_ERROR, "ttl must greater than 0");
 
         checkTxStart();
         try (CloseLock ignored = checkClose()) {
-            LockEntity lockEntity = lock(key);
+            int lockStripe = lock(key);
             try {
                 byte[] key_b = getKey(key);
                 start();
@@ -417,7 +594,7 @@ public class RList extends RCollection {
                 commit();
 
             } finally {
-                unlock(lockEntity);
+                unlock(lockStripe);
                 release();
             }
             checkTxCommit();
@@ -436,7 +613,7 @@ public class RList extends RCollection {
                 checkTxCommit();
                 return;
             }
-            LockEntity lockEntity = lock(key);
+            int lockStripe = lock(key);
             try {
                 start();
                 delTimerCollection(KeyEnum.COLLECT_TIMER,
@@ -445,7 +622,7 @@ public class RList extends RCollection {
                 putDB(key_b, metaV.convertMetaBytes().toBytes(), SstColumnFamily.META);
                 commit();
             } finally {
-                unlock(lockEntity);
+                unlock(lockStripe);
                 release();
             }
             checkTxCommit();
@@ -472,7 +649,7 @@ public class RList extends RCollection {
 
     public void addMayTTL(String key, byte[] v, int ttl) throws KitDBException {
         DAssert.isTrue(ttl > 0, ErrorType.PARAM_ERROR, "ttl must greater than 0");
-        addMayTTLPrivate(key, v, ttl);
+        addMayTTLPrivate(key, v, null, ttl);
     }
 
 
@@ -518,11 +695,8 @@ public class RList extends RCollection {
     }
 
     private MetaV getMetaP(byte[] key_b) throws KitDBException {
-        byte[] k_v = getDB(key_b, SstColumnFamily.META);
-        if (k_v == null) return null;
-
-        MetaV metaV = MetaVD.build(k_v).convertMeta();
-        return metaV;
+        return loadMeta(key_b, k_v -> MetaVD.build(k_v).convertMeta(),
+                m -> new MetaV(m.getSize(), m.getLeft(), m.getRight(), m.getTimestamp(), m.getVersion()));
     }
 
 
@@ -539,7 +713,7 @@ public class RList extends RCollection {
 
     protected void deleteTTL(int time, byte[] key_b, byte[] meta_b) throws KitDBException {
         String key = new String(ArrayKits.sub(key_b, 1, key_b.length + 1), charset);
-        LockEntity lockEntity = lock(key);
+        int lockStripe = lock(key);
         try (CloseLock ignored = checkClose()) {
             MetaV metaV = getMetaP(key_b);
             if (time != metaV.timestamp) {
@@ -547,7 +721,7 @@ public class RList extends RCollection {
             }
             deleteTTL(key_b, MetaVD.build(meta_b).convertMeta(), metaV.version);
         } finally {
-            unlock(lockEntity);
+            unlock(lockStripe);
         }
     }
 
@@ -555,7 +729,7 @@ public class RList extends RCollection {
     private void addAllMayTTLPrivate(String key, List<byte[]> vs, int ttl) throws KitDBException {
         checkTxStart();
         try (CloseLock ignored = checkClose()) {
-            LockEntity lockEntity = lock(key);
+            int lockStripe = lock(key);
             try {
                 byte[] key_b = getKey(key);
                 start();
@@ -601,8 +775,9 @@ public class RList extends RCollection {
                     }
                 }
                 commit();
+                afterCommit(() -> waiters.signal(key));
             } finally {
-                unlock(lockEntity);
+                unlock(lockStripe);
                 release();
             }
             checkTxCommit();
@@ -621,10 +796,10 @@ public class RList extends RCollection {
      * @param ttl
      * @throws RocksDBException
      */
-    private void addMayTTLPrivate(String key, byte[] v, int ttl) throws KitDBException {
+    private void addMayTTLPrivate(String key, byte[] v, ByteBuffer directValue, int ttl) throws KitDBException {
         checkTxStart();
         try (CloseLock ignored = checkClose()) {
-            LockEntity lockEntity = lock(key);
+            int lockStripe = lock(key);
             try {
                 byte[] key_b = getKey(key);
                 start();
@@ -636,10 +811,6 @@ public class RList extends RCollection {
                     if (metaV.size == 1) {
                         metaV.left = metaV.right;
                     }
-                    ValueK valueK = new ValueK(key_b.length, key_b, metaV.getVersion(), metaV.right);
-                    ValueKD valueKD = valueK.convertValueBytes();
-                    //写入Value
-                    putDB(valueKD.toBytes(), v, SstColumnFamily.DEFAULT);
                     //写入Meta
                     putDB(key_b, metaV.convertMetaBytes().toBytes(), SstColumnFamily.META);
                 } else {
@@ -647,9 +818,6 @@ public class RList extends RCollection {
                         ttl = (int) (System.currentTimeMillis() / 1000 + ttl);
                     }
                     metaV = new MetaV(1, 0, 0, ttl, db.versionSequence().incr());
-                    ValueK valueK = new ValueK(key_b.length, key_b, metaV.getVersion(), metaV.right);
-                    //写入Value
-                    putDB(valueK.convertValueBytes().toBytes(), v, SstColumnFamily.DEFAULT);
 
                     //写入Meta
                     putDB(key_b, metaV.convertMetaBytes().toBytes(), SstColumnFamily.META);
@@ -658,9 +826,17 @@ public class RList extends RCollection {
                                 metaV.getTimestamp(), key_b, metaV.convertMetaBytes().toBytesHead());
                     }
                 }
-                commit();
+                //写入Value
+                if (directValue != null) {
+                    commitDirect(directKey(key_b, metaV.getVersion(), metaV.right), directValue, SstColumnFamily.DEFAULT);
+                } else {
+                    ValueK valueK = new ValueK(key_b.length, key_b, metaV.getVersion(), metaV.right);
+                    putDB(valueK.convertValueBytes().toBytes(), v, SstColumnFamily.DEFAULT);
+                    commit();
+                }
+                afterCommit(() -> waiters.signal(key));
             } finally {
-                unlock(lockEntity);
+                unlock(lockStripe);
                 release();
             }
             checkTxCommit();
@@ -671,6 +847,13 @@ public class RList extends RCollection {
     }
 
 
+    @Data
+    @AllArgsConstructor
+    public static class Pop {
+        private String key;
+        private List<byte[]> values;
+    }
+
     @Data
     @AllArgsConstructor
     public class Entry extends REntry {
@@ -702,13 +885,20 @@ public class RList extends RCollection {
 
     @Data
     public static class MetaVD extends MetaDAbs {
+        /**
+         * 编码后的字段偏移和总长度，集合的压缩过滤器按这些偏移读 meta
+         */
+        public final static int TIMESTAMP_OFFSET = 21;
+        public final static int VERSION_OFFSET = 25;
+        public final static int LENGTH = 29;
+
         public static MetaVD build(byte[] bytes) {
             MetaVD metaVD = new MetaVD();
             metaVD.setSize(ArrayKits.sub(bytes, 1, 5));
             metaVD.setLeft(ArrayKits.sub(bytes, 5, 13));
             metaVD.setRight(ArrayKits.sub(bytes, 13, 21));
-            metaVD.setTimestamp(ArrayKits.sub(bytes, 21, 25));
-            metaVD.setVersion(ArrayKits.sub(bytes, 25, 29));
+            metaVD.setTimestamp(ArrayKits.sub(bytes, TIMESTAMP_OFFSET, VERSION_OFFSET));
+            metaVD.setVersion(ArrayKits.sub(bytes, VERSION_OFFSET, LENGTH));
             return metaVD;
         }
 
@@ -5,7 +5,8 @@ import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.rocksdb.RocksIterator;
+import org.rocksdb.ReadOptions;
+import org.rocksdb.RocksDB;
 import top.thinkin.lightd.base.*;
 import top.thinkin.lightd.data.KeyEnum;
 import top.thinkin.lightd.exception.DAssert;
@@ -13,6 +14,7 @@ import top.thinkin.lightd.exception.ErrorType;
 import top.thinkin.lightd.exception.KitDBException;
 import top.thinkin.lightd.kit.ArrayKits;
 
+import java.nio.ByteBuffer;
 import java.util.*;
 
 @Slf4j
@@ -30,6 +32,17 @@ public class RMap extends RCollection {
         super(db, false, 128);
     }
 
+    private RMap(RMap live, ReadOptions readView) {
+        super(live, readView);
+    }
+
+    /**
+     * 绑定快照的只读视图
+     */
+    RMap at(ReadOptions readView) {
+        return new RMap(this, readView);
+    }
+
     protected byte[] getKey(String key) throws KitDBException {
         DAssert.notNull(key, ErrorType.NULL, "Key is null");
         return ArrayKits.addAll(HEAD_B, key.getBytes(charset));
@@ -61,12 +74,23 @@ public class RMap extends RCollection {
         putTTL(key, mkey, value, -1);
     }
 
+    /**
+     * 写入 direct 缓冲区中的值，value 的 position 会移动到 limit
+     */
+    public void put(String key, String mkey, ByteBuffer value) throws KitDBException {
+        putTTL(key, mkey, null, value, -1);
+    }
+
     public void putTTL(String key, String mkey, byte[] value, int ttl) throws KitDBException {
-        byte[] mkey_b = mkey.getBytes(charset);
+        putTTL(key, mkey, value, null, ttl);
+    }
+
+    private void putTTL(String key, String mkey, byte[] value, ByteBuffer directValue, int ttl) throws KitDBException {
+        DAssert.notNull(mkey, ErrorType.NULL, "mkey is null");
         checkTxStart();
         try (CloseLock ignored = checkClose()) {
             byte[] key_b = getKey(key);
-            LockEntity lockEntity = lock(key);
+            int lockStripe = lock(key);
             try {
                 start();
                 byte[] k_v = getDB(key_b, SstColumnFamily.META);
@@ -84,15 +108,11 @@ public class RMap extends RCollection {
 
                     metaV.size = metaV.size + 1;
                     metaV.setTimestamp(ttl);
-                    Key key_ = new Key(key_b.length, key_b, metaV.getVersion(), mkey_b);
-                    putDB(key_.convertBytes().toBytes(), value, SstColumnFamily.DEFAULT);
                     putDB(key_b, metaV.convertMetaBytes().toBytes(), SstColumnFamily.META);
                 } else {
 
                     metaV = new Meta(0, ttl, db.versionSequence().incr());
                     metaV.size = metaV.size + 1;
-                    Key key_ = new Key(key_b.length, key_b, metaV.getVersion(), mkey_b);
-                    putDB(key_.convertBytes().toBytes(), value, SstColumnFamily.DEFAULT);
                     putDB(key_b, metaV.convertMetaBytes().toBytes(), SstColumnFamily.META);
                 }
 
@@ -101,9 +121,15 @@ public class RMap extends RCollection {
                             metaV.getTimestamp(), key_b, metaV.convertMetaBytes().toBytesHead());
                 }
 
-                commit();
+                if (directValue != null) {
+                    commitDirect(directKey(key_b, metaV.getVersion(), mkey), directValue, SstColumnFamily.DEFAULT);
+                } else {
+                    Key key_ = new Key(key_b.length, key_b, metaV.getVersion(), mkey.getBytes(charset));
+                    putDB(key_.convertBytes().toBytes(), value, SstColumnFamily.DEFAULT);
+                    commit();
+                }
             } finally {
-                unlock(lockEntity);
+                unlock(lockStripe);
                 release();
             }
             checkTxCommit();
@@ -145,7 +171,7 @@ public class RMap extends RCollection {
                 bytess[i] = entries[i].value;
             }
             DAssert.isTrue(ArrayKits.noRepeate(bytess), ErrorType.REPEATED_KEY, "Repeated keys");
-            LockEntity lockEntity = lock(key);
+            int lockStripe = lock(key);
             try {
                 start();
                 byte[] k_v = getDB(key_b, SstColumnFamily.META);
@@ -170,7 +196,7 @@ public class RMap extends RCollection {
                 }
                 commit();
             } finally {
-                unlock(lockEntity);
+                unlock(lockStripe);
                 release();
             }
             checkTxCommit();
@@ -224,11 +250,73 @@ public class RMap extends RCollection {
         }
     }
 
+    /**
+     * 读取到 direct 缓冲区
+     *
+     * @return 值的实际长度，不存在返回 RocksDB.NOT_FOUND
+     */
+    public int get(String key, String mkey, ByteBuffer value) throws KitDBException {
+        try (CloseLock ignored = checkClose()) {
+            DAssert.notNull(mkey, ErrorType.NULL, "mkey is null");
+            byte[] key_b = getKey(key);
+            Meta metaV = getMeta(key_b);
+            if (metaV == null) {
+                return RocksDB.NOT_FOUND;
+            }
+            return getDB(directKey(key_b, metaV.getVersion(), mkey), value, SstColumnFamily.DEFAULT);
+        }
+    }
+
+    /**
+     * 批量读取到 direct 缓冲区，values 与 mkeys 一一对应
+     *
+     * @return 每个成员值的实际长度，不存在为 RocksDB.NOT_FOUND
+     */
+    public int[] get(String key, List<String> mkeys, List<ByteBuffer> values) throws KitDBException {
+        try (CloseLock ignored = checkClose()) {
+            DAssert.notEmpty(mkeys, ErrorType.EMPTY, "keys is empty");
+            DAssert.isTrue(mkeys.size() == values.size(), ErrorType.PARAM_ERROR, "keys and values size not match");
+            byte[] key_b = getKey(key);
+            Meta metaV = getMeta(key_b);
+            if (metaV == null) {
+                int[] sizes = new int[mkeys.size()];
+                Arrays.fill(sizes, RocksDB.NOT_FOUND);
+                return sizes;
+            }
+            int capacity = 0;
+            for (String mkey : mkeys) {
+                capacity += HEAD_KEY_B.length + 8 + key_b.length + DirectKey.utf8Length(mkey);
+            }
+            ByteBuffer buffer = DirectKey.begin(DirectKey.SLOT_BATCH, capacity);
+            List<ByteBuffer> keys = new ArrayList<>(mkeys.size());
+            for (String mkey : mkeys) {
+                int start = buffer.position();
+                putDirectKey(buffer, key_b, metaV.getVersion(), mkey);
+                ByteBuffer vkey = buffer.duplicate();
+                vkey.position(start);
+                vkey.limit(buffer.position());
+                keys.add(vkey.slice());
+            }
+            return multiGet(keys, values, SstColumnFamily.DEFAULT);
+        }
+    }
+
+    private static ByteBuffer directKey(byte[] key_b, int version, String mkey) {
+        ByteBuffer buffer = DirectKey.begin(DirectKey.SLOT_KEY,
+                HEAD_KEY_B.length + 8 + key_b.length + DirectKey.utf8Length(mkey));
+        putDirectKey(buffer, key_b, version, mkey);
+        buffer.flip();
+        return buffer;
+    }
+
+    private static void putDirectKey(ByteBuffer buffer, byte[] key_b, int version, String mkey) {
+        buffer.put(HEAD_KEY_B).putInt(key_b.length).put(key_b).putInt(version);
+        DirectKey.putUtf8(buffer, mkey);
+    }
+
     private Meta getMetaP(byte[] key_b) throws KitDBException {
-        byte[] k_v = this.getDB(key_b, SstColumnFamily.META);
-        if (k_v == null) return null;
-        Meta metaV = MetaD.build(k_v).convertMeta();
-        return metaV;
+        return loadMeta(key_b, k_v -> MetaD.build(k_v).convertMeta(),
+                m -> new Meta(m.getSize(), m.getTimestamp(), m.getVersion()));
     }
 
     protected Meta getMeta(byte[] key_b) throws KitDBException {
@@ -248,7 +336,7 @@ public class RMap extends RCollection {
         try (CloseLock ignored = checkClose()) {
             DAssert.notEmpty(keys, ErrorType.EMPTY, "keys is empty");
             byte[] key_b = getKey(key);
-            LockEntity lockEntity = lock(key);
+            int lockStripe = lock(key);
             try {
                 Meta metaV = getMeta(key_b);
                 if (metaV == null) {
@@ -256,20 +344,23 @@ public class RMap extends RCollection {
                     return;
                 }
                 start();
-                for (String mkey : keys) {
+                List<byte[]> vkeys = new ArrayList<>(keys.length);
+                for (String mkey : new LinkedHashSet<>(Arrays.asList(keys))) {
                     byte[] mkey_b = mkey.getBytes(charset);
                     Key vkey = new Key(key_b.length, key_b, metaV.getVersion(), mkey_b);
-
-                    byte[] value = getDB(vkey.convertBytes().toBytes(), SstColumnFamily.DEFAULT);
-                    if (value != null) {
-                        deleteDB(vkey.convertBytes().toBytes(), SstColumnFamily.DEFAULT);
+                    vkeys.add(vkey.convertBytes().toBytes());
+                }
+                List<byte[]> values = multiGetAsList(vkeys, SstColumnFamily.DEFAULT);
+                for (int i = 0; i < vkeys.size(); i++) {
+                    if (values.get(i) != null) {
+                        deleteDB(vkeys.get(i), SstColumnFamily.DEFAULT);
                         metaV.size = metaV.size - 1;
                     }
                 }
                 putDB(key_b, metaV.convertMetaBytes().toBytes(), SstColumnFamily.META);
                 commit();
             } finally {
-                unlock(lockEntity);
+                unlock(lockStripe);
                 release();
             }
             checkTxCommit();
@@ -303,7 +394,7 @@ public class RMap extends RCollection {
     public void delete(String key) throws KitDBException {
         checkTxRange();
         try (CloseLock ignored = checkClose()) {
-            LockEntity lockEntity = lock(key);
+            int lockStripe = lock(key);
             try {
                 byte[] key_b = getKey(key);
                 Meta meta = getMeta(key_b);
@@ -317,7 +408,7 @@ public class RMap extends RCollection {
                 delete(key_b, meta);
                 commit();
             } finally {
-                unlock(lockEntity);
+                unlock(lockStripe);
                 release();
             }
             checkTxCommit();
@@ -334,10 +425,19 @@ public class RMap extends RCollection {
         }
     }
 
+    /**
+     * @param cursor 上一个 KeyIterator 的 getCursor，为 null 时从头开始
+     */
+    public KeyIterator getKeyIterator(byte[] cursor) throws KitDBException {
+        try (CloseLock ignored = checkClose()) {
+            return getKeyIterator(HEAD_B, cursor);
+        }
+    }
+
 
     protected void deleteTTL(int time, byte[] key_b, byte[] meta_b) throws KitDBException {
         String key = new String(ArrayKits.sub(key_b, 1, key_b.length + 1), charset);
-        LockEntity lockEntity = lock(key);
+        int lockStripe = lock(key);
         try (CloseLock ignored = checkClose()) {
             Meta meta = getMetaP(key_b);
             if (meta == null || time != meta.timestamp) {
@@ -345,14 +445,14 @@ public class RMap extends RCollection {
             }
             deleteTTL(key_b, MetaD.build(meta_b).convertMeta(), meta.version);
         } finally {
-            unlock(lockEntity);
+            unlock(lockStripe);
         }
     }
 
     public void deleteFast(String key) throws KitDBException {
         checkTxStart();
         try (CloseLock ignored = checkClose()) {
-            LockEntity lockEntity = lock(key);
+            int lockStripe = lock(key);
             try {
                 byte[] key_b = getKey(key);
                 Meta metaV = getMeta(key_b);
@@ -362,7 +462,7 @@ public class RMap extends RCollection {
                 }
                 deleteFast(key_b, metaV);
             } finally {
-                unlock(lockEntity);
+                unlock(lockStripe);
             }
             checkTxCommit();
         } catch (KitDBException e) {
@@ -381,23 +481,42 @@ public class RMap extends RCollection {
             }
 
             Key k_seek = new Key(key_b.length, key_b, metaV.getVersion(), null);
-            RocksIterator iterator = newIterator(SstColumnFamily.DEFAULT);
-            iterator.seek(k_seek.getHead());
-            RIterator<RMap> rIterator = new RIterator<>(iterator, this, k_seek.getHead());
-            return rIterator;
+            byte[] head = k_seek.getHead();
+            BoundedIterator bounded = newIterator(SstColumnFamily.DEFAULT, head);
+            bounded.iterator.seek(head);
+            return new RIterator<>(bounded, this, head);
         }
     }
 
-    @Override
-    public Entry getEntry(RocksIterator iterator) throws KitDBException {
+    /**
+     * 从游标之后继续遍历，RocksDB 在集合边界处停止
+     *
+     * @param cursor 上一个迭代器的 getCursor，为 null 时从头开始
+     */
+    public RIterator<RMap> iterator(String key, byte[] cursor) throws KitDBException {
         try (CloseLock ignored = checkClose()) {
-            byte[] key_bs = iterator.key();
-            if (key_bs == null) {
+            byte[] key_b = getKey(key);
+            Meta metaV = getMeta(key_b);
+            if (metaV == null) {
                 return null;
             }
+            byte[] head = new Key(key_b.length, key_b, metaV.getVersion(), null).getHead();
+            BoundedIterator bounded = newIterator(SstColumnFamily.DEFAULT, head);
+            try {
+                bounded.seek(head, cursor);
+            } catch (KitDBException e) {
+                bounded.close();
+                throw e;
+            }
+            return new RIterator<>(bounded, this, head);
+        }
+    }
 
+    @Override
+    public Entry getEntry(byte[] key_bs, byte[] value) throws KitDBException {
+        try (CloseLock ignored = checkClose()) {
             KeyD keyD = KeyD.build(key_bs);
-            Entry entry = new Entry(new String(keyD.key, charset), iterator.value());
+            Entry entry = new Entry(new String(keyD.key, charset), value);
             return entry;
         }
     }
@@ -425,7 +544,7 @@ public class RMap extends RCollection {
         try (CloseLock ignored = checkClose()) {
 
             byte[] key_b = getKey(key);
-            LockEntity lockEntity = lock(key);
+            int lockStripe = lock(key);
             try {
                 Meta metaV = getMeta(key_b);
                 if (metaV == null) {
@@ -440,7 +559,7 @@ public class RMap extends RCollection {
                 putDB(key_b, metaV.convertMetaBytes().toBytes(), SstColumnFamily.META);
                 commit();
             } finally {
-                unlock(lockEntity);
+                unlock(lockStripe);
                 release();
             }
             checkTxCommit();
@@ -455,7 +574,7 @@ public class RMap extends RCollection {
         checkTxStart();
         try (CloseLock ignored = checkClose()) {
             byte[] key_b = getKey(key);
-            LockEntity lockEntity = lock(key);
+            int lockStripe = lock(key);
             try {
                 Meta metaV = getMeta(key_b);
                 if (metaV == null) {
@@ -470,7 +589,7 @@ public class RMap extends RCollection {
                         metaV.getTimestamp(), key_b, metaV.convertMetaBytes().toBytesHead());
                 commit();
             } finally {
-                unlock(lockEntity);
+                unlock(lockStripe);
                 release();
             }
             checkTxCommit();
@@ -484,9 +603,7 @@ public class RMap extends RCollection {
     public boolean isExist(String key) throws KitDBException {
         try (CloseLock ignored = checkClose()) {
             byte[] key_b = getKey(key);
-
-            byte[] k_v = getDB(key_b, SstColumnFamily.META);
-            Meta meta = addCheck(key_b, k_v);
+            Meta meta = getMeta(key_b);
             return meta != null;
         }
     }
@@ -534,6 +651,13 @@ public class RMap extends RCollection {
     @AllArgsConstructor
     @NoArgsConstructor
     public static class MetaD extends MetaDAbs {
+        /**
+         * 编码后的字段偏移和总长度，集合的压缩过滤器按这些偏移读 meta
+         */
+        public final static int TIMESTAMP_OFFSET = 5;
+        public final static int VERSION_OFFSET = 9;
+        public final static int LENGTH = 13;
+
         private byte[] size;
         private byte[] timestamp;
         private byte[] version;
@@ -548,8 +672,8 @@ public class RMap extends RCollection {
         public static MetaD build(byte[] bytes) {
             MetaD metaD = new MetaD();
             metaD.setSize(ArrayKits.sub(bytes, 1, 5));
-            metaD.setTimestamp(ArrayKits.sub(bytes, 5, 9));
-            metaD.setVersion(ArrayKits.sub(bytes, 9, 13));
+            metaD.setTimestamp(ArrayKits.sub(bytes, TIMESTAMP_OFFSET, VERSION_OFFSET));
+            metaD.setVersion(ArrayKits.sub(bytes, VERSION_OFFSET, LENGTH));
             return metaD;
         }
 
@@ -4,6 +4,7 @@ package top.thinkin.lightd.db;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import org.rocksdb.ReadOptions;
 import org.rocksdb.RocksIterator;
 import top.thinkin.lightd.base.*;
 import top.thinkin.lightd.data.KeyEnum;
@@ -13,8 +14,11 @@ import top.thinkin.lightd.exception.KitDBException;
 import top.thinkin.lightd.kit.ArrayKits;
 import top.thinkin.lightd.kit.BytesUtil;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 public class RSet extends RCollection {
     public final static String HEAD = KeyEnum.SET.getKey();
@@ -31,6 +35,17 @@ public class RSet extends RCollection {
         super(db, false, 128);
     }
 
+    private RSet(RSet live, ReadOptions readView) {
+        super(live, readView);
+    }
+
+    /**
+     * 绑定快照的只读视图
+     */
+    RSet at(ReadOptions readView) {
+        return new RSet(this, readView);
+    }
+
     protected byte[] getKey(String key) throws KitDBException {
         DAssert.notNull(key, ErrorType.NULL, "Key is null");
         return ArrayKits.addAll(HEAD_B, key.getBytes(charset));
@@ -47,7 +62,7 @@ public class RSet extends RCollection {
     public List<byte[]> pop(String key, int num) throws KitDBException {
         checkTxStart();
         try (CloseLock ignored = checkClose()) {
-            LockEntity lockEntity = lock(key);
+            int lockStripe = lock(key);
             try {
                 List<byte[]> values = new ArrayList<>();
                 byte[] key_b = getKey(key);
@@ -80,7 +95,7 @@ public class RSet extends RCollection {
                     return values;
                 }
             } finally {
-                unlock(lockEntity);
+                unlock(lockStripe);
                 release();
             }
         } catch (KitDBException e) {
@@ -99,7 +114,7 @@ public class RSet extends RCollection {
         checkTxStart();
         try (CloseLock ignored = checkClose()) {
             DAssert.notEmpty(values, ErrorType.EMPTY, "values is empty");
-            LockEntity lockEntity = lock(key);
+            int lockStripe = lock(key);
             try {
                 byte[] key_b = getKey(key);
                 MetaV metaV = getMeta(key_b);
@@ -107,13 +122,20 @@ public class RSet extends RCollection {
                     checkTxCommit();
                     return;
                 }
-                List<byte[]> dels = new ArrayList<>();
+                Set<ByteBuffer> unique = new LinkedHashSet<>();
                 for (byte[] v : values) {
-                    SData sData = new SData(key_b.length, key_b, metaV.getVersion(), v);
-                    SDataD sDataD = sData.convertBytes();
-                    byte[] scoreD = getDB(sDataD.toBytes(), SstColumnFamily.DEFAULT);
-                    if (scoreD != null) {
-                        dels.add(sDataD.toBytes());
+                    unique.add(ByteBuffer.wrap(v));
+                }
+                List<byte[]> members = new ArrayList<>(unique.size());
+                for (ByteBuffer v : unique) {
+                    SData sData = new SData(key_b.length, key_b, metaV.getVersion(), v.array());
+                    members.add(sData.convertBytes().toBytes());
+                }
+                List<byte[]> scores = multiGetAsList(members, SstColumnFamily.DEFAULT);
+                List<byte[]> dels = new ArrayList<>();
+                for (int i = 0; i < members.size(); i++) {
+                    if (scores.get(i) != null) {
+                        dels.add(members.get(i));
                     }
                 }
 
@@ -121,8 +143,8 @@ public class RSet extends RCollection {
                 removeDo(metaV, dels);
                 putDB(key_b, metaV.convertMetaBytes().toBytes(), SstColumnFamily.META);
                 commit();
-            } catch (Exception e) {
-                unlock(lockEntity);
+            } finally {
+                unlock(lockStripe);
                 release();
             }
             checkTxCommit();
@@ -158,7 +180,7 @@ public class RSet extends RCollection {
             DAssert.isTrue(ArrayKits.noRepeate(values), ErrorType.REPEATED_KEY, "Repeated memebers");
             byte[] key_b = getKey(key);
 
-            LockEntity lockEntity = lock(key);
+            int lockStripe = lock(key);
             try {
                 start();
                 byte[] k_v = getDB(key_b, SstColumnFamily.META);
@@ -181,7 +203,7 @@ public class RSet extends RCollection {
                 }
                 commit();
             } finally {
-                unlock(lockEntity);
+                unlock(lockStripe);
                 release();
             }
             checkTxCommit();
@@ -215,7 +237,7 @@ public class RSet extends RCollection {
 
     protected void deleteTTL(int time, byte[] key_b, byte[] meta_b) throws KitDBException {
         String key = new String(ArrayKits.sub(key_b, 1, key_b.length + 1), charset);
-        LockEntity lockEntity = lock(key);
+        int lockStripe = lock(key);
         try (CloseLock ignored = checkClose()) {
             MetaV metaV = getMetaP(key_b);
             if (metaV == null || time != metaV.timestamp) {
@@ -224,7 +246,7 @@ public class RSet extends RCollection {
             MetaV metaV1 = MetaD.build(meta_b).convertMetaV();
             deleteTTL(key_b, metaV1, metaV.version);
         } finally {
-            unlock(lockEntity);
+            unlock(lockStripe);
         }
     }
 
@@ -232,7 +254,7 @@ public class RSet extends RCollection {
     @Override
     public void delete(String key) throws KitDBException {
         checkTxRange();
-        LockEntity lockEntity = lock(key);
+        int lockStripe = lock(key);
         try (CloseLock ignored = checkClose()) {
             byte[] key_b = getKey(key);
             try {
@@ -246,7 +268,7 @@ public class RSet extends RCollection {
                 delete(key_b, metaV.convertMetaBytes());
                 commit();
             } finally {
-                unlock(lockEntity);
+                unlock(lockStripe);
                 release();
             }
             checkTxCommit();
@@ -263,9 +285,18 @@ public class RSet extends RCollection {
         }
     }
 
+    /**
+     * @param cursor 上一个 KeyIterator 的 getCursor，为 null 时从头开始
+     */
+    public KeyIterator getKeyIterator(byte[] cursor) throws KitDBException {
+        try (CloseLock ignored = checkClose()) {
+            return getKeyIterator(HEAD_B, cursor);
+        }
+    }
+
     public void deleteFast(String key) throws KitDBException {
         checkTxStart();
-        LockEntity lockEntity = lock(key);
+        int lockStripe = lock(key);
         try (CloseLock ignored = checkClose()) {
             byte[] key_b = getKey(key);
             byte[] k_v = getDB(key_b, SstColumnFamily.META);
@@ -277,7 +308,7 @@ public class RSet extends RCollection {
             try {
                 deleteFast(key_b, meta);
             } finally {
-                unlock(lockEntity);
+                unlock(lockStripe);
             }
             checkTxCommit();
         } catch (KitDBException e) {
@@ -296,9 +327,10 @@ public class RSet extends RCollection {
                 return null;
             }
             SData sData = new SData(key_b.length, key_b, metaV.getVersion(), "".getBytes());
-            RocksIterator iterator = newIterator(SstColumnFamily.DEFAULT);
-            iterator.seek(sData.getHead());
-            return new RIterator<>(iterator, this, sData.getHead());
+            byte[] head = sData.getHead();
+            BoundedIterator bounded = newIterator(SstColumnFamily.DEFAULT, head);
+            bounded.iterator.seek(head);
+            return new RIterator<>(bounded, this, head);
         }
     }
 
@@ -321,7 +353,7 @@ public class RSet extends RCollection {
     @Override
     public void delTtl(String key) throws KitDBException {
         checkTxStart();
-        LockEntity lockEntity = lock(key);
+        int lockStripe = lock(key);
         try (CloseLock ignored = checkClose()) {
             try {
                 byte[] key_b = getKey(key);
@@ -337,7 +369,7 @@ public class RSet extends RCollection {
                 putDB(key_b, metaV.convertMetaBytes().toBytes(), SstColumnFamily.META);
                 commit();
             } finally {
-                unlock(lockEntity);
+                unlock(lockStripe);
                 release();
             }
             checkTxCommit();
@@ -350,7 +382,7 @@ public class RSet extends RCollection {
     @Override
     public void ttl(String key, int ttl) throws KitDBException {
         checkTxStart();
-        LockEntity lockEntity = lock(key);
+        int lockStripe = lock(key);
         try (CloseLock ignored = checkClose()) {
             try {
                 byte[] key_b = getKey(key);
@@ -368,7 +400,7 @@ public class RSet extends RCollection {
                         metaV.getTimestamp(), key_b, metaV.convertMetaBytes().toBytesHead());
                 commit();
             } finally {
-                unlock(lockEntity);
+                unlock(lockStripe);
                 release();
             }
             checkTxCommit();
@@ -397,12 +429,8 @@ public class RSet extends RCollection {
     }
 
     @Override
-    public Entry getEntry(RocksIterator iterator) throws KitDBException {
+    public Entry getEntry(byte[] key_bs, byte[] value) throws KitDBException {
         try (CloseLock ignored = checkClose()) {
-            byte[] key_bs = iterator.key();
-            if (key_bs == null) {
-                return null;
-            }
             SData sData = SDataD.build(key_bs).convertValue();
             Entry entry = new Entry(sData.value);
             return entry;
@@ -452,10 +480,8 @@ public class RSet extends RCollection {
 
 
     private MetaV getMetaP(byte[] key_b) throws KitDBException {
-        byte[] k_v = this.getDB(key_b, SstColumnFamily.META);
-        if (k_v == null) return null;
-        MetaV metaV = MetaD.build(k_v).convertMetaV();
-        return metaV;
+        return loadMeta(key_b, k_v -> MetaD.build(k_v).convertMetaV(),
+                m -> new MetaV(m.getSize(), m.getTimestamp(), m.getVersion()));
     }
 
     @Override
@@ -500,6 +526,13 @@ public class RSet extends RCollection {
     @AllArgsConstructor
     @NoArgsConstructor
     public static class MetaD extends MetaDAbs {
+        /**
+         * 编码后的字段偏移和总长度，集合的压缩过滤器按这些偏移读 meta
+         */
+        public final static int TIMESTAMP_OFFSET = 5;
+        public final static int VERSION_OFFSET = 9;
+        public final static int LENGTH = 13;
+
         private byte[] size;
         private byte[] timestamp;
         private byte[] version;
@@ -507,8 +540,8 @@ public class RSet extends RCollection {
         public static MetaD build(byte[] bytes) {
             MetaD metaD = new MetaD();
             metaD.setSize(ArrayKits.sub(bytes, 1, 5));
-            metaD.setTimestamp(ArrayKits.sub(bytes, 5, 9));
-            metaD.setVersion(ArrayKits.sub(bytes, 9, 13));
+            metaD.setTimestamp(ArrayKits.sub(bytes, TIMESTAMP_OFFSET, VERSION_OFFSET));
+            metaD.setVersion(ArrayKits.sub(bytes, VERSION_OFFSET, LENGTH));
             return metaD;
         }
 
@@ -1,22 +1,53 @@
 package top.thinkin.lightd.db;
 
+import org.rocksdb.ReadOptions;
+import org.rocksdb.RocksDB;
 import org.rocksdb.Snapshot;
 
+/**
+ * RocksDB 快照，通过 DB.at 得到绑定该快照的只读视图
+ * <p>
+ * 关闭时释放快照，之后视图上的读取会报错
+ */
 public class RSnapshot implements AutoCloseable {
+    private final RocksDB rocksDB;
     private Snapshot snapshot;
+    private final ReadOptions readOptions;
+    /**
+     * 快照时 RKv 的旧布局迁移进度
+     */
+    final boolean kvLegacy;
+    final byte[] kvMigrated;
 
-    protected RSnapshot(Snapshot snapshot) {
+    protected RSnapshot(RocksDB rocksDB, Snapshot snapshot) {
+        this(rocksDB, snapshot, false, null);
+    }
+
+    RSnapshot(RocksDB rocksDB, Snapshot snapshot, boolean kvLegacy, byte[] kvMigrated) {
+        this.rocksDB = rocksDB;
         this.snapshot = snapshot;
+        this.readOptions = new ReadOptions().setSnapshot(snapshot);
+        this.kvLegacy = kvLegacy;
+        this.kvMigrated = kvMigrated;
     }
 
     public Snapshot getSnapshot() {
         return snapshot;
     }
 
+    /**
+     * 绑定了该快照的读选项
+     */
+    ReadOptions getReadOptions() {
+        return readOptions;
+    }
+
     @Override
-    public void close() throws Exception {
+    public synchronized void close() throws Exception {
         if (snapshot != null) {
-            snapshot.close();
+            readOptions.close();
+            rocksDB.releaseSnapshot(snapshot);
+            snapshot = null;
         }
     }
 }
@@ -0,0 +1,68 @@
+package top.thinkin.lightd.db;
+
+import top.thinkin.lightd.kit.ArrayKits;
+import top.thinkin.lightd.kit.BytesUtil;
+
+/**
+ * ZSet 分数的编码，每个集合的编码记录在排名索引的标记值里
+ * <p>
+ * 分数以 long 传入，double 分数传 Double.doubleToLongBits
+ */
+enum ScoreCodec {
+    /**
+     * 补码大端，负数按字节序排在正数之后
+     */
+    LEGACY,
+    /**
+     * 翻转符号位，字节序与数值序一致
+     */
+    LONG,
+    /**
+     * IEEE-754 变换：正数翻转符号位，负数按位取反
+     */
+    DOUBLE;
+
+    static ScoreCodec of(byte[] marker) {
+        if (marker == null || marker.length == 0) {
+            return LEGACY;
+        }
+        return values()[marker[0]];
+    }
+
+    byte[] marker() {
+        return new byte[]{(byte) ordinal()};
+    }
+
+    byte[] encode(long raw) {
+        switch (this) {
+            case LONG:
+                return ArrayKits.longToBytes(raw ^ Long.MIN_VALUE);
+            case DOUBLE:
+                return ArrayKits.longToBytes(raw < 0 ? ~raw : raw ^ Long.MIN_VALUE);
+            default:
+                return ArrayKits.longToBytes(raw);
+        }
+    }
+
+    long decode(byte[] bytes) {
+        long v = ArrayKits.bytesToLong(bytes);
+        switch (this) {
+            case LONG:
+                return v ^ Long.MIN_VALUE;
+            case DOUBLE:
+                return v < 0 ? v ^ Long.MIN_VALUE : ~v;
+            default:
+                return v;
+        }
+    }
+
+    /**
+     * 按分数大小比较两个已编码的分数
+     */
+    int compare(byte[] a, byte[] b) {
+        if (this == LEGACY) {
+            return Long.compare(ArrayKits.bytesToLong(a), ArrayKits.bytesToLong(b));
+        }
+        return BytesUtil.compare(a, b);
+    }
+}
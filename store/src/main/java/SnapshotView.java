@@ -0,0 +1,46 @@
+package top.thinkin.lightd.db;
+
+import org.rocksdb.ReadOptions;
+
+/**
+ * 绑定快照的只读视图，由 DB.at 创建
+ * <p>
+ * 各结构的 get、multiGet 和迭代器都带上快照的 ReadOptions，多个 key、多个结构之间的读取一致，
+ * 不需要开启事务。视图上的写入会报错，快照关闭后视图不可再用。
+ */
+public final class SnapshotView {
+    private final RKv rKv;
+    private final RMap map;
+    private final RSet set;
+    private final RList list;
+    private final ZSet zSet;
+
+    SnapshotView(DB db, RSnapshot snapshot) {
+        ReadOptions readView = snapshot.getReadOptions();
+        this.rKv = db.getrKv().at(snapshot);
+        this.map = db.getMap().at(readView);
+        this.set = db.getSet().at(readView);
+        this.list = db.getList().at(readView);
+        this.zSet = db.getzSet().at(readView);
+    }
+
+    public RKv getrKv() {
+        return rKv;
+    }
+
+    public RMap getMap() {
+        return map;
+    }
+
+    public RSet getSet() {
+        return set;
+    }
+
+    public RList getList() {
+        return list;
+    }
+
+    public ZSet getzSet() {
+        return zSet;
+    }
+}
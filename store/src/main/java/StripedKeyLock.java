@@ -0,0 +1,178 @@
+package top.thinkin.lightd.db;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * 按 key 哈希分片的 StampedLock
+ * <p>
+ * 加锁只返回分片号，写锁的 stamp 存在锁内部，加解锁不产生对象。
+ * 分片锁不可重入，同一线程不能在持有时再次锁同一分片。
+ */
+public class StripedKeyLock {
+
+    public final static int DEFAULT_STRIPES = Integer.getInteger("kitdb.lock.stripes", 4096);
+
+    /**
+     * stamp 按缓存行间隔存放，避免相邻分片伪共享
+     */
+    private final static int PAD = 8;
+
+    private final StampedLock[] locks;
+    private final long[] stamps;
+    private final int mask;
+
+    private final AtomicLongArray collisions;
+    private final LongAdder acquisitions = new LongAdder();
+    private final LongAdder contended = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final LongAdder optimisticHits = new LongAdder();
+    private final LongAdder optimisticMisses = new LongAdder();
+
+    public StripedKeyLock() {
+        this(DEFAULT_STRIPES);
+    }
+
+    /**
+     * @param stripes 分片数，向上取整到 2 的幂
+     */
+    public StripedKeyLock(int stripes) {
+        int size = stripes <= 1 ? 1 : Integer.highestOneBit(stripes - 1) << 1;
+        this.mask = size - 1;
+        this.locks = new StampedLock[size];
+        for (int i = 0; i < size; i++) {
+            locks[i] = new StampedLock();
+        }
+        this.stamps = new long[size * PAD];
+        this.collisions = new AtomicLongArray(size);
+    }
+
+    public int stripe(String key) {
+        int h = key.hashCode();
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    /**
+     * 加写锁
+     *
+     * @return 分片号，解锁时传回
+     */
+    public int lock(String key) {
+        int stripe = stripe(key);
+        lockStripe(stripe);
+        return stripe;
+    }
+
+    public void lockStripe(int stripe) {
+        StampedLock lock = locks[stripe];
+        long stamp = lock.tryWriteLock();
+        if (stamp == 0) {
+            collisions.incrementAndGet(stripe);
+            contended.increment();
+            long start = System.nanoTime();
+            stamp = lock.writeLock();
+            waitNanos.add(System.nanoTime() - start);
+        }
+        stamps[stripe * PAD] = stamp;
+        acquisitions.increment();
+    }
+
+    /**
+     * 限时加写锁，超时返回 false
+     */
+    public boolean tryLockStripe(int stripe, long timeoutMillis) throws InterruptedException {
+        StampedLock lock = locks[stripe];
+        long stamp = lock.tryWriteLock();
+        if (stamp == 0) {
+            collisions.incrementAndGet(stripe);
+            contended.increment();
+            long start = System.nanoTime();
+            stamp = lock.tryWriteLock(timeoutMillis, TimeUnit.MILLISECONDS);
+            waitNanos.add(System.nanoTime() - start);
+            if (stamp == 0) {
+                return false;
+            }
+        }
+        stamps[stripe * PAD] = stamp;
+        acquisitions.increment();
+        return true;
+    }
+
+    public void unlock(int stripe) {
+        locks[stripe].unlockWrite(stamps[stripe * PAD]);
+    }
+
+    /**
+     * 乐观读，分片正被写锁持有时返回 0
+     */
+    public long tryOptimisticRead(int stripe) {
+        return locks[stripe].tryOptimisticRead();
+    }
+
+    public boolean validate(int stripe, long stamp) {
+        return locks[stripe].validate(stamp);
+    }
+
+    /**
+     * 乐观读期间没有写入时直接升级为写锁
+     *
+     * @return false 表示读到的数据可能已过期，需要加锁后重读
+     */
+    public boolean tryConvertToWriteLock(int stripe, long stamp) {
+        long ws = stamp == 0 ? 0 : locks[stripe].tryConvertToWriteLock(stamp);
+        if (ws == 0) {
+            optimisticMisses.increment();
+            return false;
+        }
+        stamps[stripe * PAD] = ws;
+        acquisitions.increment();
+        optimisticHits.increment();
+        return true;
+    }
+
+    public int getStripes() {
+        return locks.length;
+    }
+
+    public long getAcquisitions() {
+        return acquisitions.sum();
+    }
+
+    /**
+     * 需要等待的加锁次数
+     */
+    public long getContended() {
+        return contended.sum();
+    }
+
+    public long getWaitMicros() {
+        return waitNanos.sum() / 1000;
+    }
+
+    public long getCollisions(int stripe) {
+        return collisions.get(stripe);
+    }
+
+    /**
+     * 冲突次数最多的分片
+     */
+    public int getHottestStripe() {
+        int hottest = 0;
+        for (int i = 1; i < locks.length; i++) {
+            if (collisions.get(i) > collisions.get(hottest)) {
+                hottest = i;
+            }
+        }
+        return hottest;
+    }
+
+    public long getOptimisticHits() {
+        return optimisticHits.sum();
+    }
+
+    public long getOptimisticMisses() {
+        return optimisticMisses.sum();
+    }
+}
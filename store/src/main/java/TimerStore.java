@@ -3,11 +3,9 @@ package top.thinkin.lightd.db;
 
 import lombok.Data;
 import org.rocksdb.RocksDBException;
-import org.rocksdb.RocksIterator;
 import org.rocksdb.WriteBatch;
 import top.thinkin.lightd.base.SstColumnFamily;
 import top.thinkin.lightd.kit.ArrayKits;
-import top.thinkin.lightd.kit.BytesUtil;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -38,24 +36,23 @@ public class TimerStore {
         List<TData> entries = new ArrayList<>();
         List<byte[]> dels = new ArrayList<>();
 
-        try (final RocksIterator iterator = db.newIterator(SstColumnFamily.DEFAULT)) {
-            iterator.seek(ArrayKits.addAll(getHead(head), ArrayKits.intToBytes(start)));
-            long index = 0;
+        byte[] head_b = getHead(head);
+        try (final BoundedIterator bounded = db.newIterator(SstColumnFamily.DEFAULT, head_b);
+             final BatchIterator batchIterator = new BatchIterator(bounded.iterator, db.getBufferPool(), false, limit)) {
+            bounded.iterator.seek(ArrayKits.addAll(head_b, ArrayKits.intToBytes(start)));
             int count = 0;
-            while (iterator.isValid() && index <= end && count < limit) {
-                byte[] key_bs = iterator.key();
-                if (!BytesUtil.checkHead(getHead(head), key_bs)) break;
-                TData tData = new TData();
-                tData.setTime(ArrayKits.bytesToInt(ArrayKits.sub(key_bs, 3, 7), 0));
-                tData.setValue(ArrayKits.sub(key_bs, 7, key_bs.length));
-                index = tData.getTime();
-                if (index > end) {
+            while (count < limit && batchIterator.next()) {
+                if (!batchIterator.keyStartsWith(head_b)) break;
+                int time = batchIterator.keyInt(3);
+                if (time > end) {
                     break;
                 }
+                TData tData = new TData();
+                tData.setTime(time);
+                tData.setValue(batchIterator.key(7));
                 entries.add(tData);
-                dels.add(key_bs);
+                dels.add(batchIterator.key());
                 count++;
-                iterator.next();
             }
         }
         function.call(entries);
@@ -72,6 +69,7 @@ public class TimerStore {
         } catch (Exception e) {
             throw e;
         }
+        db.compactionScheduler.mark(dels.get(0), dels.get(dels.size() - 1), SstColumnFamily.DEFAULT);
 
         return entries;
 
@@ -82,24 +80,23 @@ public class TimerStore {
         List<TData> entries = new ArrayList<>();
         List<byte[]> dels = new ArrayList<>();
 
-        try (final RocksIterator iterator = db.newIterator(SstColumnFamily.DEFAULT)) {
-            iterator.seek(ArrayKits.addAll(getHead(head), ArrayKits.intToBytes(start)));
-            long index = 0;
+        byte[] head_b = getHead(head);
+        try (final BoundedIterator bounded = db.newIterator(SstColumnFamily.DEFAULT, head_b);
+             final BatchIterator batchIterator = new BatchIterator(bounded.iterator, db.getBufferPool(), false, limit)) {
+            bounded.iterator.seek(ArrayKits.addAll(head_b, ArrayKits.intToBytes(start)));
             int count = 0;
-            while (iterator.isValid() && index <= end && count < limit) {
-                byte[] key_bs = iterator.key();
-                if (!BytesUtil.checkHead(getHead(head), key_bs)) break;
-                TData tData = new TData();
-                tData.setTime(ArrayKits.bytesToInt(ArrayKits.sub(key_bs, 3, 7), 0));
-                tData.setValue(ArrayKits.sub(key_bs, 7, key_bs.length));
-                index = tData.getTime();
-                if (index > end) {
+            while (count < limit && batchIterator.next()) {
+                if (!batchIterator.keyStartsWith(head_b)) break;
+                int time = batchIterator.keyInt(3);
+                if (time > end) {
                     break;
                 }
+                TData tData = new TData();
+                tData.setTime(time);
+                tData.setValue(batchIterator.key(7));
                 entries.add(tData);
-                dels.add(key_bs);
+                dels.add(batchIterator.key());
                 count++;
-                iterator.next();
             }
         }
 
@@ -114,6 +111,7 @@ public class TimerStore {
         } catch (Exception e) {
             throw e;
         }
+        db.compactionScheduler.mark(dels.get(0), dels.get(dels.size() - 1), SstColumnFamily.DEFAULT);
 
         return entries;
 
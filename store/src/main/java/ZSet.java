@@ -5,6 +5,7 @@ import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.rocksdb.ReadOptions;
 import org.rocksdb.RocksIterator;
 import top.thinkin.lightd.base.*;
 import top.thinkin.lightd.data.KeyEnum;
@@ -14,8 +15,15 @@ import top.thinkin.lightd.exception.KitDBException;
 import top.thinkin.lightd.kit.ArrayKits;
 import top.thinkin.lightd.kit.BytesUtil;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Slf4j
 public class ZSet extends RCollection {
@@ -23,6 +31,23 @@ public class ZSet extends RCollection {
     public static byte[] HEAD_B = HEAD.getBytes();
     public static byte[] HEAD_SCORE_B = KeyEnum.ZSET_S.getBytes();
     public static byte[] HEAD_V_B = KeyEnum.ZSET_V.getBytes();
+    /**
+     * 排名索引，按分数字节逐级计数：第 L 级节点为分数的前 L+1 个字节，值为该前缀下的成员数
+     */
+    public static byte[] HEAD_RANK_B = KeyEnum.ZSET_RANK.getBytes();
+
+    private final static int RANK_LEVELS = 8;
+
+    /**
+     * 旧编码中负分数的最小首字节
+     */
+    private final static byte[] NEGATIVE = {(byte) 0x80};
+
+    /**
+     * 编码标记的写入次数，getEntry 的线程内缓存据此失效
+     */
+    private final AtomicLong markerEpoch = new AtomicLong(0);
+    private final ThreadLocal<CodecCache> codecCache = ThreadLocal.withInitial(CodecCache::new);
 
     @Override
     protected TxLock getTxLock(String key) {
@@ -34,6 +59,17 @@ public class ZSet extends RCollection {
         super(db, false, 128);
     }
 
+    private ZSet(ZSet live, ReadOptions readView) {
+        super(live, readView);
+    }
+
+    /**
+     * 绑定快照的只读视图
+     */
+    ZSet at(ReadOptions readView) {
+        return new ZSet(this, readView);
+    }
+
 
     protected byte[] getKey(String key) throws KitDBException {
         DAssert.notNull(key, ErrorType.NULL, "Key is null");
@@ -54,6 +90,25 @@ public class ZSet extends RCollection {
         addMayTTL(key, ttl, new Entry(score, v));
     }
 
+    /**
+     * 以 double 分数加入成员，集合的分数类型在第一次写入时确定，之后不能混用 long 分数
+     */
+    public void add(String key, byte[] v, double score) throws KitDBException {
+        add(key, new DoubleEntry(score, v));
+    }
+
+    public void add(String key, DoubleEntry... entries) throws KitDBException {
+        byte[][] values = new byte[entries.length][];
+        long[] raws = new long[entries.length];
+        for (int i = 0; i < entries.length; i++) {
+            DAssert.isTrue(!Double.isNaN(entries[i].score), ErrorType.PARAM_ERROR, "score is NaN");
+            values[i] = entries[i].value;
+            // -0.0 与 0.0 按同一分数存储
+            raws[i] = Double.doubleToLongBits(entries[i].score + 0.0);
+        }
+        addMayTTL(key, -1, true, values, raws);
+    }
+
 
     private void addMayTTL(final String key, int ttl, List<Entry> entryList) throws KitDBException {
         Entry[] entries = new Entry[entryList.size()];
@@ -74,31 +129,42 @@ public class ZSet extends RCollection {
     }
 
     private void addMayTTL(final String key, int ttl, Entry... entrys) throws KitDBException {
+        byte[][] values = new byte[entrys.length][];
+        long[] raws = new long[entrys.length];
+        for (int i = 0; i < entrys.length; i++) {
+            values[i] = entrys[i].value;
+            raws[i] = entrys[i].score;
+        }
+        addMayTTL(key, ttl, false, values, raws);
+    }
+
+    /**
+     * @param raws long 分数，或 double 分数的 doubleToLongBits
+     */
+    private void addMayTTL(final String key, int ttl, boolean isDouble, byte[][] values, long[] raws) throws KitDBException {
         checkTxStart();
         try (CloseLock ignored = checkClose()) {
-            DAssert.notEmpty(entrys, ErrorType.EMPTY, "entrys is empty");
-            LockEntity lockEntity = lock(key);
+            DAssert.notEmpty(values, ErrorType.EMPTY, "entrys is empty");
+            DAssert.isTrue(ArrayKits.noRepeate(values), ErrorType.REPEATED_KEY, "Repeated memebers");
+            int lockStripe = lock(key);
 
             byte[] key_b = getKey(key);
-
-            byte[][] bytess = new byte[entrys.length][];
-            for (int i = 0; i < entrys.length; i++) {
-                bytess[i] = entrys[i].value;
-            }
-            DAssert.isTrue(ArrayKits.noRepeate(bytess), ErrorType.REPEATED_KEY, "Repeated memebers");
             try {
                 start();
                 byte[] k_v = getDB(key_b, SstColumnFamily.META);
                 MetaV metaV = addCheck(key_b, k_v);
+                boolean retyped = false;
                 if (metaV != null) {
-                    setEntry(key_b, metaV, entrys);
+                    // 已清空的集合会重写编码标记
+                    retyped = metaV.getSize() == 0;
+                    setEntry(key_b, metaV, isDouble, values, raws);
                     putDB(key_b, metaV.convertMetaBytes().toBytes(), SstColumnFamily.META);
                 } else {
                     if (ttl != -1) {
                         ttl = (int) (System.currentTimeMillis() / 1000 + ttl);
                     }
                     metaV = new MetaV(0, ttl, db.versionSequence().incr());
-                    setEntry(key_b, metaV, entrys);
+                    setEntry(key_b, metaV, isDouble, values, raws);
                     putDB(key_b, metaV.convertMetaBytes().toBytes(), SstColumnFamily.META);
 
                     if (metaV.getTimestamp() != -1) {
@@ -107,8 +173,11 @@ public class ZSet extends RCollection {
                     }
                 }
                 commit();
+                if (retyped) {
+                    afterCommit(markerEpoch::incrementAndGet);
+                }
             } finally {
-                unlock(lockEntity);
+                unlock(lockStripe);
                 release();
             }
             checkTxCommit();
@@ -119,58 +188,583 @@ public class ZSet extends RCollection {
     }
 
 
-    private void setEntry(byte[] key_b, MetaV metaV, Entry[] entrys) throws KitDBException {
-        for (Entry entry : entrys) {
-            SData sData = new SData(key_b.length, key_b, metaV.getVersion(), entry.value);
-            ZData zData = new ZData(key_b.length, key_b, metaV.getVersion(), entry.score, entry.value);
-            byte[] member = sData.convertBytes().toBytes();
-            byte[] old_score_bs = getDB(member, SstColumnFamily.DEFAULT);
+    private void setEntry(byte[] key_b, MetaV metaV, boolean isDouble, byte[][] values, long[] raws) throws KitDBException {
+        byte[] rankHead = rankHead(key_b, metaV.getVersion());
+        byte[] marker = getDB(rankHead, SstColumnFamily.DEFAULT);
+        ScoreCodec codec;
+        boolean ranked;
+        if (metaV.size == 0) {
+            // 空集合按本次写入的分数类型重新确定编码
+            codec = isDouble ? ScoreCodec.DOUBLE : ScoreCodec.LONG;
+            ranked = true;
+            putDB(rankHead, codec.marker(), SstColumnFamily.DEFAULT);
+        } else {
+            codec = ScoreCodec.of(marker);
+            ranked = marker != null;
+            checkScoreType(codec, isDouble);
+        }
+
+        // 同一成员重复出现时以最后一个分数为准
+        Map<ByteBuffer, Long> entryMap = new LinkedHashMap<>();
+        for (int i = 0; i < values.length; i++) {
+            entryMap.put(ByteBuffer.wrap(values[i]), raws[i]);
+        }
+        List<byte[]> members = new ArrayList<>(entryMap.size());
+        for (ByteBuffer value : entryMap.keySet()) {
+            SData sData = new SData(key_b.length, key_b, metaV.getVersion(), value.array());
+            members.add(sData.convertBytes().toBytes());
+        }
+        List<byte[]> old_scores = multiGetAsList(members, SstColumnFamily.DEFAULT);
+
+        byte[] key_size = ArrayKits.intToBytes(key_b.length);
+        byte[] version = ArrayKits.intToBytes(metaV.getVersion());
+        Map<ByteBuffer, Long> counts = new HashMap<>();
+        int i = 0;
+        for (Map.Entry<ByteBuffer, Long> entry : entryMap.entrySet()) {
+            byte[] value = entry.getKey().array();
+            byte[] member = members.get(i);
+            byte[] old_score_bs = old_scores.get(i);
+            i++;
             if (old_score_bs == null) {
                 metaV.size = metaV.size + 1;
             } else {
-                ZData zData_old = new ZData(key_b.length, key_b, metaV.getVersion(), ArrayKits.bytesToLong(old_score_bs), entry.value);
-                deleteDB(zData_old.convertBytes().toBytes(), SstColumnFamily.DEFAULT);
+                deleteDB(new ZDataD(key_size, key_b, version, old_score_bs, value).toBytes(), SstColumnFamily.DEFAULT);
+                rankCount(counts, rankHead, old_score_bs, -1);
+            }
+            byte[] score_bs = codec.encode(entry.getValue());
+            rankCount(counts, rankHead, score_bs, 1);
+            putDB(member, score_bs, SstColumnFamily.DEFAULT);
+            putDB(new ZDataD(key_size, key_b, version, score_bs, value).toBytes(), "".getBytes(), SstColumnFamily.DEFAULT);
+        }
+        if (ranked) {
+            rankApply(counts);
+        }
+    }
+
+    private ScoreCodec codec(byte[] key_b, MetaV metaV) throws KitDBException {
+        return ScoreCodec.of(getDB(rankHead(key_b, metaV.getVersion()), SstColumnFamily.DEFAULT));
+    }
+
+    /**
+     * 迭代时逐个成员解码，同一集合的编码只读一次
+     */
+    private ScoreCodec cachedCodec(byte[] rankHead) throws KitDBException {
+        CodecCache cache = codecCache.get();
+        long epoch = markerEpoch.get();
+        if (cache.epoch != epoch || !Arrays.equals(cache.rankHead, rankHead)) {
+            cache.codec = ScoreCodec.of(getDB(rankHead, SstColumnFamily.DEFAULT));
+            cache.rankHead = rankHead;
+            cache.epoch = epoch;
+        }
+        return cache.codec;
+    }
+
+    private static void checkScoreType(ScoreCodec codec, boolean isDouble) throws KitDBException {
+        DAssert.isTrue((codec == ScoreCodec.DOUBLE) == isDouble, ErrorType.PARAM_ERROR,
+                isDouble ? "Scores of this zset are long" : "Scores of this zset are double");
+    }
+
+    private static byte[] rankHead(byte[] key_b, int version) {
+        return ArrayKits.addAll(HEAD_RANK_B, ArrayKits.intToBytes(key_b.length), key_b, ArrayKits.intToBytes(version));
+    }
+
+    /**
+     * 第 level 级节点的父前缀，同一父前缀下的节点按分数字节有序
+     */
+    private static byte[] rankParent(byte[] rankHead, int level, byte[] score) {
+        return ArrayKits.addAll(rankHead, new byte[]{(byte) level}, ArrayKits.sub(score, 0, level));
+    }
+
+    private static byte[] rankNode(byte[] rankHead, int level, byte[] score) {
+        return ArrayKits.addAll(rankHead, new byte[]{(byte) level}, ArrayKits.sub(score, 0, level + 1));
+    }
+
+    private static void rankCount(Map<ByteBuffer, Long> counts, byte[] rankHead, byte[] score, long delta) {
+        for (int level = 0; level < RANK_LEVELS; level++) {
+            counts.merge(ByteBuffer.wrap(rankNode(rankHead, level, score)), delta, Long::sum);
+        }
+    }
+
+    /**
+     * 把计数增量合并进排名索引，计数归零的节点删除
+     * <p>
+     * 每个新增或删除的成员要读写 8 个层级的计数节点，改分数时最多 16 个，见 ZSetBenchmarks.updateScore
+     */
+    private void rankApply(Map<ByteBuffer, Long> counts) throws KitDBException {
+        List<byte[]> nodes = new ArrayList<>(counts.size());
+        List<Long> deltas = new ArrayList<>(counts.size());
+        for (Map.Entry<ByteBuffer, Long> count : counts.entrySet()) {
+            if (count.getValue() != 0) {
+                nodes.add(count.getKey().array());
+                deltas.add(count.getValue());
+            }
+        }
+        if (nodes.isEmpty()) {
+            return;
+        }
+        List<byte[]> olds = multiGetAsList(nodes, SstColumnFamily.DEFAULT);
+        for (int i = 0; i < nodes.size(); i++) {
+            byte[] old = olds.get(i);
+            long count = (old == null ? 0 : ArrayKits.bytesToLong(old)) + deltas.get(i);
+            if (count > 0) {
+                putDB(nodes.get(i), ArrayKits.longToBytes(count), SstColumnFamily.DEFAULT);
+            } else {
+                deleteDB(nodes.get(i), SstColumnFamily.DEFAULT);
             }
-            putDB(member, ArrayKits.longToBytes(entry.score), SstColumnFamily.DEFAULT);
-            putDB(zData.convertBytes().toBytes(), "".getBytes(), SstColumnFamily.DEFAULT);
         }
     }
 
+    /**
+     * 从排名索引中删除成员的分数，集合未建索引时不处理
+     */
+    private void rankRemove(byte[] key_b, MetaV metaV, List<byte[]> scores) throws KitDBException {
+        if (scores.isEmpty()) {
+            return;
+        }
+        byte[] rankHead = rankHead(key_b, metaV.getVersion());
+        if (getDB(rankHead, SstColumnFamily.DEFAULT) == null) {
+            return;
+        }
+        Map<ByteBuffer, Long> counts = new HashMap<>();
+        for (byte[] score : scores) {
+            rankCount(counts, rankHead, score, -1);
+        }
+        rankApply(counts);
+    }
+
     /**
      * 返回指定区间分数的成员
      *
      */
     public List<Entry> range(String key, long start, long end, int limit) throws KitDBException {
+        try (CloseLock ignored = checkClose()) {
+            return range(key, start, end, limit, false);
+        }
+    }
+
+    /**
+     * 从 end 到 start 逆序返回指定区间分数的成员，只读取 limit 个
+     */
+    public List<Entry> revRange(String key, long start, long end, int limit) throws KitDBException {
+        try (CloseLock ignored = checkClose()) {
+            return range(key, start, end, limit, true);
+        }
+    }
+
+    private List<Entry> range(String key, long start, long end, int limit, boolean reverse) throws KitDBException {
+        byte[] key_b = getKey(key);
+        List<Entry> entries = new ArrayList<>();
+        MetaV metaV = getMeta(key_b);
+        if (metaV == null) {
+            return entries;
+        }
+        ScoreCodec codec = codec(key_b, metaV);
+        checkScoreType(codec, false);
+        for (ZDataD zDataD : scan(key_b, metaV, codec, start, end, limit, reverse)) {
+            entries.add(new Entry(codec.decode(zDataD.getScore()), zDataD.getValue()));
+        }
+        return entries;
+    }
+
+    public List<DoubleEntry> rangeDouble(String key, double start, double end, int limit) throws KitDBException {
+        try (CloseLock ignored = checkClose()) {
+            return rangeDouble(key, start, end, limit, false);
+        }
+    }
+
+    public List<DoubleEntry> revRangeDouble(String key, double start, double end, int limit) throws KitDBException {
+        try (CloseLock ignored = checkClose()) {
+            return rangeDouble(key, start, end, limit, true);
+        }
+    }
+
+    private List<DoubleEntry> rangeDouble(String key, double start, double end, int limit, boolean reverse) throws KitDBException {
+        byte[] key_b = getKey(key);
+        List<DoubleEntry> entries = new ArrayList<>();
+        MetaV metaV = getMeta(key_b);
+        if (metaV == null) {
+            return entries;
+        }
+        ScoreCodec codec = codec(key_b, metaV);
+        checkScoreType(codec, true);
+        for (ZDataD zDataD : scan(key_b, metaV, codec, Double.doubleToLongBits(start + 0.0),
+                Double.doubleToLongBits(end + 0.0), limit, reverse)) {
+            entries.add(new DoubleEntry(Double.longBitsToDouble(codec.decode(zDataD.getScore())), zDataD.getValue()));
+        }
+        return entries;
+    }
+
+    /**
+     * 扫描分数在 [start, end] 内的成员，reverse 时从 end 向 start 逆序
+     */
+    private List<ZDataD> scan(byte[] key_b, MetaV metaV, ScoreCodec codec,
+                              long start, long end, int limit, boolean reverse) {
+        List<ZDataD> list = new ArrayList<>();
+        if (reverse && codec == ScoreCodec.LEGACY) {
+            // 旧编码的字节序与分数序不一致，只能正序扫完再取尾部
+            List<ZDataD> all = scan(key_b, metaV, codec, start, end, Integer.MAX_VALUE, false);
+            for (int i = all.size() - 1; i >= 0 && list.size() < limit; i--) {
+                list.add(all.get(i));
+            }
+            return list;
+        }
+        byte[] head = new ZData(key_b.length, key_b, metaV.getVersion(), 0, null).getHead();
+        byte[] start_b = codec.encode(start);
+        byte[] end_b = codec.encode(end);
+        try (final BoundedIterator bounded = newIterator(SstColumnFamily.DEFAULT, head)) {
+            RocksIterator iterator = bounded.iterator;
+            if (reverse) {
+                byte[] after = DBAbs.prefixEnd(end_b);
+                if (after == null) {
+                    iterator.seekToLast();
+                } else {
+                    iterator.seekForPrev(ArrayKits.addAll(head, after));
+                }
+            } else {
+                iterator.seek(ArrayKits.addAll(head, start_b));
+            }
+            try (final BatchIterator batch = new BatchIterator(iterator, db.getBufferPool(), reverse, limit)) {
+                while (list.size() < limit && batch.next() && batch.keyStartsWith(head)) {
+                    ZDataD zDataD = ZDataD.build(batch.key());
+                    if (reverse) {
+                        // seekForPrev 可能停在分数为 end+1、成员为空的 key 上
+                        if (codec.compare(zDataD.getScore(), end_b) > 0) {
+                            continue;
+                        }
+                        if (codec.compare(zDataD.getScore(), start_b) < 0) {
+                            break;
+                        }
+                    } else if (codec.compare(zDataD.getScore(), end_b) > 0) {
+                        break;
+                    }
+                    list.add(zDataD);
+                }
+            }
+        }
+        return list;
+    }
+
+    /**
+     * 按游标分页返回指定区间分数的成员
+     *
+     * @param cursor 上一页的游标，第一页为 null
+     */
+    public Page<Entry> range(String key, long start, long end, int limit, byte[] cursor) throws KitDBException {
         try (CloseLock ignored = checkClose()) {
             byte[] key_b = getKey(key);
 
             List<Entry> entries = new ArrayList<>();
             MetaV metaV = getMeta(key_b);
-            ZData zData = new ZData(key_b.length, key_b, metaV.getVersion(), start, "".getBytes());
-
-            byte[] seek = zData.getSeek();
-            byte[] head = zData.getHead();
-            int count = 0;
-            try (final RocksIterator iterator = newIterator(SstColumnFamily.DEFAULT)) {
-                iterator.seek(seek);
-                long index = 0;
-                while (iterator.isValid() && index <= end && count < limit) {
+            if (metaV == null) {
+                return new Page<>(entries, null);
+            }
+            ScoreCodec codec = codec(key_b, metaV);
+            checkScoreType(codec, false);
+            byte[] end_b = codec.encode(end);
+            byte[] head = new ZData(key_b.length, key_b, metaV.getVersion(), 0, null).getHead();
+            byte[] last = null;
+            try (final BoundedIterator bounded = newIterator(SstColumnFamily.DEFAULT, head)) {
+                RocksIterator iterator = bounded.iterator;
+                bounded.seek(ArrayKits.addAll(head, codec.encode(start)), cursor);
+                while (entries.size() < limit && bounded.isValid()) {
                     byte[] key_bs = iterator.key();
-                    if (!BytesUtil.checkHead(head, key_bs)) break;
-                    ZData izData = ZDataD.build(key_bs).convertValue();
-                    index = izData.getScore();
-                    if (index > end) {
-                        break;
+                    ZDataD zDataD = ZDataD.build(key_bs);
+                    if (codec.compare(zDataD.getScore(), end_b) > 0) {
+                        return new Page<>(entries, null);
                     }
-                    entries.add(new Entry(index, izData.value));
-                    count++;
+                    entries.add(new Entry(codec.decode(zDataD.getScore()), zDataD.getValue()));
+                    last = key_bs;
                     iterator.next();
                 }
+                boolean more = bounded.isValid()
+                        && codec.compare(ZDataD.build(iterator.key()).getScore(), end_b) <= 0;
+                return new Page<>(entries, more ? last : null);
+            }
+        }
+    }
+
+    /**
+     * 返回成员按分数从小到大的排名，从 0 开始，成员不存在时返回 null
+     */
+    public Long rank(String key, byte[] v) throws KitDBException {
+        try (CloseLock ignored = checkClose()) {
+            byte[] key_b = getKey(key);
+            MetaV metaV = getMeta(key_b);
+            if (metaV == null) {
+                return null;
+            }
+            SData sData = new SData(key_b.length, key_b, metaV.getVersion(), v);
+            byte[] score = getDB(sData.convertBytes().toBytes(), SstColumnFamily.DEFAULT);
+            if (score == null) {
+                return null;
+            }
+            byte[] scoreHead = new ZData(key_b.length, key_b, metaV.getVersion(), 0, null).getHead();
+            byte[] member = ArrayKits.addAll(scoreHead, score, v);
+            byte[] rankHead = rankHead(key_b, metaV.getVersion());
+            try (final RocksIterator iterator = newIterator(SstColumnFamily.DEFAULT)) {
+                if (ScoreCodec.of(getDB(rankHead, SstColumnFamily.DEFAULT)) == ScoreCodec.LEGACY) {
+                    // 旧编码的索引按字节序计数，负数会排到正数之后，只能线性计数
+                    byte[] negative = ArrayKits.addAll(scoreHead, NEGATIVE);
+                    if (ArrayKits.bytesToLong(score) < 0) {
+                        return countBefore(iterator, scoreHead, negative, member);
+                    }
+                    return countBefore(iterator, scoreHead, negative, null)
+                            + countBefore(iterator, scoreHead, scoreHead, member);
+                }
+                long rank = 0;
+                for (int level = 0; level < RANK_LEVELS; level++) {
+                    byte[] parent = rankParent(rankHead, level, score);
+                    byte[] node = rankNode(rankHead, level, score);
+                    iterator.seek(parent);
+                    while (iterator.isValid()) {
+                        byte[] key_bs = iterator.key();
+                        if (!BytesUtil.checkHead(parent, key_bs) || BytesUtil.compare(key_bs, node) >= 0) break;
+                        rank += ArrayKits.bytesToLong(iterator.value());
+                        iterator.next();
+                    }
+                }
+                // 同分成员按成员字节排序
+                return rank + countBefore(iterator, scoreHead, ArrayKits.addAll(scoreHead, score), member);
+            }
+        }
+    }
+
+    /**
+     * 返回成员按分数从大到小的排名，从 0 开始，成员不存在时返回 null
+     */
+    public Long revRank(String key, byte[] v) throws KitDBException {
+        try (CloseLock ignored = checkClose()) {
+            Long rank = rank(key, v);
+            if (rank == null) {
+                return null;
+            }
+            MetaV metaV = getMeta(getKey(key));
+            return metaV == null ? null : metaV.getSize() - 1 - rank;
+        }
+    }
+
+    /**
+     * 按排名返回区间 [start, stop] 的成员，负数表示从末尾倒数，-1 为最后一个
+     */
+    public List<Entry> rangeByRank(String key, long start, long stop) throws KitDBException {
+        return rangeByRank(key, start, stop, false);
+    }
+
+    /**
+     * 按分数从大到小的排名返回区间 [start, stop] 的成员，负数表示从末尾倒数
+     */
+    public List<Entry> revRangeByRank(String key, long start, long stop) throws KitDBException {
+        return rangeByRank(key, start, stop, true);
+    }
+
+    public List<DoubleEntry> rangeByRankDouble(String key, long start, long stop) throws KitDBException {
+        return rangeByRankDouble(key, start, stop, false);
+    }
+
+    public List<DoubleEntry> revRangeByRankDouble(String key, long start, long stop) throws KitDBException {
+        return rangeByRankDouble(key, start, stop, true);
+    }
+
+    private List<Entry> rangeByRank(String key, long start, long stop, boolean reverse) throws KitDBException {
+        try (CloseLock ignored = checkClose()) {
+            byte[] key_b = getKey(key);
+            List<Entry> entries = new ArrayList<>();
+            MetaV metaV = getMeta(key_b);
+            if (metaV == null) {
+                return entries;
+            }
+            ScoreCodec codec = codec(key_b, metaV);
+            checkScoreType(codec, false);
+            for (ZDataD zDataD : scanByRank(key_b, metaV, codec, start, stop, reverse)) {
+                entries.add(new Entry(codec.decode(zDataD.getScore()), zDataD.getValue()));
             }
             return entries;
         }
     }
 
+    private List<DoubleEntry> rangeByRankDouble(String key, long start, long stop, boolean reverse) throws KitDBException {
+        try (CloseLock ignored = checkClose()) {
+            byte[] key_b = getKey(key);
+            List<DoubleEntry> entries = new ArrayList<>();
+            MetaV metaV = getMeta(key_b);
+            if (metaV == null) {
+                return entries;
+            }
+            ScoreCodec codec = codec(key_b, metaV);
+            checkScoreType(codec, true);
+            for (ZDataD zDataD : scanByRank(key_b, metaV, codec, start, stop, reverse)) {
+                entries.add(new DoubleEntry(Double.longBitsToDouble(codec.decode(zDataD.getScore())), zDataD.getValue()));
+            }
+            return entries;
+        }
+    }
+
+    /**
+     * 扫描排名在 [start, stop] 内的成员，负数表示从末尾倒数，reverse 时按分数从大到小排名
+     */
+    private List<ZDataD> scanByRank(byte[] key_b, MetaV metaV, ScoreCodec codec,
+                                    long start, long stop, boolean reverse) {
+        List<ZDataD> list = new ArrayList<>();
+        long size = metaV.getSize();
+        start = start < 0 ? start + size : start;
+        stop = stop < 0 ? stop + size : stop;
+        if (reverse) {
+            long rev_start = start;
+            start = size - 1 - stop;
+            stop = size - 1 - rev_start;
+        }
+        start = Math.max(0, start);
+        stop = Math.min(stop, size - 1);
+        if (start > stop) {
+            return list;
+        }
+        byte[] scoreHead = new ZData(key_b.length, key_b, metaV.getVersion(), 0, null).getHead();
+        try (final RocksIterator iterator = newIterator(SstColumnFamily.DEFAULT)) {
+            if (codec == ScoreCodec.LEGACY) {
+                // 旧编码负数的字节序在正数之后，先扫负数段再扫非负数段
+                byte[] negative = ArrayKits.addAll(scoreHead, NEGATIVE);
+                long rank = scanSegment(iterator, scoreHead, negative, null, 0, start, stop, list);
+                scanSegment(iterator, scoreHead, scoreHead, negative, rank, start, stop, list);
+            } else {
+                long[] offset = {start};
+                iterator.seek(rankSeek(iterator, rankHead(key_b, metaV.getVersion()), scoreHead, offset));
+                scanSegment(iterator, scoreHead, null, null, -offset[0], 0, stop - start, list);
+            }
+        }
+        if (reverse) {
+            Collections.reverse(list);
+        }
+        return list;
+    }
+
+    /**
+     * 从 seek（为 null 时从当前位置）顺序扫到 end 之前，收集排名在 [start, stop] 内的成员
+     *
+     * @param rank 第一个成员的排名
+     * @return 扫描结束后下一个成员的排名
+     */
+    private static long scanSegment(RocksIterator iterator, byte[] scoreHead, byte[] seek, byte[] end,
+                                    long rank, long start, long stop, List<ZDataD> list) {
+        if (seek != null) {
+            iterator.seek(seek);
+        }
+        while (rank <= stop && iterator.isValid()) {
+            byte[] key_bs = iterator.key();
+            if (!BytesUtil.checkHead(scoreHead, key_bs) || (end != null && BytesUtil.compare(key_bs, end) >= 0)) {
+                break;
+            }
+            if (rank >= start) {
+                list.add(ZDataD.build(key_bs));
+            }
+            rank++;
+            iterator.next();
+        }
+        return rank;
+    }
+
+    /**
+     * 沿排名索引逐级找到第 offset 个成员所在的分数
+     *
+     * @param offset 输入排名，返回时为该分数内还需跳过的成员数
+     * @return 分数索引的 seek 位置，索引不完整时退回集合开头
+     */
+    private byte[] rankSeek(RocksIterator iterator, byte[] rankHead, byte[] scoreHead, long[] offset) {
+        long k = offset[0];
+        byte[] score = new byte[0];
+        for (int level = 0; level < RANK_LEVELS; level++) {
+            byte[] parent = rankParent(rankHead, level, score);
+            byte[] child = null;
+            iterator.seek(parent);
+            while (iterator.isValid()) {
+                byte[] key_bs = iterator.key();
+                if (!BytesUtil.checkHead(parent, key_bs)) break;
+                long count = ArrayKits.bytesToLong(iterator.value());
+                if (k < count) {
+                    child = key_bs;
+                    break;
+                }
+                k -= count;
+                iterator.next();
+            }
+            if (child == null) {
+                return scoreHead;
+            }
+            score = ArrayKits.sub(child, rankHead.length + 1, child.length);
+        }
+        offset[0] = k;
+        return ArrayKits.addAll(scoreHead, score);
+    }
+
+    /**
+     * 从 seek 开始数 target 之前的成员，target 为 null 时数到集合末尾
+     */
+    private static long countBefore(RocksIterator iterator, byte[] head, byte[] seek, byte[] target) {
+        long count = 0;
+        iterator.seek(seek);
+        while (iterator.isValid()) {
+            byte[] key_bs = iterator.key();
+            if (!BytesUtil.checkHead(head, key_bs) || (target != null && BytesUtil.compare(key_bs, target) >= 0)) break;
+            count++;
+            iterator.next();
+        }
+        return count;
+    }
+
+    /**
+     * 把旧编码的集合改写为可排序的 long 编码并重建排名索引，已是新编码时不处理
+     * <p>
+     * 整个集合在一个批次内改写，期间持有该 key 的锁
+     */
+    public void migrate(String key) throws KitDBException {
+        checkTxRange();
+        try (CloseLock ignored = checkClose()) {
+            byte[] key_b = getKey(key);
+            int lockStripe = lock(key);
+            try {
+                start();
+                MetaV metaV = getMeta(key_b);
+                byte[] rankHead = metaV == null ? null : rankHead(key_b, metaV.getVersion());
+                if (metaV == null || ScoreCodec.of(getDB(rankHead, SstColumnFamily.DEFAULT)) != ScoreCodec.LEGACY) {
+                    checkTxCommit();
+                    return;
+                }
+                deleteHead(rankHead, SstColumnFamily.DEFAULT);
+                putDB(rankHead, ScoreCodec.LONG.marker(), SstColumnFamily.DEFAULT);
+
+                byte[] key_size = ArrayKits.intToBytes(key_b.length);
+                byte[] version = ArrayKits.intToBytes(metaV.getVersion());
+                byte[] head = new SData(key_b.length, key_b, metaV.getVersion(), null).getHead();
+                Map<ByteBuffer, Long> counts = new HashMap<>();
+                try (final BoundedIterator bounded = newIterator(SstColumnFamily.DEFAULT, head)) {
+                    RocksIterator iterator = bounded.iterator;
+                    iterator.seek(head);
+                    while (bounded.isValid()) {
+                        byte[] value = SDataD.build(iterator.key()).getValue();
+                        byte[] old_score = iterator.value();
+                        byte[] score = ScoreCodec.LONG.encode(ScoreCodec.LEGACY.decode(old_score));
+                        deleteDB(new ZDataD(key_size, key_b, version, old_score, value).toBytes(), SstColumnFamily.DEFAULT);
+                        putDB(new ZDataD(key_size, key_b, version, score, value).toBytes(), "".getBytes(), SstColumnFamily.DEFAULT);
+                        putDB(iterator.key(), score, SstColumnFamily.DEFAULT);
+                        rankCount(counts, rankHead, score, 1);
+                        iterator.next();
+                    }
+                }
+                for (Map.Entry<ByteBuffer, Long> count : counts.entrySet()) {
+                    putDB(count.getKey().array(), ArrayKits.longToBytes(count.getValue()), SstColumnFamily.DEFAULT);
+                }
+                commit();
+                afterCommit(markerEpoch::incrementAndGet);
+            } finally {
+                unlock(lockStripe);
+                release();
+            }
+            checkTxCommit();
+        } catch (KitDBException e) {
+            checkTxRollBack();
+            throw e;
+        }
+    }
+
     /**
      * 返回指定区间分数的成员并删除
      *
@@ -180,51 +774,49 @@ public class ZSet extends RCollection {
      * @throws Exception
      */
     public List<Entry> rangeDel(String key, long start, long end, int limit) throws KitDBException {
+        return rangeDel(key, start, end, limit, false);
+    }
+
+    /**
+     * 从 end 到 start 逆序返回指定区间分数的成员并删除，只读取 limit 个
+     */
+    public List<Entry> revRangeDel(String key, long start, long end, int limit) throws KitDBException {
+        return rangeDel(key, start, end, limit, true);
+    }
+
+    private List<Entry> rangeDel(String key, long start, long end, int limit, boolean reverse) throws KitDBException {
         checkTxStart();
         List<Entry> entries = new ArrayList<>();
         byte[] key_b = getKey(key);
-        LockEntity lockEntity = lock(key);
+        int lockStripe = lock(key);
         try (CloseLock ignored = checkClose()) {
-
-            try (final RocksIterator iterator = newIterator(SstColumnFamily.DEFAULT)) {
+            try {
                 MetaV metaV = getMeta(key_b);
                 if (metaV == null) {
                     checkTxCommit();
                     return entries;
                 }
-                ZData zData = new ZData(key_b.length, key_b, metaV.getVersion(), start, "".getBytes());
-
-                byte[] seek = zData.getSeek();
-                byte[] head = zData.getHead();
+                ScoreCodec codec = codec(key_b, metaV);
+                checkScoreType(codec, false);
 
                 List<byte[]> dels = new ArrayList<>();
-                iterator.seek(seek);
-                long index = 0;
-                int count = 0;
-                while (iterator.isValid() && index <= end && count < limit) {
-                    byte[] key_bs = iterator.key();
-                    if (!BytesUtil.checkHead(head, key_bs)) break;
-                    ZDataD zDataD = ZDataD.build(key_bs);
-                    ZData izData = zDataD.convertValue();
-                    index = izData.getScore();
-                    if (index > end) {
-                        break;
-                    }
-                    entries.add(new Entry(index, izData.value));
-                    count++;
+                List<byte[]> del_scores = new ArrayList<>();
+                for (ZDataD zDataD : scan(key_b, metaV, codec, start, end, limit, reverse)) {
+                    entries.add(new Entry(codec.decode(zDataD.getScore()), zDataD.getValue()));
                     //DEL
                     metaV.setSize(metaV.getSize() - 1);
                     dels.add(zDataD.toBytes());
+                    del_scores.add(zDataD.getScore());
                     SDataD sDataD = new SDataD(zDataD.getMapKeySize(), key_b, zDataD.getVersion(), zDataD.getValue());
                     dels.add(sDataD.toBytes());
-                    iterator.next();
                 }
                 start();
                 removeDo(key_b, metaV, dels);
+                rankRemove(key_b, metaV, del_scores);
                 putDB(key_b, metaV.convertMetaBytes().toBytes(), SstColumnFamily.META);
                 commit();
             } finally {
-                unlock(lockEntity);
+                unlock(lockStripe);
                 release();
             }
             checkTxCommit();
@@ -243,10 +835,10 @@ public class ZSet extends RCollection {
             byte[] key_b = getKey(key);
             MetaV metaV = getMeta(key_b);
             SData sData = new SData(key_b.length, key_b, metaV.getVersion(), "".getBytes());
-            RocksIterator iterator = newIterator(SstColumnFamily.DEFAULT);
-            iterator.seek(sData.getHead());
-            RIterator<ZSet> rIterator = new RIterator<>(iterator, this, sData.getHead());
-            return rIterator;
+            byte[] head = sData.getHead();
+            BoundedIterator bounded = newIterator(SstColumnFamily.DEFAULT, head);
+            bounded.iterator.seek(head);
+            return new RIterator<>(bounded, this, head);
         }
     }
 
@@ -268,7 +860,7 @@ public class ZSet extends RCollection {
     private void incrby(String key, int increment, byte[]... members) throws KitDBException {
         DAssert.notEmpty(members, ErrorType.EMPTY, "vs is empty");
         checkTxStart();
-        LockEntity lockEntity = lock(key);
+        int lockStripe = lock(key);
         try (CloseLock ignored = checkClose()) {
             byte[] key_b = getKey(key);
             try {
@@ -292,7 +884,7 @@ public class ZSet extends RCollection {
                 }
                 commit();
             } finally {
-                unlock(lockEntity);
+                unlock(lockStripe);
                 release();
             }
             checkTxCommit();
@@ -311,7 +903,7 @@ public class ZSet extends RCollection {
     public void remove(String key, byte[]... vs) throws KitDBException {
         DAssert.notEmpty(vs, ErrorType.EMPTY, "vs is empty");
         checkTxStart();
-        LockEntity lockEntity = lock(key);
+        int lockStripe = lock(key);
         try (CloseLock ignored = checkClose()) {
             byte[] key_b = getKey(key);
             start();
@@ -321,23 +913,35 @@ public class ZSet extends RCollection {
                     checkTxCommit();
                     return;
                 }
-                List<byte[]> dels = new ArrayList<>();
+                Map<ByteBuffer, SDataD> members = new LinkedHashMap<>();
                 for (byte[] v : vs) {
                     SData sData = new SData(key_b.length, key_b, metaV.getVersion(), v);
-                    SDataD sDataD = sData.convertBytes();
-                    byte[] scoreD = getDB(sDataD.toBytes(), SstColumnFamily.DEFAULT);
+                    members.put(ByteBuffer.wrap(v), sData.convertBytes());
+                }
+                List<byte[]> keys = new ArrayList<>(members.size());
+                for (SDataD sDataD : members.values()) {
+                    keys.add(sDataD.toBytes());
+                }
+                List<byte[]> scores = multiGetAsList(keys, SstColumnFamily.DEFAULT);
+                List<byte[]> dels = new ArrayList<>();
+                List<byte[]> del_scores = new ArrayList<>();
+                int i = 0;
+                for (SDataD sDataD : members.values()) {
+                    byte[] scoreD = scores.get(i++);
                     if (scoreD != null) {
                         ZDataD zDataD = new ZDataD(sDataD.getMapKeySize(), sDataD.getMapKey(), sDataD.getVersion(), scoreD, sDataD.getValue());
                         dels.add(zDataD.toBytes());
                         dels.add(sDataD.toBytes());
+                        del_scores.add(scoreD);
                         metaV.setSize(metaV.getSize() - 1);
                     }
                 }
                 removeDo(key_b, metaV, dels);
+                rankRemove(key_b, metaV, del_scores);
                 putDB(key_b, metaV.convertMetaBytes().toBytes(), SstColumnFamily.META);
                 commit();
             } finally {
-                unlock(lockEntity);
+                unlock(lockStripe);
                 release();
             }
             checkTxCommit();
@@ -361,14 +965,20 @@ public class ZSet extends RCollection {
             DAssert.notEmpty(vs, ErrorType.EMPTY, "vs is empty");
             byte[] key_b = getKey(key);
             MetaV metaV = getMeta(key_b);
-            List<Long> scores = new ArrayList<>();
+            List<Long> scores = new ArrayList<>(vs.length);
+            if (metaV == null) {
+                scores.addAll(Collections.nCopies(vs.length, null));
+                return scores;
+            }
+            ScoreCodec codec = codec(key_b, metaV);
+            checkScoreType(codec, false);
+            List<byte[]> keys = new ArrayList<>(vs.length);
             for (byte[] v : vs) {
                 SData sData = new SData(key_b.length, key_b, metaV.getVersion(), v);
-                byte[] scoreD = getDB(sData.convertBytes().toBytes(), SstColumnFamily.DEFAULT);
-                if (scoreD != null) {
-                    scores.add(ArrayKits.bytesToLong(scoreD));
-                }
-                scores.add(null);
+                keys.add(sData.convertBytes().toBytes());
+            }
+            for (byte[] scoreD : multiGetAsList(keys, SstColumnFamily.DEFAULT)) {
+                scores.add(scoreD == null ? null : codec.decode(scoreD));
             }
             return scores;
         }
@@ -388,10 +998,30 @@ public class ZSet extends RCollection {
             if (metaV == null) {
                 return null;
             }
+            ScoreCodec codec = codec(key_b, metaV);
+            checkScoreType(codec, false);
+            SData sData = new SData(key_b.length, key_b, metaV.getVersion(), v);
+            byte[] scoreD = getDB(sData.convertBytes().toBytes(), SstColumnFamily.DEFAULT);
+            if (scoreD != null) {
+                return codec.decode(scoreD);
+            }
+            return null;
+        }
+    }
+
+    public Double scoreDouble(String key, byte[] v) throws KitDBException {
+        try (CloseLock ignored = checkClose()) {
+            byte[] key_b = getKey(key);
+            MetaV metaV = getMeta(key_b);
+            if (metaV == null) {
+                return null;
+            }
+            ScoreCodec codec = codec(key_b, metaV);
+            checkScoreType(codec, true);
             SData sData = new SData(key_b.length, key_b, metaV.getVersion(), v);
             byte[] scoreD = getDB(sData.convertBytes().toBytes(), SstColumnFamily.DEFAULT);
             if (scoreD != null) {
-                return ArrayKits.bytesToLong(scoreD);
+                return Double.longBitsToDouble(codec.decode(scoreD));
             }
             return null;
         }
@@ -412,10 +1042,8 @@ public class ZSet extends RCollection {
     }
 
     private MetaV getMetaP(byte[] key_b) throws KitDBException {
-        byte[] k_v = this.getDB(key_b, SstColumnFamily.META);
-        if (k_v == null) return null;
-        MetaV metaV = MetaD.build(k_v).convertMetaV();
-        return metaV;
+        return loadMeta(key_b, k_v -> MetaD.build(k_v).convertMetaV(),
+                m -> new MetaV(m.getSize(), m.getTimestamp(), m.getVersion()));
     }
 
     @Override
@@ -446,6 +1074,7 @@ public class ZSet extends RCollection {
         deleteHead(sData.getHead(), SstColumnFamily.DEFAULT);
         ZData zData = new ZData(sData.getMapKeySize(), sData.getMapKey(), sData.getVersion(), 0, null);
         deleteHead(zData.getHead(), SstColumnFamily.DEFAULT);
+        deleteHead(rankHead(key_b, metaV.getVersion()), SstColumnFamily.DEFAULT);
         deleteDB(ArrayKits.addAll("D".getBytes(charset), key_b, metaD.getVersion()), SstColumnFamily.DEFAULT);
     }
 
@@ -455,7 +1084,7 @@ public class ZSet extends RCollection {
         checkTxRange();
         try (CloseLock ignored = checkClose()) {
             byte[] key_b = getKey(key);
-            LockEntity lockEntity = lock(key);
+            int lockStripe = lock(key);
             try {
                 start();
                 MetaV metaV = getMeta(key_b);
@@ -467,7 +1096,7 @@ public class ZSet extends RCollection {
                 delete(key_b, metaV.convertMetaBytes());
                 commit();
             } finally {
-                unlock(lockEntity);
+                unlock(lockStripe);
                 release();
             }
             checkTxCommit();
@@ -484,12 +1113,21 @@ public class ZSet extends RCollection {
         }
     }
 
+    /**
+     * @param cursor 上一个 KeyIterator 的 getCursor，为 null 时从头开始
+     */
+    public KeyIterator getKeyIterator(byte[] cursor) throws KitDBException {
+        try (CloseLock ignored = checkClose()) {
+            return getKeyIterator(HEAD_B, cursor);
+        }
+    }
+
 
     public void deleteFast(String key) throws KitDBException {
         checkTxStart();
         try (CloseLock ignored = checkClose()) {
             byte[] key_b = getKey(key);
-            LockEntity lockEntity = lock(key);
+            int lockStripe = lock(key);
 
             try {
                 byte[] k_v = getDB(key_b, SstColumnFamily.META);
@@ -500,7 +1138,7 @@ public class ZSet extends RCollection {
                 MetaV meta = MetaD.build(k_v).convertMetaV();
                 deleteFast(key_b, meta);
             } finally {
-                unlock(lockEntity);
+                unlock(lockStripe);
             }
             checkTxCommit();
 
@@ -532,7 +1170,7 @@ public class ZSet extends RCollection {
     public void delTtl(String key) throws KitDBException {
         checkTxStart();
         try (CloseLock ignored = checkClose()) {
-            LockEntity lockEntity = lock(key);
+            int lockStripe = lock(key);
             byte[] key_b = getKey(key);
             try {
                 MetaV metaV = getMetaP(key_b);
@@ -547,7 +1185,7 @@ public class ZSet extends RCollection {
                 putDB(key_b, metaV.convertMetaBytes().toBytes(), SstColumnFamily.META);
                 commit();
             } finally {
-                unlock(lockEntity);
+                unlock(lockStripe);
                 release();
             }
             checkTxCommit();
@@ -560,7 +1198,7 @@ public class ZSet extends RCollection {
 
     protected void deleteTTL(int time, byte[] key_b, byte[] meta_b) throws KitDBException {
         String key = new String(ArrayKits.sub(key_b, 1, key_b.length + 1), charset);
-        LockEntity lockEntity = lock(key);
+        int lockStripe = lock(key);
         try (CloseLock ignored = checkClose()) {
             MetaV metaV = getMetaP(key_b);
             if (metaV != null && time != metaV.timestamp) {
@@ -568,7 +1206,7 @@ public class ZSet extends RCollection {
             }
             deleteTTL(key_b, MetaD.build(meta_b).convertMetaV(), metaV.version);
         } finally {
-            unlock(lockEntity);
+            unlock(lockStripe);
         }
     }
 
@@ -576,7 +1214,7 @@ public class ZSet extends RCollection {
     public void ttl(String key, int ttl) throws KitDBException {
         checkTxStart();
         try (CloseLock ignored = checkClose()) {
-            LockEntity lockEntity = lock(key);
+            int lockStripe = lock(key);
 
             byte[] key_b = getKey(key);
             try {
@@ -593,7 +1231,7 @@ public class ZSet extends RCollection {
                 setTimerCollection(KeyEnum.COLLECT_TIMER,
                         metaV.getTimestamp(), key_b, metaV.convertMetaBytes().toBytesHead());
             } finally {
-                unlock(lockEntity);
+                unlock(lockStripe);
                 release();
             }
             checkTxCommit();
@@ -608,8 +1246,7 @@ public class ZSet extends RCollection {
     public boolean isExist(String key) throws KitDBException {
         try (CloseLock ignored = checkClose()) {
             byte[] key_b = getKey(key);
-            byte[] k_v = getDB(key_b, SstColumnFamily.META);
-            MetaV meta = addCheck(key_b, k_v);
+            MetaV meta = getMeta(key_b);
             return meta != null;
         }
     }
@@ -629,15 +1266,15 @@ public class ZSet extends RCollection {
     }
 
     @Override
-    public Entry getEntry(RocksIterator iterator) throws KitDBException {
+    public REntry getEntry(byte[] key_bs, byte[] value) throws KitDBException {
         try (CloseLock ignored = checkClose()) {
-            byte[] key_bs = iterator.key();
-            if (key_bs == null) {
-                return null;
-            }
             SData sData = SDataD.build(key_bs).convertValue();
-            Entry entry = new Entry(ArrayKits.bytesToLong(iterator.value()), sData.value);
-            return entry;
+            ScoreCodec codec = cachedCodec(rankHead(sData.getMapKey(), sData.getVersion()));
+            long raw = codec.decode(value);
+            if (codec == ScoreCodec.DOUBLE) {
+                return new DoubleEntry(Double.longBitsToDouble(raw), sData.value);
+            }
+            return new Entry(raw, sData.value);
         }
     }
 
@@ -648,6 +1285,19 @@ public class ZSet extends RCollection {
         private byte[] value;
     }
 
+    private static class CodecCache {
+        private byte[] rankHead;
+        private long epoch = -1;
+        private ScoreCodec codec;
+    }
+
+    @Data
+    @AllArgsConstructor
+    public static class DoubleEntry extends REntry {
+        private double score;
+        private byte[] value;
+    }
+
 
     @Data
     @AllArgsConstructor
@@ -671,6 +1321,13 @@ public class ZSet extends RCollection {
     @AllArgsConstructor
     @NoArgsConstructor
     public static class MetaD extends MetaDAbs {
+        /**
+         * 编码后的字段偏移和总长度，集合的压缩过滤器按这些偏移读 meta
+         */
+        public final static int TIMESTAMP_OFFSET = 5;
+        public final static int VERSION_OFFSET = 9;
+        public final static int LENGTH = 13;
+
         private byte[] size;
         private byte[] timestamp;
         private byte[] version;
@@ -678,8 +1335,8 @@ public class ZSet extends RCollection {
         public static MetaD build(byte[] bytes) {
             MetaD metaD = new MetaD();
             metaD.setSize(ArrayKits.sub(bytes, 1, 5));
-            metaD.setTimestamp(ArrayKits.sub(bytes, 5, 9));
-            metaD.setVersion(ArrayKits.sub(bytes, 9, 13));
+            metaD.setTimestamp(ArrayKits.sub(bytes, TIMESTAMP_OFFSET, VERSION_OFFSET));
+            metaD.setVersion(ArrayKits.sub(bytes, VERSION_OFFSET, LENGTH));
             return metaD;
         }
 
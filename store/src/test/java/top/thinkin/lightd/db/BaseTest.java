@@ -4,8 +4,13 @@ import org.junit.AfterClass;
 import org.junit.Before;
 import top.thinkin.lightd.exception.KitDBException;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.stream.Stream;
 
 public class BaseTest {
     static int availProcessors = Runtime.getRuntime().availableProcessors();
@@ -26,4 +31,16 @@ public class BaseTest {
     public static void after() throws InterruptedException {
         Thread.sleep(5000);
     }
+
+    /**
+     * 删除测试创建的临时目录
+     */
+    static void delete(Path dir) throws IOException {
+        if (dir == null || !Files.exists(dir)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
 }
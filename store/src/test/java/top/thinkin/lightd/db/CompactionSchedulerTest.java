@@ -0,0 +1,31 @@
+package top.thinkin.lightd.db;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.rocksdb.FlushOptions;
+
+public class CompactionSchedulerTest extends BaseTest {
+
+    @Test
+    public void compactDeletedRange() throws Exception {
+        String head = "compactDeletedRange0";
+        RMap map = db.getMap();
+        CompactionScheduler scheduler = db.getCompactionScheduler();
+        long before = scheduler.getRangesCompacted();
+        for (int i = 0; i < 10000; i++) {
+            map.put(head, "hello" + i, ("world" + i).getBytes());
+        }
+        try (FlushOptions flushOptions = new FlushOptions().setWaitForFlush(true)) {
+            db.rocksDB().flush(flushOptions);
+            map.delete(head);
+            db.rocksDB().flush(flushOptions);
+        }
+
+        for (int i = 0; i < 10 && scheduler.getRangesCompacted() == before; i++) {
+            scheduler.run();
+            Thread.sleep(1000);
+        }
+        Assert.assertTrue(scheduler.getRangesCompacted() > before);
+        Assert.assertTrue(scheduler.getBytesCompacted() > 0);
+    }
+}
@@ -0,0 +1,78 @@
+package top.thinkin.lightd.db;
+
+import org.junit.Assert;
+import org.junit.Test;
+import top.thinkin.lightd.benchmark.JoinFuture;
+import top.thinkin.lightd.exception.KitDBException;
+
+public class GroupCommitTest extends BaseTest {
+
+    @Test
+    public void concurrentSet() throws Exception {
+        String head = "groupCommitSet0";
+        RKv kv = db.getrKv();
+        db.openGroupCommit(64, 200, false);
+        try {
+            JoinFuture<String> joinFuture = JoinFuture.build(executorService, String.class);
+            for (int i = 0; i < 10000; i++) {
+                int fi = i;
+                joinFuture.add(args -> {
+                    try {
+                        kv.set(head + fi, ("test" + fi).getBytes());
+                    } catch (KitDBException e) {
+                        throw new IllegalStateException(e);
+                    }
+                    return "";
+                });
+            }
+            joinFuture.join();
+
+            for (int i = 0; i < 10000; i++) {
+                Assert.assertArrayEquals(("test" + i).getBytes(), kv.get(head + i));
+            }
+            GroupCommitter committer = db.getGroupCommitter();
+            Assert.assertTrue(committer.getWrites() >= 10000);
+            Assert.assertTrue(committer.getBatches() <= committer.getWrites());
+            Assert.assertTrue(committer.getMaxBatch() <= 64);
+        } finally {
+            db.closeGroupCommit();
+            kv.delPrefix(head);
+        }
+    }
+
+    @Test
+    public void reopenWhileWriting() throws Exception {
+        String head = "groupCommitReopen0";
+        RKv kv = db.getrKv();
+        db.openGroupCommit(16, 100, false);
+        try {
+            JoinFuture<String> joinFuture = JoinFuture.build(executorService, String.class);
+            for (int i = 0; i < 5000; i++) {
+                int fi = i;
+                joinFuture.add(args -> {
+                    try {
+                        kv.set(head + fi, ("test" + fi).getBytes());
+                    } catch (KitDBException e) {
+                        throw new IllegalStateException(e);
+                    }
+                    return "";
+                });
+            }
+            // 写入过程中反复替换和关闭，旧的 committer 要等进行中的提交结束才释放
+            for (int i = 0; i < 20; i++) {
+                db.openGroupCommit(16, 100, i % 2 == 0);
+                if (i % 5 == 0) {
+                    db.closeGroupCommit();
+                }
+            }
+            joinFuture.join();
+
+            for (int i = 0; i < 5000; i++) {
+                Assert.assertArrayEquals(("test" + i).getBytes(), kv.get(head + i));
+            }
+        } finally {
+            db.closeGroupCommit();
+            kv.delPrefix(head);
+        }
+    }
+}
@@ -3,10 +3,20 @@ package top.thinkin.lightd.db;
 import lombok.extern.slf4j.Slf4j;
 import org.junit.Assert;
 import org.junit.Test;
+import org.rocksdb.RocksDB;
+import top.thinkin.lightd.base.DBCommand;
+import top.thinkin.lightd.base.DBCommandChunk;
+import top.thinkin.lightd.base.DBCommandChunkType;
+import top.thinkin.lightd.base.SstColumnFamily;
 import top.thinkin.lightd.benchmark.JoinFuture;
+import top.thinkin.lightd.exception.KitDBException;
 import top.thinkin.lightd.kit.ArrayKits;
 
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 @Slf4j
 public class RKvTest extends BaseTest {
@@ -466,4 +476,318 @@ public class RKvTest extends BaseTest {
             kv.delPrefix(head);
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    public void setDirect() throws Exception {
+        String head = "setDirect0";
+        RKv kv = db.getrKv();
+        ByteBuffer value = ByteBuffer.allocateDirect(64);
+        value.put("world".getBytes()).flip();
+        kv.set(head, value);
+        Assert.assertArrayEquals("world".getBytes(), kv.get(head));
+
+        ByteBuffer out = ByteBuffer.allocateDirect(64);
+        int size = kv.get(head, out);
+        Assert.assertEquals(5, size);
+        byte[] bytes = new byte[size];
+        out.get(bytes);
+        Assert.assertArrayEquals("world".getBytes(), bytes);
+
+        out.clear();
+        Assert.assertEquals(RocksDB.NOT_FOUND, kv.get(head + "none", out));
+
+        // 超过线程内缓冲上限的值走临时缓冲区
+        byte[] large = new byte[DirectKey.MAX_CAPACITY + 1];
+        Arrays.fill(large, (byte) 7);
+        ByteBuffer largeValue = ByteBuffer.allocateDirect(large.length);
+        largeValue.put(large).flip();
+        kv.set(head, largeValue);
+        Assert.assertArrayEquals(large, kv.get(head));
+        ByteBuffer small = ByteBuffer.allocateDirect(8);
+        small.put("small".getBytes()).flip();
+        kv.set(head, small);
+        Assert.assertArrayEquals("small".getBytes(), kv.get(head));
+        kv.del(head);
+    }
+
+    @Test
+    public void inlineTtl() throws Exception {
+        String head = "inlineTtl0";
+        RKv kv = db.getrKv();
+        kv.set(head, "world".getBytes(), 1);
+        byte[] raw = db.rocksDB().get(ArrayKits.addAll(RKv.HEAD_B, head.getBytes()));
+        Assert.assertEquals(RKv.HEADER_SIZE + 5, raw.length);
+        Assert.assertTrue(RKv.expireOf(raw) > 0);
+        Assert.assertNull(db.rocksDB().get(ArrayKits.addAll(RKv.HEAD_TTL, head.getBytes())));
+        Assert.assertArrayEquals("world".getBytes(), kv.get(head));
+
+        Thread.sleep(2000);
+        Assert.assertNull(kv.get(head));
+        db.compaction();
+        Assert.assertNull(db.rocksDB().get(ArrayKits.addAll(RKv.HEAD_B, head.getBytes())));
+    }
+
+    @Test
+    public void incrMerge() throws Exception {
+        String head = "incrMerge0";
+        RKv kv = db.getrKv();
+        try {
+            JoinFuture<String> joinFuture = JoinFuture.build(executorService, String.class);
+            for (int i = 0; i < 10000; i++) {
+                joinFuture.add(args -> {
+                    try {
+                        kv.incrMerge(head, 2);
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                    return "";
+                });
+            }
+            joinFuture.join();
+            Assert.assertEquals(20000L, ArrayKits.bytesToLong(kv.get(head)));
+
+            Map<String, Long> steps = new HashMap<>();
+            steps.put(head, -5L);
+            steps.put(head + "b", 7L);
+            kv.incrAll(steps);
+            Assert.assertEquals(19995L, kv.incr(head, 0));
+            Assert.assertEquals(7L, kv.incr(head + "b", 0));
+
+            kv.set(head + "c", ArrayKits.longToBytes(1), 100);
+            kv.incrMerge(head + "c", 1);
+            Assert.assertEquals(2L, ArrayKits.bytesToLong(kv.get(head + "c")));
+            Assert.assertTrue(kv.getTtl(head + "c") > 0);
+        } finally {
+            kv.del(head);
+            kv.del(head + "b");
+            kv.del(head + "c");
+        }
+    }
+
+    @Test
+    public void incrMergeMixed() throws Exception {
+        String head = "incrMergeMixed0";
+        RKv kv = db.getrKv();
+        try {
+            // incr 的读后写和 incrMerge 交错在同一个 key 上，增量不能丢
+            JoinFuture<String> joinFuture = JoinFuture.build(executorService, String.class);
+            for (int i = 0; i < 10000; i++) {
+                boolean merge = i % 2 == 0;
+                joinFuture.add(args -> {
+                    try {
+                        if (merge) {
+                            kv.incrMerge(head, 1);
+                        } else {
+                            kv.incr(head, 1L);
+                        }
+                    } catch (KitDBException e) {
+                        throw new IllegalStateException(e);
+                    }
+                    return "";
+                });
+            }
+            joinFuture.join();
+            Assert.assertEquals(10000L, ArrayKits.bytesToLong(kv.get(head)));
+        } finally {
+            kv.del(head);
+        }
+    }
+
+    @Test
+    public void keysCursor() throws Exception {
+        String head = "keysCursor0";
+        RKv kv = db.getrKv();
+        for (int i = 0; i < 25; i++) {
+            kv.set(head + String.format("%03d", i), ("v" + i).getBytes());
+        }
+        kv.set("keysCursor1", "other".getBytes());
+
+        List<String> all = new ArrayList<>();
+        byte[] cursor = null;
+        int pages = 0;
+        do {
+            Page<String> page = kv.keys(head, cursor, 10);
+            all.addAll(page.getItems());
+            cursor = page.getCursor();
+            pages++;
+        } while (cursor != null);
+
+        Assert.assertEquals(3, pages);
+        Assert.assertEquals(25, all.size());
+        Assert.assertEquals(kv.keys(head, 0, 100), all);
+        kv.delPrefix(head);
+    }
+
+    @Test
+    public void nearCache() throws Exception {
+        String head = "nearCache";
+        RKv kv = db.getrKv();
+        db.openKvCache(1024, 4096);
+        KvNearCache cache = db.getKvCache();
+        try {
+            kv.set(head, "v0".getBytes());
+            Assert.assertArrayEquals("v0".getBytes(), kv.get(head));
+            long hits = cache.getHits();
+            Assert.assertArrayEquals("v0".getBytes(), kv.get(head));
+            Assert.assertEquals(hits + 1, cache.getHits());
+
+            // 写入后立即读到新值
+            kv.set(head, "v1".getBytes());
+            Assert.assertArrayEquals("v1".getBytes(), kv.get(head));
+            kv.incr(head + "n", 5L);
+            Assert.assertEquals(5L, ArrayKits.bytesToLong(kv.get(head + "n")));
+            kv.incr(head + "n", 2L);
+            Assert.assertEquals(7L, ArrayKits.bytesToLong(kv.get(head + "n")));
+            kv.incrMerge(head + "n", 3L);
+            Assert.assertEquals(10L, ArrayKits.bytesToLong(kv.get(head + "n")));
+            kv.del(head);
+            Assert.assertNull(kv.get(head));
+
+            kv.set(head, "v2".getBytes(), 1);
+            Assert.assertArrayEquals("v2".getBytes(), kv.get(head));
+            Thread.sleep(2000);
+            Assert.assertNull(kv.get(head));
+
+            kv.set(head + "p", "v3".getBytes());
+            Assert.assertArrayEquals("v3".getBytes(), kv.get(head + "p"));
+            kv.delPrefix(head);
+            Assert.assertNull(kv.get(head + "p"));
+        } finally {
+            db.closeKvCache();
+            kv.delPrefix(head);
+        }
+    }
+
+    @Test
+    public void snapshotView() throws Exception {
+        String head = "snapshotView";
+        RKv kv = db.getrKv();
+        RMap map = db.getMap();
+        try {
+            kv.set(head, "v0".getBytes());
+            map.put(head, "f0", "v0".getBytes());
+            SnapshotView view;
+            try (RSnapshot snapshot = db.createSnapshot()) {
+                view = db.at(snapshot);
+                kv.set(head, "v1".getBytes());
+                map.put(head, "f0", "v1".getBytes());
+                map.put(head, "f1", "v1".getBytes());
+
+                Assert.assertArrayEquals("v0".getBytes(), view.getrKv().get(head));
+                Assert.assertArrayEquals("v0".getBytes(), view.getMap().get(head, "f0"));
+                Assert.assertNull(view.getMap().get(head, "f1"));
+                Assert.assertEquals(1, view.getMap().size(head));
+                Assert.assertArrayEquals("v1".getBytes(), kv.get(head));
+                Assert.assertEquals(2, map.size(head));
+
+                try {
+                    view.getrKv().set(head, "v2".getBytes());
+                    Assert.fail();
+                } catch (KitDBException e) {
+                    // 快照视图只读
+                }
+            }
+            try {
+                view.getrKv().get(head);
+                Assert.fail();
+            } catch (KitDBException e) {
+                // 快照已关闭
+            }
+        } finally {
+            kv.del(head);
+            map.delete(head);
+        }
+    }
+
+    @Test
+    public void setAsync() throws Exception {
+        String head = "setAsync";
+        RKv kv = db.getrKv();
+        try {
+            List<CompletableFuture<Void>> futures = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                futures.add(kv.setAsync(head + i, ("v" + i).getBytes()));
+            }
+            futures.add(kv.setAsync(head + "t", "t".getBytes(), 100));
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get();
+            for (int i = 0; i < 100; i++) {
+                Assert.assertArrayEquals(("v" + i).getBytes(), kv.get(head + i));
+            }
+            Assert.assertArrayEquals("t".getBytes(), kv.get(head + "t"));
+
+            kv.delAsync(head + 0).get();
+            Assert.assertNull(kv.get(head + 0));
+
+            // 异步写入和同一个 key 上的读后写交错，incr 要看到之前的写入
+            kv.setAsync(head + "n", ArrayKits.longToBytes(10));
+            Assert.assertEquals(11L, kv.incr(head + "n", 1L));
+            kv.setAsync(head + "n", ArrayKits.longToBytes(20)).thenRun(() -> {
+                try {
+                    kv.set(head + "n", ArrayKits.longToBytes(30));
+                } catch (KitDBException e) {
+                    throw new IllegalStateException(e);
+                }
+            }).get();
+            Assert.assertEquals(31L, kv.incr(head + "n", 1L));
+        } finally {
+            kv.delPrefix(head);
+        }
+    }
+
+    @Test
+    public void logBatch() throws Exception {
+        String head = "logBatch";
+        RKv kv = db.getrKv();
+        db.openKvCache(1024, 4096);
+        try (LogBatch batch = db.newLogBatch()) {
+            kv.set(head + 0, "v0".getBytes());
+            Assert.assertArrayEquals("v0".getBytes(), kv.get(head + 0));
+
+            List<DBCommand> logs = new ArrayList<>();
+            logs.add(DBCommand.update(ArrayKits.addAll(RKv.HEAD_B, (head + 0).getBytes()),
+                    RKv.wrap(RKv.NO_EXPIRE, "v1".getBytes()), SstColumnFamily.DEFAULT));
+            batch.add(logs);
+            List<DBCommand> encoded = new ArrayList<>();
+            encoded.add(DBCommand.update(ArrayKits.addAll(RKv.HEAD_B, (head + 1).getBytes()),
+                    RKv.wrap(RKv.NO_EXPIRE, "v2".getBytes()), SstColumnFamily.DEFAULT));
+            batch.add(LogCodec.encode(new DBCommandChunk(DBCommandChunkType.NOM_COMMIT, encoded)));
+            Assert.assertFalse(batch.isEmpty());
+            batch.commit(42);
+
+            Assert.assertTrue(batch.isEmpty());
+            Assert.assertEquals(42, db.getAppliedIndex());
+            // 缓存中的旧值已失效
+            Assert.assertArrayEquals("v1".getBytes(), kv.get(head + 0));
+            Assert.assertArrayEquals("v2".getBytes(), kv.get(head + 1));
+        } finally {
+            db.closeKvCache();
+            kv.delPrefix(head);
+            db.rocksDB().delete(DB.APPLIED_INDEX_KEY);
+        }
+    }
+
+    @Test
+    public void checkpoint() throws Exception {
+        String head = "checkpoint";
+        RKv kv = db.getrKv();
+        Path cpPath = Files.createTempDirectory("kitdb_cp");
+        Path target = Files.createTempDirectory("kitdb_load");
+        DB loaded = null;
+        try {
+            kv.set(head, "v0".getBytes());
+            List<String> files = db.checkpointDB(cpPath.toString());
+            Assert.assertTrue(files.stream().anyMatch(f -> f.startsWith("CURRENT")));
+
+            DB.releaseCheckpoint(cpPath.toString(), files, target.toString());
+            loaded = DB.build(target.toString(), false);
+            Assert.assertArrayEquals("v0".getBytes(), loaded.getrKv().get(head));
+        } finally {
+            if (loaded != null) {
+                loaded.close();
+            }
+            kv.del(head);
+            delete(cpPath);
+            delete(target);
+        }
+    }
+}
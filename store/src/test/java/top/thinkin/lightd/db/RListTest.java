@@ -7,10 +7,14 @@ import org.junit.Test;
 import top.thinkin.lightd.base.TestUtil;
 import top.thinkin.lightd.benchmark.JoinFuture;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 @Slf4j
 public class RListTest extends BaseTest {
@@ -640,4 +644,87 @@ public class RListTest extends BaseTest {
     }
 
 
-}
\ No newline at end of file
+
+    @Test
+    public void addDirect() throws Exception {
+        String head = "addDirect0";
+        RList list = db.getList();
+        try {
+            list.add(head, "hello0".getBytes());
+            Assert.assertEquals(1, list.size(head));
+
+            // direct 写入后 size、get、range 不能读到缓存里旧的 meta
+            ByteBuffer value = ByteBuffer.allocateDirect(16);
+            value.put("hello1".getBytes()).flip();
+            list.add(head, value);
+            Assert.assertEquals(2, list.size(head));
+            Assert.assertArrayEquals("hello1".getBytes(), list.get(head, 1));
+            Assert.assertEquals(2, list.range(head, 0, 2).size());
+        } finally {
+            list.delete(head);
+        }
+    }
+
+    @Test
+    public void blockingPop() throws Exception {
+        String head = "blockingPop0";
+        RList list = db.getList();
+        try {
+            long begin = System.currentTimeMillis();
+            Assert.assertTrue(list.blpop(head, 1, 200, TimeUnit.MILLISECONDS).isEmpty());
+            Assert.assertTrue(System.currentTimeMillis() - begin >= 200);
+
+            Future<List<byte[]>> waiting = executorService.submit(() -> list.blpop(head, 1, 10, TimeUnit.SECONDS));
+            while (list.getWaiting() == 0) {
+                Thread.sleep(10);
+            }
+            list.add(head, "hello".getBytes());
+            Assert.assertArrayEquals("hello".getBytes(), waiting.get(5, TimeUnit.SECONDS).get(0));
+
+            Future<RList.Pop> multi = executorService.submit(() ->
+                    list.brpop(Arrays.asList(head + "x", head + "y"), 1, 10, TimeUnit.SECONDS));
+            while (list.getWaiting() == 0) {
+                Thread.sleep(10);
+            }
+            list.add(head + "y", "world".getBytes());
+            RList.Pop pop = multi.get(5, TimeUnit.SECONDS);
+            Assert.assertEquals(head + "y", pop.getKey());
+            Assert.assertArrayEquals("world".getBytes(), pop.getValues().get(0));
+            Assert.assertEquals(0, list.getWaiting());
+        } finally {
+            list.delete(head);
+            list.delete(head + "y");
+        }
+    }
+
+    @Test
+    public void blockingPopPassOn() throws Exception {
+        String head = "blockingPopPassOn0";
+        RList list = db.getList();
+        try {
+            Future<RList.Pop> multi = executorService.submit(() ->
+                    list.blpop(Arrays.asList(head + "a", head + "b"), 1, 10, TimeUnit.SECONDS));
+            while (list.getWaiting() == 0) {
+                Thread.sleep(10);
+            }
+            Future<List<byte[]>> single = executorService.submit(() -> list.blpop(head + "b", 1, 10, TimeUnit.SECONDS));
+            while (list.getWaiting() < 2) {
+                Thread.sleep(10);
+            }
+            // b 的唤醒给了排在前面的 multi，它却从 a 弹出，b 的数据要交给 single
+            db.startTran();
+            list.add(head + "b", "world".getBytes());
+            list.add(head + "a", "hello".getBytes());
+            db.commitTX();
+
+            RList.Pop pop = multi.get(5, TimeUnit.SECONDS);
+            Assert.assertEquals(head + "a", pop.getKey());
+            Assert.assertArrayEquals("hello".getBytes(), pop.getValues().get(0));
+            Assert.assertArrayEquals("world".getBytes(), single.get(5, TimeUnit.SECONDS).get(0));
+            Assert.assertEquals(0, list.getWaiting());
+        } finally {
+            list.delete(head + "a");
+            list.delete(head + "b");
+        }
+    }
+}
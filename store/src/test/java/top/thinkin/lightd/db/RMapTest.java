@@ -5,6 +5,7 @@ import org.junit.Assert;
 import org.junit.Test;
 import top.thinkin.lightd.exception.KitDBException;
 
+import java.nio.ByteBuffer;
 import java.util.*;
 
 
@@ -213,6 +214,82 @@ public class RMapTest extends BaseTest {
         }
     }
 
+    @Test
+    public void metaCache() throws KitDBException {
+        String head = "metaCache0";
+        RMap map = db.getMap();
+        MetaCache cache = db.getMetaCache();
+        try {
+            Assert.assertFalse(map.isExist(head));
+            map.put(head, "hello0", "world0".getBytes());
+            Assert.assertEquals(1, map.size(head));
+
+            long hits = cache.getHits();
+            Assert.assertEquals(1, map.size(head));
+            Assert.assertArrayEquals("world0".getBytes(), map.get(head, "hello0"));
+            Assert.assertTrue(cache.getHits() > hits);
+
+            // 写入后缓存失效，读到新的 meta
+            map.put(head, "hello1", "world1".getBytes());
+            Assert.assertEquals(2, map.size(head));
+            map.delete(head);
+            Assert.assertFalse(map.isExist(head));
+            Assert.assertEquals(0, map.size(head));
+        } finally {
+            map.delete(head);
+        }
+    }
+
+    @Test
+    public void metaCacheDirect() throws KitDBException {
+        String head = "metaCacheDirect0";
+        RMap map = db.getMap();
+        try {
+            map.put(head, "hello0", "world0".getBytes());
+            Assert.assertEquals(1, map.size(head));
+
+            // direct 写入同样要让缓存的 meta 失效
+            ByteBuffer value = ByteBuffer.allocateDirect(16);
+            value.put("world1".getBytes()).flip();
+            map.put(head, "hello1", value);
+            Assert.assertEquals(2, map.size(head));
+            Assert.assertArrayEquals("world1".getBytes(), map.get(head, "hello1"));
+        } finally {
+            map.delete(head);
+        }
+    }
+
+    @Test
+    public void iteratorBatch() throws KitDBException {
+        String head = "iteratorBatch0";
+        RMap map = db.getMap();
+        int num = 3000;
+        // 大于初始缓冲区的值，批量读取时需要扩容
+        byte[] big = new byte[20 * 1024];
+        Arrays.fill(big, (byte) 7);
+        try {
+            for (int i = 0; i < num; i++) {
+                map.put(head, "hello" + i, i % 500 == 0 ? big : ("world" + i).getBytes());
+            }
+            int count = 0;
+            try (RIterator<RMap> iterator = map.iterator(head)) {
+                while (iterator.hasNext()) {
+                    RMap.Entry entry = iterator.next();
+                    int i = Integer.parseInt(entry.getKey().substring(5));
+                    if (i % 500 == 0) {
+                        Assert.assertArrayEquals(big, entry.getValue());
+                    } else {
+                        Assert.assertEquals("world" + i, new String(entry.getValue()));
+                    }
+                    count++;
+                }
+            }
+            Assert.assertEquals(num, count);
+        } finally {
+            map.delete(head);
+        }
+    }
+
     @Test
     public void getTtl() {
 
@@ -289,4 +366,51 @@ public class RMapTest extends BaseTest {
     public void size() {
 
     }
-}
\ No newline at end of file
+
+    /**
+     * 过期集合的 meta 和成员在压缩后被清理
+     */
+    @Test
+    public void compactExpired() throws Exception {
+        String head = "compactExpired0";
+        RMap map = db.getMap();
+        for (int i = 0; i < 1000; i++) {
+            map.putTTL(head, "hello" + i, ("world" + i).getBytes(), 1);
+        }
+        byte[] key_b = map.getKey(head);
+        Assert.assertNotNull(db.rocksDB().get(db.metaHandle, key_b));
+
+        Thread.sleep(2000);
+        db.compaction();
+        db.rocksDB().compactRange(db.metaHandle);
+        Assert.assertNull(db.rocksDB().get(db.metaHandle, key_b));
+        Assert.assertNull(map.get(head, "hello0"));
+    }
+
+    @Test
+    public void deleteKeepsNeighbours() throws Exception {
+        String head = "deleteKeepsNeighbours";
+        RMap map = db.getMap();
+        try {
+            for (int i = 0; i < 10000; i++) {
+                map.put(head + 0, "hello" + i, ("world" + i).getBytes());
+                map.put(head + 1, "hello" + i, ("world" + i).getBytes());
+            }
+            map.delete(head + 0);
+            Assert.assertFalse(map.isExist(head + 0));
+            Assert.assertNull(map.get(head + 0, "hello0"));
+            Assert.assertEquals(10000, map.size(head + 1));
+            Assert.assertArrayEquals("world9999".getBytes(), map.get(head + 1, "hello9999"));
+        } finally {
+            map.delete(head + 0);
+            map.delete(head + 1);
+        }
+    }
+
+    @Test
+    public void prefixEnd() {
+        Assert.assertArrayEquals(new byte[]{1, 3}, DBAbs.prefixEnd(new byte[]{1, 2}));
+        Assert.assertArrayEquals(new byte[]{2}, DBAbs.prefixEnd(new byte[]{1, (byte) 0xFF, (byte) 0xFF}));
+        Assert.assertNull(DBAbs.prefixEnd(new byte[]{(byte) 0xFF}));
+    }
+}
@@ -0,0 +1,72 @@
+package top.thinkin.lightd.db;
+
+import org.junit.Assert;
+import org.junit.Test;
+import top.thinkin.lightd.benchmark.JoinFuture;
+
+public class StripedKeyLockTest extends BaseTest {
+
+    @Test
+    public void incrConcurrent() throws Exception {
+        String head = "incrConcurrent0";
+        RKv kv = db.getrKv();
+        StripedKeyLock lock = db.getKvLock();
+        long before = lock.getAcquisitions();
+        try {
+            JoinFuture<String> joinFuture = JoinFuture.build(executorService, String.class);
+            for (int i = 0; i < 10000; i++) {
+                int fj = i;
+                joinFuture.add(args -> {
+                    try {
+                        kv.incr(head + fj % 4, 1);
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                    return "";
+                });
+            }
+            joinFuture.join();
+            for (int i = 0; i < 4; i++) {
+                Assert.assertEquals(2500L, kv.incr(head + i, 0));
+            }
+            Assert.assertTrue(lock.getAcquisitions() - before >= 10000);
+        } finally {
+            for (int i = 0; i < 4; i++) {
+                kv.del(head + i);
+            }
+        }
+    }
+
+    @Test
+    public void stripes() {
+        StripedKeyLock lock = new StripedKeyLock(100);
+        Assert.assertEquals(128, lock.getStripes());
+        int stripe = lock.lock("hello");
+        Assert.assertEquals(lock.stripe("hello"), stripe);
+        long stamp = lock.tryOptimisticRead(stripe);
+        Assert.assertEquals(0, stamp);
+        lock.unlock(stripe);
+
+        stamp = lock.tryOptimisticRead(stripe);
+        Assert.assertTrue(lock.validate(stripe, stamp));
+        Assert.assertTrue(lock.tryConvertToWriteLock(stripe, stamp));
+        Assert.assertFalse(lock.validate(stripe, stamp));
+        lock.unlock(stripe);
+        Assert.assertEquals(1, lock.getOptimisticHits());
+    }
+
+    @Test
+    public void tryLockTimeout() throws Exception {
+        StripedKeyLock lock = new StripedKeyLock(16);
+        int stripe = lock.lock("a");
+        try {
+            long start = System.currentTimeMillis();
+            Assert.assertFalse(lock.tryLockStripe(stripe, 100));
+            Assert.assertTrue(System.currentTimeMillis() - start >= 100);
+        } finally {
+            lock.unlock(stripe);
+        }
+        Assert.assertTrue(lock.tryLockStripe(stripe, 100));
+        lock.unlock(stripe);
+    }
+}
@@ -6,7 +6,9 @@ import org.junit.Test;
 import top.thinkin.lightd.benchmark.FList;
 import top.thinkin.lightd.benchmark.JoinFuture;
 import top.thinkin.lightd.exception.KitDBException;
+import top.thinkin.lightd.kit.ArrayKits;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -335,6 +337,27 @@ public class ZSetTest extends BaseTest {
 
     }
 
+    @Test
+    public void addBatchDuplicate() throws KitDBException {
+        String head = "addBatchDuplicate0";
+        ZSet set = db.getzSet();
+        try {
+            List<ZSet.Entry> entries = new ArrayList<>();
+            for (int i = 0; i < 1000; i++) {
+                entries.add(new ZSet.Entry(i, ("hello" + i % 500).getBytes()));
+            }
+            set.add(head, entries);
+            Assert.assertEquals(500, set.size(head));
+            Assert.assertEquals(999L, (long) set.score(head, "hello499".getBytes()));
+            Assert.assertEquals(500, set.range(head, 0, 10000, 10000).size());
+
+            set.remove(head, "hello0".getBytes(), "hello0".getBytes(), "hello1".getBytes());
+            Assert.assertEquals(498, set.size(head));
+        } finally {
+            set.delete(head);
+        }
+    }
+
     @Test
     public void score() throws KitDBException {
 
@@ -363,4 +386,167 @@ public class ZSetTest extends BaseTest {
     }
 
 
-}
\ No newline at end of file
+
+    @Test
+    public void rank() throws KitDBException {
+        String head = "rank0";
+        ZSet set = db.getzSet();
+        try {
+            // 分数跨越多个字节，覆盖索引的多个层级
+            for (int i = 0; i < 1000; i++) {
+                set.add(head, ("m" + i).getBytes(), i * 1000L);
+            }
+            set.add(head, "tie".getBytes(), 500 * 1000L);
+            Assert.assertEquals(0L, (long) set.rank(head, "m0".getBytes()));
+            Assert.assertEquals(500L, (long) set.rank(head, "m500".getBytes()));
+            Assert.assertEquals(501L, (long) set.rank(head, "tie".getBytes()));
+            Assert.assertEquals(1000L, (long) set.rank(head, "m999".getBytes()));
+            Assert.assertEquals(0L, (long) set.revRank(head, "m999".getBytes()));
+            Assert.assertNull(set.rank(head, "none".getBytes()));
+
+            List<ZSet.Entry> entries = set.rangeByRank(head, 500, 502);
+            Assert.assertEquals(3, entries.size());
+            Assert.assertArrayEquals("m500".getBytes(), entries.get(0).getValue());
+            Assert.assertArrayEquals("tie".getBytes(), entries.get(1).getValue());
+            Assert.assertArrayEquals("m501".getBytes(), entries.get(2).getValue());
+
+            List<ZSet.Entry> last = set.revRangeByRank(head, 0, 1);
+            Assert.assertArrayEquals("m999".getBytes(), last.get(0).getValue());
+            Assert.assertArrayEquals("m998".getBytes(), last.get(1).getValue());
+            Assert.assertArrayEquals("m999".getBytes(), set.rangeByRank(head, -1, -1).get(0).getValue());
+
+            set.add(head, "m0".getBytes(), 999999L);
+            set.remove(head, "m1".getBytes());
+            set.rangeDel(head, 2000, 3000, 10);
+            Assert.assertEquals(997L, (long) set.rank(head, "m0".getBytes()));
+            Assert.assertArrayEquals("m4".getBytes(), set.rangeByRank(head, 0, 0).get(0).getValue());
+        } finally {
+            set.delete(head);
+        }
+    }
+
+    @Test
+    public void signedAndReverse() throws KitDBException {
+        String head = "signedAndReverse0";
+        ZSet set = db.getzSet();
+        try {
+            for (int i = -5; i <= 5; i++) {
+                set.add(head, ("m" + i).getBytes(), i);
+            }
+            List<ZSet.Entry> entries = set.range(head, -3, 3, 100);
+            Assert.assertEquals(7, entries.size());
+            for (int i = 0; i < entries.size(); i++) {
+                Assert.assertEquals(i - 3, entries.get(i).getScore());
+            }
+            Assert.assertEquals(0L, (long) set.rank(head, "m-5".getBytes()));
+
+            List<ZSet.Entry> top = set.revRange(head, Long.MIN_VALUE, Long.MAX_VALUE, 3);
+            Assert.assertEquals(3, top.size());
+            Assert.assertEquals(5, top.get(0).getScore());
+            Assert.assertEquals(3, top.get(2).getScore());
+            Assert.assertEquals(-2, set.revRange(head, -5, -2, 1).get(0).getScore());
+
+            List<ZSet.Entry> dels = set.revRangeDel(head, -10, 10, 2);
+            Assert.assertEquals(5, dels.get(0).getScore());
+            Assert.assertEquals(4, dels.get(1).getScore());
+            Assert.assertNull(set.score(head, "m5".getBytes()));
+            Assert.assertEquals(3, set.revRange(head, -10, 10, 1).get(0).getScore());
+        } finally {
+            set.delete(head);
+        }
+    }
+
+    @Test
+    public void doubleScore() throws KitDBException {
+        String head = "doubleScore0";
+        ZSet set = db.getzSet();
+        try {
+            set.add(head, "a".getBytes(), 1.5);
+            set.add(head, "b".getBytes(), -2.25);
+            set.add(head, "c".getBytes(), 0.0);
+            set.add(head, "d".getBytes(), 3.75);
+
+            List<ZSet.DoubleEntry> entries = set.rangeDouble(head, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, 10);
+            Assert.assertEquals(4, entries.size());
+            Assert.assertEquals(-2.25, entries.get(0).getScore(), 0);
+            Assert.assertEquals(0.0, entries.get(1).getScore(), 0);
+            Assert.assertEquals(3.75, entries.get(3).getScore(), 0);
+            Assert.assertEquals(1, set.rangeDouble(head, -1, 1, 10).size());
+            Assert.assertArrayEquals("d".getBytes(), set.revRangeDouble(head, -10, 10, 1).get(0).getValue());
+            Assert.assertEquals(1.5, set.scoreDouble(head, "a".getBytes()), 0);
+            Assert.assertEquals(1L, (long) set.rank(head, "c".getBytes()));
+
+            List<ZSet.DoubleEntry> ranked = set.rangeByRankDouble(head, 1, 2);
+            Assert.assertEquals(2, ranked.size());
+            Assert.assertEquals(0.0, ranked.get(0).getScore(), 0);
+            Assert.assertEquals(1.5, ranked.get(1).getScore(), 0);
+            Assert.assertEquals(3.75, set.revRangeByRankDouble(head, 0, 0).get(0).getScore(), 0);
+
+            try {
+                set.add(head, "e".getBytes(), 1L);
+                Assert.fail();
+            } catch (KitDBException e) {
+                // 分数类型不能混用
+            }
+        } finally {
+            set.delete(head);
+        }
+    }
+
+    @Test
+    public void rankLegacy() throws Exception {
+        String head = "rankLegacy0";
+        ZSet set = db.getzSet();
+        try {
+            for (int i = -5; i <= 5; i++) {
+                set.add(head, ("m" + i).getBytes(), i * 1000L);
+            }
+            toLegacy(set, head, -5, 5);
+
+            // 旧编码的负分数按字节序排在正数之后，排名仍要按分数
+            Assert.assertEquals(0L, (long) set.rank(head, "m-5".getBytes()));
+            Assert.assertEquals(4L, (long) set.rank(head, "m-1".getBytes()));
+            Assert.assertEquals(5L, (long) set.rank(head, "m0".getBytes()));
+            Assert.assertEquals(10L, (long) set.rank(head, "m5".getBytes()));
+            Assert.assertEquals(10L, (long) set.revRank(head, "m-5".getBytes()));
+
+            List<ZSet.Entry> entries = set.rangeByRank(head, 3, 6);
+            Assert.assertEquals(4, entries.size());
+            for (int i = 0; i < entries.size(); i++) {
+                Assert.assertEquals((i - 2) * 1000L, entries.get(i).getScore());
+            }
+            List<ZSet.Entry> top = set.revRangeByRank(head, 0, 1);
+            Assert.assertEquals(5000L, top.get(0).getScore());
+            Assert.assertEquals(4000L, top.get(1).getScore());
+            Assert.assertEquals(-5000L, set.rangeByRank(head, 0, 0).get(0).getScore());
+
+            set.migrate(head);
+            Assert.assertEquals(4L, (long) set.rank(head, "m-1".getBytes()));
+            Assert.assertEquals(-2000L, set.rangeByRank(head, 3, 3).get(0).getScore());
+        } finally {
+            set.delete(head);
+        }
+    }
+
+    /**
+     * 把成员 m{from}..m{to} 改写成旧版本的补码编码，排名索引只留空标记
+     */
+    private void toLegacy(ZSet set, String head, int from, int to) throws Exception {
+        byte[] key_b = set.getKey(head);
+        ZSet.MetaV metaV = set.getMeta(key_b);
+        byte[] key_size = ArrayKits.intToBytes(key_b.length);
+        byte[] version = ArrayKits.intToBytes(metaV.getVersion());
+        for (int i = from; i <= to; i++) {
+            byte[] value = ("m" + i).getBytes();
+            byte[] member = new ZSet.SData(key_b.length, key_b, metaV.getVersion(), value).convertBytes().toBytes();
+            byte[] score = db.rocksDB().get(member);
+            byte[] legacy = ScoreCodec.LEGACY.encode(ScoreCodec.LONG.decode(score));
+            db.rocksDB().delete(new ZSet.ZDataD(key_size, key_b, version, score, value).toBytes());
+            db.rocksDB().put(new ZSet.ZDataD(key_size, key_b, version, legacy, value).toBytes(), new byte[0]);
+            db.rocksDB().put(member, legacy);
+        }
+        byte[] rankHead = ArrayKits.addAll(ZSet.HEAD_RANK_B, key_size, key_b, version);
+        db.rocksDB().deleteRange(rankHead, DBAbs.prefixEnd(rankHead));
+        db.rocksDB().put(rankHead, new byte[0]);
+    }
+}